@@ -24,14 +24,15 @@
 package jenkins.plugins.elastest;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.AbstractBuild;
 import hudson.model.Environment;
@@ -44,7 +45,10 @@ import jenkins.plugins.elastest.docker.DockerCommandExecutor;
 import jenkins.plugins.elastest.docker.DockerService;
 import jenkins.plugins.elastest.json.ElasTestBuild;
 import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.utils.ListResultsCallable;
+import jenkins.plugins.elastest.utils.PackResultsCallable;
 import jenkins.plugins.elastest.utils.ParseResultCallable;
+import jenkins.plugins.elastest.utils.TestReportSummarizer;
 
 /**
  * Listener to perform some actions during the Job life cycle.
@@ -93,20 +97,49 @@ public class BuildListener extends RunListener<Run> {
         final long buildTime = build.getTimestamp().getTimeInMillis();
         final long timeOnMaster = System.currentTimeMillis();
 
-        ElasTestBuild elasTestBuild = elasTestService.getElasTestBuilds()
-                .get(build.getFullDisplayName());
+        ElasTestBuild elasTestBuild = elasTestService.getElasTestBuild(build);
 
         if (elasTestBuild != null && elasTestBuild.getExternalJob() != null
                 && elasTestBuild.getExternalJob().getTestResultFilePattern() != null
                 && !elasTestBuild.getExternalJob().getTestResultFilePattern().isEmpty()) {
+            ExternalJob externalJob = elasTestBuild.getExternalJob();
+            FilePath workspace = elasTestBuild.getWorkspace();
+            IncrementalReportShipper shipper = elasTestBuild.getReportShipper();
             try {
-                elasTestBuild.getExternalJob()
-                        .setTestResults(elasTestBuild.getWorkspace()
-                                .act(new ParseResultCallable(
-                                        elasTestBuild.getExternalJob().getTestResultFilePattern(),
-                                        buildTime, timeOnMaster)));
+                List<String> reports = workspace.act(new ListResultsCallable(
+                        externalJob.getTestResultFilePattern(), buildTime, timeOnMaster));
+                List<String> uploaded = Collections.emptyList();
+                if (shipper != null) {
+                    // Only the reports not shipped during the build are sent
+                    uploaded = shipper.finish(reports);
+                } else if (!reports.isEmpty()) {
+                    uploaded = elasTestService.uploadTestResults(externalJob, workspace,
+                            reports);
+                }
+                if (uploaded == null) {
+                    // Older ElasTest, the reports go in the finalization
+                    ElasTestInstallation.Descriptor descriptor = ElasTestInstallation
+                            .getLogstashDescriptor();
+                    ParseResultCallable reader = new ParseResultCallable(
+                            externalJob.getTestResultFilePattern(), buildTime,
+                            timeOnMaster, descriptor.reportReaderThreads,
+                            descriptor.summarizeTestReports
+                                    ? new TestReportSummarizer(descriptor.includeTestOutput)
+                                    : null);
+                    externalJob.setTestResults(descriptor.compressTestReports
+                            ? PackResultsCallable.readTestResults(workspace, reader)
+                            : workspace.act(reader));
+                } else if (!uploaded.isEmpty()) {
+                    externalJob.setTestResultFiles(uploaded);
+                }
             } catch (IOException | InterruptedException e) {
+                LOG.error("[elastest-plugin]: Error sending the test reports: {}", e.getMessage());
                 listener.getLogger().println("Error sending surefire reports");
+            } finally {
+                if (shipper != null) {
+                    // In case finish() was not reached
+                    shipper.stop();
+                }
             }
         }
 
@@ -117,10 +150,15 @@ public class BuildListener extends RunListener<Run> {
         super.onFinalized(build);
         System.setProperty("hudson.model.ParametersAction.keepUndefinedParameters", "true");
 
-        if (elasTestService.getElasTestBuilds().size() > 0 && (build != null
-                && build.getFullDisplayName() != null && build.getResult() != null)) {
-            ExternalJob externalJob = elasTestService
-                    .getExternalJobByBuildFullName(build.getFullDisplayName());
+        ElasTestBuild elasTestBuild = build != null
+                ? elasTestService.getElasTestBuild(build)
+                : null;
+        if (elasTestBuild != null && elasTestBuild.getReportShipper() != null) {
+            // Does nothing if onCompleted already stopped it
+            elasTestBuild.getReportShipper().stop();
+        }
+        if (elasTestBuild != null && build.getResult() != null) {
+            ExternalJob externalJob = elasTestBuild.getExternalJob();
             switch (build.getResult().ordinal) {
             case 0:
                 externalJob.setResult(0);
@@ -139,17 +177,13 @@ public class BuildListener extends RunListener<Run> {
             }
             // Stop docker containers started locally
             LOG.debug("[elastest-plugin]: Stopping aux containers.");
-            ElasTestBuild elasTestBuild = elasTestService.getElasTestBuilds()
-                    .get(build.getFullDisplayName());
             try {
-                List<String> buildContainers = elasTestService.getElasTestBuilds()
-                        .get(build.getFullDisplayName()).getContainers();
+                List<String> buildContainers = elasTestBuild.getContainers();
                 if (buildContainers.size() > 0) {
                     VirtualChannel channel = elasTestBuild.getWorkspace().getChannel();
                     dockerCommandExecutor.setCommand("docker", "ps");
                     channel.call(dockerCommandExecutor);
-                    for (String containerId : elasTestService.getElasTestBuilds()
-                            .get(build.getFullDisplayName()).getContainers()) {
+                    for (String containerId : buildContainers) {
                         LOG.info("Stopping docker container: {}", containerId);
                         dockerCommandExecutor.setCommand("docker", "rm", "-f", containerId);
                         channel.call(dockerCommandExecutor);
@@ -160,24 +194,28 @@ public class BuildListener extends RunListener<Run> {
                         + "that you will have to stop them manually");
                 io.printStackTrace();
             } finally {
-                if (elasTestBuild != null && elasTestService.getElasTestBuilds()
-                        .get(build.getFullDisplayName()).getWriter() != null) {
+                ElasTestWriter writer = elasTestBuild.getWriter();
+                if (writer != null) {
                     elasTestService.manageEIMEndIfNecessary(build, elasTestBuild.getEnvVars());
 
-                    ExecutorService executor = elasTestService.getElasTestBuilds()
-                            .get(build.getFullDisplayName()).getWriter().getExecutor();
-                    if (!executor.isTerminated()) {
-                        executor.shutdown();
-                        try {
-                            executor.awaitTermination(60, TimeUnit.SECONDS);
-                        } catch (InterruptedException e) {
+                    writer.flush();
+                    try {
+                        if (!writer.awaitSent(60, TimeUnit.SECONDS)) {
                             LOG.warn("Timeout sending logs to ElasTest");
                         }
+                    } catch (InterruptedException e) {
+                        LOG.warn("Interrupted sending logs to ElasTest");
+                        Thread.currentThread().interrupt();
                     }
+                    writer.close();
+                }
+                try {
+                    FinalizationOutbox.getInstance().enqueue(externalJob);
+                } catch (IOException | IllegalArgumentException e) {
+                    LOG.error("[elastest-plugin]: The finalization of {} cannot be sent to ElasTest: {}",
+                            build.getFullDisplayName(), e.getMessage());
                 }
-                elasTestService.finishElasTestTJobExecution(
-                        elasTestService.getExternalJobByBuildFullName(build.getFullDisplayName()));
-                elasTestService.removeExternalJobs(build.getFullDisplayName());
+                elasTestService.removeElasTestBuild(build);
             }
         }
         LOG.info("[elastest-plugin]: Finalized all");
@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import hudson.model.Run;
+import jenkins.plugins.elastest.json.ElasTestBuild;
+
+/**
+ * The {@link ElasTestBuild} of each running build, keyed by
+ * {@link Run#getExternalizableId()}, which unlike the display name cannot be
+ * changed while the build runs. It can be used from the executors, the CPS
+ * VM and the listeners at the same time: reads take no lock and updates only
+ * lock the entry they change.
+ * <p>
+ * The {@link ElasTestBuild} returned is the handle of the entry. Callers
+ * should look it up once and keep it, instead of looking it up for each
+ * field.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class BuildRegistry implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final ConcurrentMap<String, ElasTestBuild> builds = new ConcurrentHashMap<>();
+
+    static String idOf(Run<?, ?> build) {
+        return build.getExternalizableId();
+    }
+
+    /**
+     * @return the entry of the build, or null if it is not registered.
+     */
+    public ElasTestBuild get(Run<?, ?> build) {
+        return builds.get(idOf(build));
+    }
+
+    /**
+     * Registers the build, replacing its previous entry if any.
+     */
+    public void put(Run<?, ?> build, ElasTestBuild elasTestBuild) {
+        builds.put(idOf(build), elasTestBuild);
+    }
+
+    /**
+     * @return the entry of the build, created atomically with the function if
+     *         it is not registered.
+     */
+    public ElasTestBuild computeIfAbsent(Run<?, ?> build,
+            Function<String, ElasTestBuild> factory) {
+        return builds.computeIfAbsent(idOf(build), factory);
+    }
+
+    /**
+     * Updates the entry of the build atomically, see
+     * {@link ConcurrentMap#compute(Object, BiFunction)}.
+     */
+    public ElasTestBuild compute(Run<?, ?> build,
+            BiFunction<String, ElasTestBuild, ElasTestBuild> update) {
+        return builds.compute(idOf(build), update);
+    }
+
+    /**
+     * @return the entry removed, or null if the build was not registered.
+     */
+    public ElasTestBuild remove(Run<?, ?> build) {
+        return builds.remove(idOf(build));
+    }
+
+    public boolean isEmpty() {
+        return builds.isEmpty();
+    }
+
+    public int size() {
+        return builds.size();
+    }
+}
@@ -62,9 +62,9 @@ public class ConsoleLogFilterImpl extends ConsoleLogFilter
             throws IOException, InterruptedException {
         LOG.debug("[elastest-plugin]: Executing decorate logger");
 
-        ElasTestOutputStream los = new ElasTestOutputStream(logger,
-                getElasTestWriter(build, logger, null));
-        return los;
+        ElasTestWriter elasTestWriter = getElasTestWriter(build, logger, null);
+        elasTestWriter.streamOpened();
+        return new ElasTestOutputStream(logger, elasTestWriter);
     }
 
     // Method to encapsulate calls for unit-testing
@@ -29,7 +29,10 @@ import static org.slf4j.LoggerFactory.getLogger;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import org.slf4j.Logger;
 
 import org.kohsuke.stapler.DataBoundConstructor;
@@ -91,35 +94,31 @@ public class ElasTestBuildWrapper extends SimpleBuildWrapper {
             EnvVars initialEnvironment)
             throws IOException, InterruptedException {
         LOG.debug("[elastest-plugin]: ElasTestBuildWrapper SetUp");
-        ExternalJob externalJob = elasTestService
-                .getExternalJobByBuildFullName(build.getFullDisplayName());
-        if (externalJob.getResult() != 1) {
+        ElasTestBuild elasTestBuild = elasTestService.getElasTestBuild(build);
+        if (elasTestBuild.getExternalJob().getResult() != 1) {
             ElasTestItemMenuAction.addActionToMenu(build);
 
-            ElasTestBuild elasTestBuild;
-            elasTestBuild = elasTestService.getElasTestBuilds()
-                    .get(build.getFullDisplayName());
             elasTestBuild.setWorkspace(workspace);
 
-            while (!elasTestBuild.getExternalJob().isReady()) {
-                try {
-                    elasTestBuild.setExternalJob(elasTestService
-                            .isReadyTJobForExternalExecution(externalJob));
-                } catch (Exception e) {
-                    LOG.debug(
-                            "[elastest-plugin]: Error checking the status of the TJob.");
-                    e.printStackTrace();
-                    throw new InterruptedException();
-                }
+            CompletableFuture<ExternalJob> ready = elasTestService
+                    .awaitReady(elasTestBuild.getExternalJob());
+            try {
+                elasTestBuild.setExternalJob(ready.get());
+            } catch (InterruptedException e) {
+                ready.cancel(false);
+                throw e;
+            } catch (ExecutionException e) {
+                LOG.debug(
+                        "[elastest-plugin]: Error checking the status of the TJob.");
+                e.getCause().printStackTrace();
+                throw new InterruptedException();
             }
+            IncrementalReportShipper.start(build, elasTestBuild);
 
-            if (elasTestService
-                    .getExternalJobByBuildFullName(build.getFullDisplayName())
-                    .getEnvVars() != null) {
-                for (Entry<String, String> entry : elasTestService
-                        .getExternalJobByBuildFullName(
-                                build.getFullDisplayName())
-                        .getEnvVars().entrySet()) {
+            Map<String, String> envVars = elasTestBuild.getExternalJob()
+                    .getEnvVars();
+            if (envVars != null) {
+                for (Entry<String, String> entry : envVars.entrySet()) {
                     context.env(entry.getKey(), entry.getValue());
                 }
             }
@@ -134,29 +133,24 @@ public class ElasTestBuildWrapper extends SimpleBuildWrapper {
         LOG.debug(
                 "[elastest-plugin]: ElasTestBuildWrapper CreateLoggerDecorator");
         elasTestService = ElasTestService.getInstance();
-        ElasTestBuild elasTestBuild = new ElasTestBuild();
+        // A decorator created again for the same build keeps its writer
+        ElasTestBuild elasTestBuild = elasTestService.getBuilds()
+                .computeIfAbsent(build, id -> new ElasTestBuild());
         try {
             elasTestService.asociateToElasTestTJob(build, this, elasTestBuild);
         } catch (Exception e) {
             e.printStackTrace();
-            elasTestService
-                    .getExternalJobByBuildFullName(build.getFullDisplayName())
-                    .setResult(1);
+            elasTestBuild.getExternalJob().setResult(1);
         }
 
-        ElasTestWriter elasTestWriter;
-
-        if (elasTestService.getElasTestBuilds().get(build.getFullDisplayName())
-                .getWriter() != null) {
+        ElasTestWriter elasTestWriter = elasTestBuild.getWriter();
+        if (elasTestWriter != null) {
             LOG.debug("[elastest-plugin]: Getting the existing writer");
-            elasTestWriter = elasTestService.getElasTestBuilds()
-                    .get(build.getFullDisplayName()).getWriter();
         } else {
             LOG.debug("[elastest-plugin]: Creating a new writer");
-            elasTestWriter = new ElasTestWriter(build, null, elasTestService
-                    .getExternalJobByBuildFullName(build.getFullDisplayName()));
-            elasTestService.getElasTestBuilds().get(build.getFullDisplayName())
-                    .setWriter(elasTestWriter);
+            elasTestWriter = new ElasTestWriter(build, null,
+                    elasTestBuild.getExternalJob());
+            elasTestBuild.setWriter(elasTestWriter);
         }
         return new ConsoleLogFilterImpl(build, elasTestWriter);
     }
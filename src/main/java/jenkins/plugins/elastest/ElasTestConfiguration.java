@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+import org.apache.commons.lang.StringUtils;
+import org.glassfish.jersey.client.ClientConfig;
+
+import jenkins.plugins.elastest.utils.Authenticator;
+import jenkins.plugins.elastest.utils.HttpTransport;
+
+/**
+ * Immutable snapshot of the configuration used to call the ElasTest API,
+ * with the REST client built for it. The client sends its requests through
+ * the {@link HttpTransport}, with its pool and timeouts. A new snapshot is
+ * created when the
+ * global configuration is saved, see {@link ElasTestService#reconfigure()}.
+ * The requests already started keep using the snapshot they read.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class ElasTestConfiguration {
+    static final String TJOB_API_PATH = "/api/external/tjob";
+    static final String VERSION_API_PATH = "/api/external/elastest/version";
+    private static final AtomicLong VERSIONS = new AtomicLong();
+
+    private final long version;
+    private final String elasTestUrl;
+    private final String tJobApiUrl;
+    private final String username;
+    private final String password;
+    private final Client client;
+
+    public ElasTestConfiguration(String elasTestUrl, String username,
+            String password) {
+        this.version = VERSIONS.incrementAndGet();
+        this.elasTestUrl = elasTestUrl;
+        this.tJobApiUrl = elasTestUrl + TJOB_API_PATH;
+        this.username = username;
+        this.password = password;
+        this.client = createClient();
+    }
+
+    private Client createClient() {
+        ClientConfig config = HttpTransport.getInstance()
+                .configure(new ClientConfig());
+        if (isWithAuthentication()) {
+            config.register(new Authenticator(username, password));
+        }
+        return ClientBuilder.newClient(config);
+    }
+
+    static ElasTestConfiguration fromDescriptor(
+            ElasTestInstallation.Descriptor descriptor) {
+        return new ElasTestConfiguration(descriptor.elasTestUrl,
+                descriptor.username, descriptor.password);
+    }
+
+    /**
+     * @return a number that grows with each new snapshot.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public String getElasTestUrl() {
+        return elasTestUrl;
+    }
+
+    public String getTJobApiUrl() {
+        return tJobApiUrl;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public boolean isWithAuthentication() {
+        return StringUtils.isNotEmpty(username)
+                && StringUtils.isNotEmpty(password);
+    }
+
+    public Client getClient() {
+        return client;
+    }
+
+    /**
+     * Releases the client. The connections stay in the pool of the
+     * {@link HttpTransport}.
+     */
+    public void close() {
+        client.close();
+    }
+}
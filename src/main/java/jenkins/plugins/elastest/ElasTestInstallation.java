@@ -39,7 +39,14 @@ import hudson.tools.ToolDescriptor;
 import hudson.tools.ToolInstallation;
 import hudson.tools.ToolProperty;
 import hudson.util.FormValidation;
+import hudson.util.ListBoxModel;
 import jenkins.model.Jenkins;
+import jenkins.plugins.elastest.submitters.BeatsSubmitter;
+import jenkins.plugins.elastest.submitters.ContentEncoding;
+import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
+import jenkins.plugins.elastest.submitters.LogstashSubmitter;
+import jenkins.plugins.elastest.utils.HttpTransport;
+import jenkins.plugins.elastest.utils.ParseResultCallable;
 import jenkins.plugins.elastest.utils.Utils;
 import net.sf.json.JSONObject;
 
@@ -73,6 +80,24 @@ public class ElasTestInstallation extends ToolInstallation {
         public String username;
         public String password;
         public String elasTestVersion;
+        public int batchMaxLines = 500;
+        public int batchMaxBytes = 512 * 1024;
+        public long batchLingerMillis = 1000;
+        public int maxConnectionsPerRoute = LogstashSubmitter.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        public String compression = ContentEncoding.IDENTITY.name();
+        public int compressionMinBytes = LogstashSubmitter.DEFAULT_COMPRESSION_MIN_BYTES;
+        public int beatsWindowSize = BeatsSubmitter.DEFAULT_WINDOW_SIZE;
+        public boolean beatsCompressed = true;
+        public int queueCapacity = 64;
+        public String overflowPolicy = OverflowPolicy.SPILL_TO_DISK.name();
+        public int senderThreads = LogSenderService.DEFAULT_THREADS;
+        public int reportReaderThreads = ParseResultCallable.DEFAULT_PARALLELISM;
+        public boolean summarizeTestReports = false;
+        public boolean includeTestOutput = false;
+        public boolean compressTestReports = true;
+        public String submitterType = SubmitterType.LOGSTASH.name();
+        public int httpConnectTimeoutSeconds = HttpTransport.DEFAULT_CONNECT_TIMEOUT_SECONDS;
+        public int httpReadTimeoutSeconds = HttpTransport.DEFAULT_READ_TIMEOUT_SECONDS;
 
         public Descriptor() {
             super();
@@ -86,6 +111,7 @@ public class ElasTestInstallation extends ToolInstallation {
             if (req != null) {
                 req.bindJSON(this, formData.getJSONObject("elastest"));
                 save();
+                applyConfiguration();
             }
             return super.configure(req, formData);
         }
@@ -96,6 +122,7 @@ public class ElasTestInstallation extends ToolInstallation {
             if (req != null) {
                 req.bindJSON(this, formData.getJSONObject("elastest"));
                 save();
+                applyConfiguration();
                 return super.newInstance(req, formData);
             } else {
                 throw new FormException("Stapler request values null.",
@@ -103,46 +130,48 @@ public class ElasTestInstallation extends ToolInstallation {
             }
         }
 
+        /**
+         * Applies the saved configuration to the services already running,
+         * the same way from {@link #configure} and {@link #newInstance}.
+         */
+        private void applyConfiguration() {
+            HttpTransport.getInstance().setTimeouts(httpConnectTimeoutSeconds,
+                    httpReadTimeoutSeconds);
+            ElasTestService.reconfigure();
+            LogSenderService.getInstance().setThreads(senderThreads);
+        }
+
         public FormValidation doTestElasTestConnection(
                 @QueryParameter("elasTestUrl") final String elasTestUrl,
                 @QueryParameter("username") final String username,
                 @QueryParameter("password") final String password) {
-            String oldElasTestUrl = this.elasTestUrl;
-            String oldUsername = this.username;
-            String oldPassword = this.password;
-            this.elasTestUrl = elasTestUrl;
-            this.username = username;
-            this.password = password;
-
-            try {
-                if ((!username.equals("") && !password.equals(""))
-                        || (username.equals("") && password.equals(""))) {
-                    loadElasTestVersion();
-                    try {
-                        ElasTestService elasTestService = ElasTestService
-                                .getInstance();
-                        if (Utils.isCompatibleVersions(elasTestVersion,
-                                elasTestService.getElasTestVersion())) {
-                            return FormValidation.ok("Success");
-                        } else {
-                            return FormValidation.error(
-                                    "Your installed ElasTest version is not compatible"
-                                            + " with this plugin version. You need to get "
-                                            + "installed ElasTest v."
-                                            + elasTestVersion + "or later.");
-                        }
-                    } catch (Exception e) {
+            if ((!username.equals("") && !password.equals(""))
+                    || (username.equals("") && password.equals(""))) {
+                loadElasTestVersion();
+                // Tried without touching the configuration used by the builds
+                ElasTestConfiguration configuration = new ElasTestConfiguration(
+                        elasTestUrl, username, password);
+                try {
+                    if (Utils.isCompatibleVersions(elasTestVersion,
+                            ElasTestService.getInstance()
+                                    .getElasTestVersion(configuration))) {
+                        return FormValidation.ok("Success");
+                    } else {
                         return FormValidation.error(
-                                "Connection error. Check the ElasTest health and the plugin configuration.");
+                                "Your installed ElasTest version is not compatible"
+                                        + " with this plugin version. You need to get "
+                                        + "installed ElasTest v."
+                                        + elasTestVersion + "or later.");
                     }
-                } else {
+                } catch (Exception e) {
                     return FormValidation.error(
-                            "To use credentials to access ElasTest, it is necessary to complete both fields, username and password.");
+                            "Connection error. Check the ElasTest health and the plugin configuration.");
+                } finally {
+                    configuration.close();
                 }
-            } finally {
-                this.elasTestUrl = oldElasTestUrl;
-                this.username = oldUsername;
-                this.password = oldPassword;
+            } else {
+                return FormValidation.error(
+                        "To use credentials to access ElasTest, it is necessary to complete both fields, username and password.");
             }
         }
 
@@ -228,5 +257,172 @@ public class ElasTestInstallation extends ToolInstallation {
         public void setElasTestVersion(String elasTestVersion) {
             this.elasTestVersion = elasTestVersion;
         }
+
+        public int getBatchMaxLines() {
+            return batchMaxLines;
+        }
+
+        public void setBatchMaxLines(int batchMaxLines) {
+            this.batchMaxLines = batchMaxLines;
+        }
+
+        public int getBatchMaxBytes() {
+            return batchMaxBytes;
+        }
+
+        public void setBatchMaxBytes(int batchMaxBytes) {
+            this.batchMaxBytes = batchMaxBytes;
+        }
+
+        public long getBatchLingerMillis() {
+            return batchLingerMillis;
+        }
+
+        public void setBatchLingerMillis(long batchLingerMillis) {
+            this.batchLingerMillis = batchLingerMillis;
+        }
+
+        public ListBoxModel doFillOverflowPolicyItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (OverflowPolicy policy : OverflowPolicy.values()) {
+                items.add(policy.getDescription(), policy.name());
+            }
+            return items;
+        }
+
+        public ListBoxModel doFillSubmitterTypeItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Logstash (HTTP)", SubmitterType.LOGSTASH.name());
+            items.add("Beats (Lumberjack over TCP)", SubmitterType.BEATS.name());
+            return items;
+        }
+
+        public int getMaxConnectionsPerRoute() {
+            return maxConnectionsPerRoute;
+        }
+
+        public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        }
+
+        public ListBoxModel doFillCompressionItems() {
+            ListBoxModel items = new ListBoxModel();
+            for (ContentEncoding encoding : ContentEncoding.values()) {
+                items.add(encoding.getDescription(), encoding.name());
+            }
+            return items;
+        }
+
+        public String getCompression() {
+            return compression;
+        }
+
+        public void setCompression(String compression) {
+            this.compression = compression;
+        }
+
+        public int getCompressionMinBytes() {
+            return compressionMinBytes;
+        }
+
+        public void setCompressionMinBytes(int compressionMinBytes) {
+            this.compressionMinBytes = compressionMinBytes;
+        }
+
+        public int getBeatsWindowSize() {
+            return beatsWindowSize;
+        }
+
+        public void setBeatsWindowSize(int beatsWindowSize) {
+            this.beatsWindowSize = beatsWindowSize;
+        }
+
+        public boolean isBeatsCompressed() {
+            return beatsCompressed;
+        }
+
+        public void setBeatsCompressed(boolean beatsCompressed) {
+            this.beatsCompressed = beatsCompressed;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity;
+        }
+
+        public void setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+        }
+
+        public String getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public void setOverflowPolicy(String overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+        }
+
+        public int getSenderThreads() {
+            return senderThreads;
+        }
+
+        public void setSenderThreads(int senderThreads) {
+            this.senderThreads = senderThreads;
+        }
+
+        public int getReportReaderThreads() {
+            return reportReaderThreads;
+        }
+
+        public void setReportReaderThreads(int reportReaderThreads) {
+            this.reportReaderThreads = reportReaderThreads;
+        }
+
+        public boolean isSummarizeTestReports() {
+            return summarizeTestReports;
+        }
+
+        public void setSummarizeTestReports(boolean summarizeTestReports) {
+            this.summarizeTestReports = summarizeTestReports;
+        }
+
+        public boolean isIncludeTestOutput() {
+            return includeTestOutput;
+        }
+
+        public void setIncludeTestOutput(boolean includeTestOutput) {
+            this.includeTestOutput = includeTestOutput;
+        }
+
+        public boolean isCompressTestReports() {
+            return compressTestReports;
+        }
+
+        public void setCompressTestReports(boolean compressTestReports) {
+            this.compressTestReports = compressTestReports;
+        }
+
+        public String getSubmitterType() {
+            return submitterType;
+        }
+
+        public void setSubmitterType(String submitterType) {
+            this.submitterType = submitterType;
+        }
+
+        public int getHttpConnectTimeoutSeconds() {
+            return httpConnectTimeoutSeconds;
+        }
+
+        public void setHttpConnectTimeoutSeconds(int httpConnectTimeoutSeconds) {
+            this.httpConnectTimeoutSeconds = httpConnectTimeoutSeconds;
+        }
+
+        public int getHttpReadTimeoutSeconds() {
+            return httpReadTimeoutSeconds;
+        }
+
+        public void setHttpReadTimeoutSeconds(int httpReadTimeoutSeconds) {
+            this.httpReadTimeoutSeconds = httpReadTimeoutSeconds;
+        }
     }
 }
@@ -26,14 +26,14 @@ package jenkins.plugins.elastest;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 
 import hudson.console.ConsoleNote;
 import hudson.console.LineTransformationOutputStream;
 
 /**
  * Output stream that writes each line to the provided delegate output stream
- * and also sends it to ElasTest.
+ * and also sends it to ElasTest. Console notes and surrounding whitespace are
+ * removed working on the bytes of the line, without decoding it.
  *
  * @author Francisco R Díaz
  * @since 0.0.1
@@ -41,6 +41,8 @@ import hudson.console.LineTransformationOutputStream;
 public class ElasTestOutputStream extends LineTransformationOutputStream {
     final OutputStream delegate;
     final ElasTestWriter elasTestWriter;
+    // Lines with console notes are copied here without them
+    private byte[] lineBuffer = new byte[256];
 
     public ElasTestOutputStream(OutputStream delegate,
             ElasTestWriter elasTestWriter) {
@@ -55,12 +57,72 @@ public class ElasTestOutputStream extends LineTransformationOutputStream {
         this.flush();
 
         if (!elasTestWriter.isConnectionBroken()) {
-            String line = new String(b, 0, len, StandardCharsets.UTF_8.name()).trim();
-            line = ConsoleNote.removeNotes(line);
-            elasTestWriter.write(line);
+            byte[] line = b;
+            int length = len;
+            if (ConsoleNote.findPreamble(b, 0, len) >= 0) {
+                length = removeNotes(b, len);
+                line = lineBuffer;
+            }
+            // Same as String.trim()
+            int start = 0;
+            int end = length;
+            while (start < end && (line[start] & 0xff) <= ' ') {
+                start++;
+            }
+            while (end > start && (line[end - 1] & 0xff) <= ' ') {
+                end--;
+            }
+            if (end > start) {
+                elasTestWriter.write(line, start, end - start);
+            }
         }
     }
 
+    /**
+     * Copies the line to the line buffer, skipping the console notes as
+     * {@link ConsoleNote#removeNotes(String)} does.
+     * 
+     * @return the length of the line without notes.
+     */
+    private int removeNotes(byte[] b, int len) {
+        if (lineBuffer.length < len) {
+            lineBuffer = new byte[Math.max(len, lineBuffer.length * 2)];
+        }
+        int length = 0;
+        int position = 0;
+        while (position < len) {
+            int preamble = ConsoleNote.findPreamble(b, position,
+                    len - position);
+            if (preamble < 0) {
+                break;
+            }
+            int postamble = indexOf(b, ConsoleNote.POSTAMBLE,
+                    preamble + ConsoleNote.PREAMBLE.length, len);
+            if (postamble < 0) {
+                // Unterminated note, kept as is
+                break;
+            }
+            System.arraycopy(b, position, lineBuffer, length,
+                    preamble - position);
+            length += preamble - position;
+            position = postamble + ConsoleNote.POSTAMBLE.length;
+        }
+        System.arraycopy(b, position, lineBuffer, length, len - position);
+        return length + len - position;
+    }
+
+    private static int indexOf(byte[] b, byte[] target, int from, int to) {
+        outer: for (int i = from; i <= to - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (b[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -71,10 +133,11 @@ public class ElasTestOutputStream extends LineTransformationOutputStream {
     }
 
     /**
-     * {@inheritDoc}
+     * Sends the pending lines, see {@link ElasTestWriter#streamClosed()}.
      */
     @Override
     public void close() throws IOException {
+        elasTestWriter.streamClosed();
         delegate.close();
         super.close();
     }
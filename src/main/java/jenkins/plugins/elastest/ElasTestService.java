@@ -23,14 +23,21 @@
  */
 package jenkins.plugins.elastest;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
-import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.ProcessingException;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
@@ -40,10 +47,10 @@ import javax.ws.rs.core.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import hudson.EnvVars;
+import hudson.FilePath;
 import hudson.model.Run;
+import hudson.slaves.WorkspaceList;
 import hudson.tasks.LogRotator;
 import jenkins.model.BuildDiscarder;
 import jenkins.plugins.elastest.json.ElasTestBuild;
@@ -52,7 +59,9 @@ import jenkins.plugins.elastest.json.ExternalJob.ExternalJobStatusEnum;
 import jenkins.plugins.elastest.json.Sut;
 import jenkins.plugins.elastest.json.TestSupportServices;
 import jenkins.plugins.elastest.pipeline.ElasTestStep;
-import jenkins.plugins.elastest.utils.Authenticator;
+import jenkins.plugins.elastest.utils.HttpTransport;
+import jenkins.plugins.elastest.utils.ReportDigestCache;
+import jenkins.util.Timer;
 
 /**
  * Service to communicate with ElasTest and store the info related to each TJob
@@ -69,57 +78,69 @@ public class ElasTestService implements Serializable {
     private static final String EIM_API_KEY = "ET_EIM_API";
     private static final String EIM_PACKETLOSS_KEY = "ET_EIM_CONTROLLABILLITY_PACKETLOSS";
     private static final String EIM_CPUBURST_KEY = "ET_EIM_CONTROLLABILLITY_CPUBURST";
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String TEST_RESULTS_PATH = "test-results";
+
+    private static final Map<String, String> TSS_CATALOG = loadTSSCatalog();
+    private static final AtomicReference<ElasTestConfiguration> CONFIGURATION = new AtomicReference<>();
 
-    private HashMap<String, ElasTestBuild> elasTestBuilds;
-    private Map<String, String> tSServicesCatalog;
-    private String elasTestTJobApiUrl;
-    private String elasTestVersionApiUrl;
-    private String elasTestUrl;
-    private transient Client client;
-    protected boolean witAuthentication;
-    private Authenticator authenticator;
+    private final BuildRegistry builds;
+    private transient ReadinessCoordinator readinessCoordinator;
+    // Whether the ElasTest of a configuration accepts the upload of reports
+    private transient volatile UploadSupport uploadSupport;
 
     public ElasTestService() {
-        this.elasTestBuilds = new HashMap<>();
-        witAuthentication = false;
-        client = ClientBuilder.newClient();
-        authenticator = new Authenticator(null, null);
-        setNewConfiguration();
+        this.builds = new BuildRegistry();
     }
 
-    private void setNewConfiguration() {
-        elasTestUrl = ElasTestInstallation.getLogstashDescriptor().elasTestUrl;
-        elasTestTJobApiUrl = elasTestUrl + "/api/external/tjob";
-        elasTestVersionApiUrl = "/api/external/elastest/version";
-        String name = ElasTestInstallation.getLogstashDescriptor().username;
-        String password = ElasTestInstallation.getLogstashDescriptor().password;
-        if ((name != null && !name.equals("")) && (password != null && !password.equals(""))) {
-            witAuthentication = true;
-            authenticator.setCredentials(name, password);
-            if (client.getConfiguration().isRegistered(Authenticator.class)) {
-                LOG.info("[elastest-plugin]: There is an Authenticator registered");
-                LOG.info("[elastest-plugin]: Setting new credentials");
-            } else {
-                client = client.register(authenticator);
+    /**
+     * @return the current configuration, read from the descriptor the first
+     *         time.
+     */
+    public static ElasTestConfiguration getConfiguration() {
+        ElasTestConfiguration configuration = CONFIGURATION.get();
+        if (configuration == null) {
+            ElasTestConfiguration created = ElasTestConfiguration
+                    .fromDescriptor(ElasTestInstallation.getLogstashDescriptor());
+            if (!CONFIGURATION.compareAndSet(null, created)) {
+                // Another thread set it first, its client is the one used
+                created.close();
             }
-            LOG.info("[elastest-plugin]: Now access to ElasTest is with username and password.");
-        } else {
-            LOG.info("[elastest-plugin]: Removing credentials");
-            witAuthentication = false;
-            authenticator.setCredentials(null, null);
-            LOG.info("[elastest-plugin]: Now access to ElasTest is without username and password.");
+            configuration = CONFIGURATION.get();
         }
-        tSServicesCatalog = loadTSSCatalog();
+        return configuration;
     }
 
-    private Map<String, String> loadTSSCatalog() {
+    /**
+     * Replaces the configuration with the one saved in the descriptor. Called
+     * when the global configuration is saved.
+     */
+    public static void reconfigure() {
+        ElasTestConfiguration configuration = ElasTestConfiguration
+                .fromDescriptor(ElasTestInstallation.getLogstashDescriptor());
+        ElasTestConfiguration previous = CONFIGURATION.getAndSet(configuration);
+        if (previous != null) {
+            // Requests started with the previous client end before its timeout
+            HttpTransport transport = HttpTransport.getInstance();
+            Timer.get().schedule(previous::close,
+                    transport.getConnectTimeoutSeconds()
+                            + transport.getReadTimeoutSeconds(),
+                    TimeUnit.SECONDS);
+        }
+        LOG.info("[elastest-plugin]: Configuration {} loaded, access to ElasTest is {}",
+                configuration.getVersion(),
+                configuration.isWithAuthentication() ? "with username and password"
+                        : "without username and password");
+    }
+
+    private static Map<String, String> loadTSSCatalog() {
         Map<String, String> tSSCatalog = new HashMap<>();
         tSSCatalog.put("EUS", "29216b91-497c-43b7-a5c4-6613f13fa0e9");
         tSSCatalog.put("EBS", "a1920b13-7d11-4ebc-a732-f86a108ea49c");
         tSSCatalog.put("EMS", "bab3ae67-8c1d-46ec-a940-94183a443825");
         tSSCatalog.put("ESS", "af7947d9-258b-4dd1-b1ca-17450db25ef7");
         tSSCatalog.put("EDS", "fe5e0531-b470-441f-9c69-721c2b4875f2");
-        return tSSCatalog;
+        return Collections.unmodifiableMap(tSSCatalog);
     }
 
     // For normal Jenkins Job
@@ -136,7 +157,8 @@ public class ElasTestService implements Serializable {
 
         externalJob = asociateToElasTestTJob(externalJob);
         elasTestBuild.setExternalJob(externalJob);
-        elasTestBuilds.put(build.getFullDisplayName(), elasTestBuild);
+        // Registered by the wrapper, unless it is called from elsewhere
+        builds.computeIfAbsent(build, id -> elasTestBuild);
     }
 
     // For Pipeline
@@ -164,7 +186,7 @@ public class ElasTestService implements Serializable {
                 : null);
         externalJob.setFromIntegratedJenkins(elasTestStep.envVars.get("INTEGRATED_JENKINS") != null
                 && elasTestStep.envVars.get("INTEGRATED_JENKINS").equals(Boolean.TRUE.toString())
-                && elasTestUrl.equals("http://etm:8091"));
+                && "http://etm:8091".equals(getConfiguration().getElasTestUrl()));
         LOG.info("[elastest-plugin]: Build URL: {}", elasTestStep.envVars.get("BUILD_URL"));
         LOG.info("[elastest-plugin]: Job URL: {}", elasTestStep.envVars.get("JOB_URL"));
         externalJob.setBuildUrl(elasTestStep.envVars.get("BUILD_URL"));
@@ -175,7 +197,14 @@ public class ElasTestService implements Serializable {
         elasTestBuild.setExternalJob(externalJob);
         elasTestBuild.setEnvVars(elasTestStep.envVars);
         LOG.info("[elastest-plugin]: Job associated with a TJob");
-        elasTestBuilds.put(build.getFullDisplayName(), elasTestBuild);
+        builds.compute(build, (id, previous) -> {
+            if (previous != null && previous != elasTestBuild) {
+                // Another elastest step of the same build, the last one wins
+                LOG.warn("[elastest-plugin]: Build {} already associated with a TJob,"
+                        + " replacing it", id);
+            }
+            return elasTestBuild;
+        });
         LOG.info("[elastest-plugin]: ElasTestBuild saved {} ", elasTestBuild);
     }
 
@@ -206,36 +235,37 @@ public class ElasTestService implements Serializable {
     }
 
     private ExternalJob createTJobOnElasTest(ExternalJob externalJob) throws Exception {
-        ObjectMapper objetMapper = new ObjectMapper();
-        WebTarget webTarget = client.target(elasTestTJobApiUrl);
+        ElasTestConfiguration configuration = getConfiguration();
+        WebTarget webTarget = configuration.getClient()
+                .target(configuration.getTJobApiUrl());
 
         Invocation.Builder invocationBuilder = webTarget.request(MediaType.APPLICATION_JSON);
         Response response = null;
         try {
-            response = invocationBuilder
-                    .post(Entity.entity(externalJob.toJSON(), MediaType.APPLICATION_JSON));
-            externalJob = objetMapper.readValue(response.readEntity(String.class),
-                    ExternalJob.class);
-            if (externalJob.getStatus() == ExternalJobStatusEnum.ERROR) {
-                throw new Exception(externalJob.getError());
-            }
+            response = invocationBuilder.post(Entity.entity(externalJob.toJSONBytes(),
+                    MediaType.APPLICATION_JSON));
+            externalJob = readExternalJob(response);
             LOG.debug("[elastest-plugin]: Body in association request: {}", externalJob.toJSON());
         } catch (Exception e) {
             LOG.error("[elastest-plugin]: Error trying to create a TJob {} in ElasTest: {}",
                     externalJob.toJSON(), e.getMessage());
-            LOG.error("[elastest-plugin]: Elastest endpoint -> {}", elasTestTJobApiUrl);
+            LOG.error("[elastest-plugin]: Elastest endpoint -> {}",
+                    configuration.getTJobApiUrl());
             e.printStackTrace();
             throw e;
+        } finally {
+            close(response);
         }
         return externalJob;
     }
 
     public ExternalJob isReadyTJobForExternalExecution(ExternalJob externalJob) throws Exception {
-        ObjectMapper objetMapper = new ObjectMapper();
-        WebTarget webTarget = client.target(elasTestTJobApiUrl)
+        ElasTestConfiguration configuration = getConfiguration();
+        WebTarget webTarget = configuration.getClient()
+                .target(configuration.getTJobApiUrl())
                 .path(externalJob.gettJobExecId().toString());
 
-        LOG.info("[elastest-plugin]: URL to check if a TJob is ready -> {}",
+        LOG.debug("[elastest-plugin]: URL to check if a TJob is ready -> {}",
                 webTarget.getUri().toString());
 
         Invocation.Builder invocationBuilder = webTarget.request()
@@ -243,38 +273,225 @@ public class ElasTestService implements Serializable {
         Response response = null;
         try {
             response = invocationBuilder.get(Response.class);
-            externalJob = objetMapper.readValue(response.readEntity(String.class),
-                    ExternalJob.class);
-            if (externalJob.getStatus() == ExternalJobStatusEnum.ERROR) {
-                throw new Exception(externalJob.getError());
-            }
+            externalJob = readExternalJob(response);
         } catch (Exception e) {
             LOG.error("[elastest-plugin]: Error cheking if the TJob is ready: {}", e.getMessage());
             e.printStackTrace();
             throw e;
+        } finally {
+            close(response);
+        }
+        return externalJob;
+    }
+
+    /**
+     * Parses the TJob straight from the body of the response.
+     */
+    private static ExternalJob readExternalJob(Response response) throws Exception {
+        ExternalJob externalJob;
+        try (InputStream body = response.readEntity(InputStream.class)) {
+            externalJob = ExternalJob.fromJSON(body);
+        }
+        if (externalJob.getStatus() == ExternalJobStatusEnum.ERROR) {
+            throw new TJobErrorException(externalJob.getError());
         }
         return externalJob;
     }
 
-    public void finishElasTestTJobExecution(ExternalJob externalJob) {
+    /**
+     * Closes the response, so its connection goes back to the pool.
+     */
+    private static void close(Response response) {
+        if (response != null) {
+            response.close();
+        }
+    }
+
+    /**
+     * Waits for the TJob to be ready without blocking the caller. All the
+     * builds share the same {@link ReadinessCoordinator}.
+     * 
+     * @return a future completed with the TJob once it is ready.
+     */
+    public CompletableFuture<ExternalJob> awaitReady(ExternalJob externalJob) {
+        synchronized (this) {
+            if (readinessCoordinator == null) {
+                readinessCoordinator = new ReadinessCoordinator(
+                        this::isReadyTJobForExternalExecution);
+            }
+        }
+        return readinessCoordinator.awaitReady(externalJob);
+    }
+
+    /**
+     * Sends the finalization of the TJob. The execution id of the TJob is sent
+     * as the idempotency key, the request can be repeated safely. Called from
+     * the {@link FinalizationOutbox}, which retries it if it fails.
+     *
+     * @return the HTTP status of the response.
+     */
+    public int finishElasTestTJobExecution(ExternalJob externalJob) throws Exception {
         LOG.info("[elastest-plugin]: Sending finalization message.");
-        WebTarget webTarget = client.target(elasTestTJobApiUrl);
+        ElasTestConfiguration configuration = getConfiguration();
+        WebTarget webTarget = configuration.getClient()
+                .target(configuration.getTJobApiUrl());
 
-        Invocation.Builder invocationBuilder = webTarget.request(MediaType.APPLICATION_JSON);
+        Invocation.Builder invocationBuilder = webTarget.request(MediaType.APPLICATION_JSON)
+                .header(IDEMPOTENCY_KEY_HEADER, "tjob-exec-" + externalJob.gettJobExecId());
+        Response response = null;
         try {
-            invocationBuilder.put(Entity.entity(externalJob.toJSON(), MediaType.APPLICATION_JSON));
-
+            response = invocationBuilder.put(
+                    Entity.entity(externalJob.toJSONBytes(), MediaType.APPLICATION_JSON));
+            return response.getStatus();
         } catch (Exception e) {
             LOG.error("[elastest-plugin]: Error sending the finalization message to ElasTest: {}",
                     e.getMessage());
-            e.printStackTrace();
             throw e;
+        } finally {
+            close(response);
+        }
+    }
+
+    /**
+     * Uploads the test reports of the build one by one, each streamed from the
+     * workspace in a chunked request, so the reports are never held in memory
+     * as a whole. Each report is identified by its path in the workspace. The
+     * reports whose content was already uploaded to the TJob execution are
+     * skipped, see {@link ReportDigestCache}.
+     * <p>
+     * The endpoint, PUT {tJobExecId}/test-results?file={path}, is not
+     * provided by ElasTest 2.2.0, the version this plugin is compatible with,
+     * nor by any earlier one. Against them the probe fails and the reports
+     * are sent embedded in the TJob.
+     *
+     * @return the paths of the reports ElasTest has, or null if this ElasTest
+     *         does not accept the upload of reports, see
+     *         {@link #isTestResultsUploadSupported}. They must be sent
+     *         embedded in the TJob then.
+     */
+    public List<String> uploadTestResults(ExternalJob externalJob, FilePath workspace,
+            List<String> reports) throws IOException, InterruptedException {
+        ElasTestConfiguration configuration = getConfiguration();
+        Long tJobExecId = externalJob.gettJobExecId();
+        WebTarget webTarget = configuration.getClient()
+                .target(configuration.getTJobApiUrl())
+                .path(tJobExecId.toString())
+                .path(TEST_RESULTS_PATH);
+        if (!isTestResultsUploadSupported(configuration, webTarget)) {
+            return null;
+        }
+        FilePath cacheDir = externalJob.getJobName() != null
+                ? WorkspaceList.tempDir(workspace)
+                : null;
+        Map<String, String> digests = null;
+        if (cacheDir != null) {
+            try {
+                digests = workspace.act(new ReportDigestCache.Unshipped(
+                        cacheDir.getRemote(), externalJob.getJobName(), tJobExecId,
+                        reports));
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Uploading all the test reports: {}",
+                        e.getMessage());
+            }
+        }
+        List<String> pending = digests != null ? new ArrayList<>(digests.keySet())
+                : reports;
+        Map<String, String> uploaded = new LinkedHashMap<>();
+        try {
+            for (String report : pending) {
+                Response response = null;
+                try (InputStream input = workspace.child(report).read()) {
+                    response = webTarget.queryParam("file", report)
+                            .request(MediaType.APPLICATION_JSON)
+                            .put(Entity.entity(input, MediaType.APPLICATION_XML));
+                    int status = response.getStatus();
+                    if (status < 200 || status >= 300) {
+                        throw new IOException("ElasTest answered " + status
+                                + " to the upload of the test report " + report);
+                    }
+                } catch (ProcessingException e) {
+                    throw new IOException("Error uploading the test report " + report, e);
+                } finally {
+                    close(response);
+                }
+                uploaded.put(report, digests != null ? digests.get(report) : null);
+            }
+        } finally {
+            if (digests != null && !uploaded.isEmpty()) {
+                try {
+                    workspace.act(new ReportDigestCache.Shipped(cacheDir.getRemote(),
+                            externalJob.getJobName(), tJobExecId, uploaded));
+                } catch (IOException e) {
+                    LOG.warn("[elastest-plugin]: Error caching the test reports uploaded: {}",
+                            e.getMessage());
+                }
+            }
+        }
+        LOG.debug("[elastest-plugin]: {} test reports uploaded, {} already in ElasTest",
+                uploaded.size(), reports.size() - uploaded.size());
+        return new ArrayList<>(reports);
+    }
+
+    /**
+     * Asks ElasTest, once per configuration, whether it accepts the upload of
+     * test reports: the upload endpoint must allow PUT in the answer to an
+     * OPTIONS request. Checked this way, a 404 to an upload always means that
+     * the TJob execution was not found.
+     */
+    boolean isTestResultsUploadSupported(ElasTestConfiguration configuration,
+            WebTarget webTarget) throws IOException {
+        UploadSupport support = uploadSupport;
+        if (support != null
+                && support.configurationVersion == configuration.getVersion()) {
+            return support.supported;
+        }
+        Response response = null;
+        try {
+            response = webTarget.request().options();
+            int status = response.getStatus();
+            if (status >= 500) {
+                throw new IOException("ElasTest answered " + status
+                        + " to the options of the test reports upload");
+            }
+            boolean supported = status >= 200 && status < 300
+                    && response.getAllowedMethods().contains(HttpMethod.PUT);
+            if (!supported) {
+                LOG.info("[elastest-plugin]: ElasTest does not accept the upload of test reports");
+            }
+            uploadSupport = new UploadSupport(configuration.getVersion(),
+                    supported);
+            return supported;
+        } catch (ProcessingException e) {
+            throw new IOException(
+                    "Error checking the upload of test reports", e);
+        } finally {
+            close(response);
+        }
+    }
+
+    private static final class UploadSupport {
+        final long configurationVersion;
+        final boolean supported;
+
+        UploadSupport(long configurationVersion, boolean supported) {
+            this.configurationVersion = configurationVersion;
+            this.supported = supported;
         }
     }
 
     public String getElasTestVersion() {
+        return getElasTestVersion(getConfiguration());
+    }
+
+    /**
+     * @return the version of the ElasTest reached with the configuration, which
+     *         may not be the current one.
+     */
+    public String getElasTestVersion(ElasTestConfiguration configuration) {
         String result = "KO";
-        WebTarget webTarget = client.target(elasTestUrl).path(elasTestVersionApiUrl);
+        WebTarget webTarget = configuration.getClient()
+                .target(configuration.getElasTestUrl())
+                .path(ElasTestConfiguration.VERSION_API_PATH);
 
         Invocation.Builder invocationBuilder = webTarget.request(MediaType.TEXT_PLAIN);
         Response response = null;
@@ -286,27 +503,39 @@ public class ElasTestService implements Serializable {
             LOG.error("[elastest-plugin]: Error invoking ElasTest.");
             result = "The connection to ElasTest could not be established.";
             throw uie;
+        } finally {
+            close(response);
         }
         return result;
     }
 
-    public ExternalJob getExternalJobByBuildFullName(String buildFullName) {
-        return elasTestBuilds.get(buildFullName).getExternalJob();
+    /**
+     * @return the TJob of the build, or null if it is not associated with one.
+     */
+    public ExternalJob getExternalJob(Run<?, ?> build) {
+        ElasTestBuild elasTestBuild = builds.get(build);
+        return elasTestBuild != null ? elasTestBuild.getExternalJob() : null;
     }
 
-    public HashMap<String, ElasTestBuild> getElasTestBuilds() {
-        return elasTestBuilds;
+    /**
+     * @return the ElasTest data of the build, or null if it is not associated
+     *         with a TJob.
+     */
+    public ElasTestBuild getElasTestBuild(Run<?, ?> build) {
+        return builds.get(build);
     }
 
-    public void removeExternalJobs(String buildId) {
-        elasTestBuilds.remove(buildId);
+    public BuildRegistry getBuilds() {
+        return builds;
+    }
+
+    public ElasTestBuild removeElasTestBuild(Run<?, ?> build) {
+        return builds.remove(build);
     }
 
     public static synchronized ElasTestService getInstance() {
         if (instance == null) {
             instance = new ElasTestService();
-        } else {
-            instance.setNewConfiguration();
         }
         return instance;
     }
@@ -314,9 +543,9 @@ public class ElasTestService implements Serializable {
     private List<TestSupportServices> prepareTSSToSendET(List<String> tSServices) {
         List<TestSupportServices> eTTSServices = new ArrayList<>();
         for (String tSSName : tSServices) {
-            if (tSServicesCatalog.containsKey(tSSName)) {
+            if (TSS_CATALOG.containsKey(tSSName)) {
                 TestSupportServices newTSService = new TestSupportServices(
-                        tSServicesCatalog.get(tSSName), tSSName, true);
+                        TSS_CATALOG.get(tSSName), tSSName, true);
                 eTTSServices.add(newTSService);
             }
         }
@@ -27,14 +27,17 @@ package jenkins.plugins.elastest;
 import static java.lang.invoke.MethodHandles.lookup;
 import static org.slf4j.LoggerFactory.getLogger;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
-import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -42,15 +45,32 @@ import org.slf4j.Logger;
 
 import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.util.Secret;
 import jenkins.model.Jenkins;
 import jenkins.plugins.elastest.action.ElasTestItemMenuAction;
 import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.json.TraceBatchWriter;
+import jenkins.plugins.elastest.spool.PayloadSpool;
+import jenkins.plugins.elastest.submitters.CircuitBreaker;
+import jenkins.plugins.elastest.submitters.ContentEncoding;
 import jenkins.plugins.elastest.submitters.ElasTestSubmitter;
 import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
+import jenkins.plugins.elastest.submitters.RejectedPayloadException;
 import jenkins.plugins.elastest.submitters.SubmitterFactory;
 
 /**
- * A writer that wraps all submitters.
+ * A writer that wraps all submitters. Lines are grouped in batches that are
+ * sent when they reach the configured number of lines or size, or when the
+ * oldest line has been waiting longer than the linger time. Batches wait to be
+ * sent in a bounded {@link PayloadQueue}. If ElasTest cannot be reached, the
+ * batches are kept on disk and sent again later, by this writer while the
+ * build is running and by the {@link jenkins.plugins.elastest.spool.SpoolDrainer}
+ * afterwards.
+ * <p>
+ * A writer created to ship from the agent keeps the endpoint and the settings
+ * it needs in its serialized form. When it is deserialized on an agent, it is
+ * rebuilt to send the lines from there straight to Logstash, without a spool,
+ * and it is closed with the last output stream that writes to it.
  *
  * @author Francisco R. Díaz
  * @since 0.0.1
@@ -58,6 +78,27 @@ import jenkins.plugins.elastest.submitters.SubmitterFactory;
 public class ElasTestWriter implements Serializable {
     private static final long serialVersionUID = 1L;
     transient final Logger LOG = getLogger(lookup().lookupClass());
+    private static final String LSBEATS_HOST = "ET_MON_LSBEATS_HOST";
+    private static final String LSBEATS_PORT = "ET_MON_LSBEATS_PORT";
+    private static final long AGENT_CLOSE_TIMEOUT_SECONDS = 60;
+    // Shared by all the writers. It only runs tasks that never block, the
+    // flushes are handed to LINGER_FLUSHER since they wait while the queue
+    // of their writer is full
+    private static final ScheduledExecutorService LINGER_TIMER = Executors
+            .newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable,
+                        "ElasTest log batch timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+    // A blocked flush only holds its own thread, not the rest of writers
+    private static final ExecutorService LINGER_FLUSHER = Executors
+            .newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable,
+                        "ElasTest log batch flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
 
     transient OutputStream errorStream;
     transient final Run<?, ?> build;
@@ -66,16 +107,38 @@ public class ElasTestWriter implements Serializable {
     transient final ElasTestSubmitter elastestSubmiter;
     private boolean connectionBroken;
     final ExternalJob externalJob;
-    transient private ExecutorService executor;
+    transient private LogSenderService.Channel channel;
+    transient private PayloadQueue queue;
+    final int batchMaxLines;
+    final int batchMaxBytes;
+    final long batchLingerMillis;
+    transient private TraceBatchWriter pendingTraces;
+    transient private int pendingBytes;
+    transient private ScheduledFuture<?> lingerFlush;
+    private final AgentShipping agentShipping;
+    // Only in a writer rebuilt on an agent, see streamClosed()
+    transient private final boolean onAgent;
+    transient private int openStreams;
 
     public ElasTestWriter(Run<?, ?> run, /*OutputStream error,*/
             TaskListener listener, ExternalJob externalJob) {
+        this(run, listener, externalJob, false);
+    }
+
+    /**
+     * @param shipFromAgent
+     *            true to send the lines from the agent where the writer is
+     *            deserialized, instead of from the controller.
+     */
+    public ElasTestWriter(Run<?, ?> run, TaskListener listener,
+            ExternalJob externalJob, boolean shipFromAgent) {
         LOG.info("[elastest-plugin]: Creating ElasTestWriter");
         //this.errorStream = error != null ? error : System.err;
         this.build = run;
         this.listener = listener;
         this.externalJob = externalJob;
-        this.elastestSubmiter = this.getSubmitterOrNull(SubmitterType.LOGSTASH);
+        this.elastestSubmiter = this
+                .getSubmitterOrNull(getConfiguredSubmitterType());
 
         if (this.elastestSubmiter == null) {
             this.jenkinsUrl = "";
@@ -83,7 +146,90 @@ public class ElasTestWriter implements Serializable {
             this.jenkinsUrl = getJenkinsUrl();
         }
 
-        executor = Executors.newSingleThreadExecutor();
+        ElasTestInstallation.Descriptor descriptor = ElasTestInstallation
+                .getLogstashDescriptor();
+        this.batchMaxLines = Math.max(1, descriptor.batchMaxLines);
+        this.batchMaxBytes = Math.max(1, descriptor.batchMaxBytes);
+        this.batchLingerMillis = Math.max(0, descriptor.batchLingerMillis);
+        this.agentShipping = shipFromAgent && elastestSubmiter != null
+                ? new AgentShipping(descriptor, elastestSubmiter)
+                : null;
+        this.onAgent = false;
+        init(descriptor.queueCapacity,
+                OverflowPolicy.fromName(descriptor.overflowPolicy),
+                this::createSpool);
+    }
+
+    /**
+     * Rebuilds a writer deserialized on an agent.
+     */
+    private ElasTestWriter(ElasTestWriter serialized) {
+        LOG.info("[elastest-plugin]: Rebuilding ElasTestWriter to ship from the agent");
+        this.build = null;
+        this.listener = serialized.listener;
+        this.externalJob = serialized.externalJob;
+        this.jenkinsUrl = serialized.jenkinsUrl;
+        this.connectionBroken = serialized.connectionBroken;
+        this.batchMaxLines = serialized.batchMaxLines;
+        this.batchMaxBytes = serialized.batchMaxBytes;
+        this.batchLingerMillis = serialized.batchLingerMillis;
+        this.agentShipping = serialized.agentShipping;
+        this.onAgent = true;
+        this.elastestSubmiter = agentShipping.getSubmitterOrNull();
+        // Without a spool, SPILL_TO_DISK falls back to BLOCK
+        init(agentShipping.queueCapacity,
+                OverflowPolicy.fromName(agentShipping.overflowPolicy), null);
+    }
+
+    /**
+     * Rebuilds the writer only on an agent. Deserialized on the controller,
+     * for instance when a pipeline resumes, the writer is kept as is: its
+     * submitter is not serialized, so it ignores the lines.
+     */
+    private Object readResolve() {
+        return agentShipping != null && Jenkins.getInstanceOrNull() == null
+                ? new ElasTestWriter(this)
+                : this;
+    }
+
+    private void init(int queueCapacity, OverflowPolicy overflowPolicy,
+            PayloadQueue.SpoolProvider spoolProvider) {
+        this.pendingTraces = new TraceBatchWriter("test",
+                externalJob != null ? String.valueOf(externalJob.gettJobExecId())
+                        : "",
+                "default_log");
+        this.queue = new PayloadQueue(queueCapacity, overflowPolicy,
+                spoolProvider, new PayloadQueue.Listener() {
+                    @Override
+                    public void onDropped(int lines) {
+                        ElasTestItemMenuAction action = getMenuAction();
+                        if (action != null) {
+                            action.addDroppedLines(lines);
+                        }
+                    }
+
+                    @Override
+                    public void onSpilled(int lines) {
+                        ElasTestItemMenuAction action = getMenuAction();
+                        if (action != null) {
+                            action.addSpilledLines(lines);
+                        }
+                    }
+                });
+        this.channel = LogSenderService.getInstance().register(
+                build != null ? build.getFullDisplayName() : String.valueOf(
+                        externalJob != null ? externalJob.gettJobExecId() : ""),
+                new LogSenderService.Source() {
+                    @Override
+                    public long sendNext() {
+                        return ElasTestWriter.this.sendNext();
+                    }
+
+                    @Override
+                    public boolean hasPending() {
+                        return !queue.isEmpty();
+                    }
+                });
     }
     
     public void setErrorStream(OutputStream error) {
@@ -91,24 +237,108 @@ public class ElasTestWriter implements Serializable {
     }
 
     /**
-     * Sends a logstash payload for a single line to the indexer. Call will be
-     * ignored if the line is empty or if the connection to ElasTest is broken.
-     * If write fails, errors will logged to errorStream and connectionBroken
-     * will be set to true.
+     * Adds a line to the current batch. The batch is sent to the indexer when
+     * it is full, or after the linger time otherwise. Call will be ignored if
+     * the line is empty or if the writer could not be initialized. While
+     * ElasTest is not reachable the batches are kept on disk, or in memory up
+     * to the queue capacity if there is no disk, see {@link CircuitBreaker}.
      *
      * @param line Message, not null
      */
     public void write(String line) {
-        if (!isConnectionBroken() && StringUtils.isNotEmpty(line)) {
-            this.write(Arrays.asList(line));
+        if (StringUtils.isNotEmpty(line)) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Adds a line, encoded in UTF-8, to the current batch. The bytes are
+     * copied, so the caller may reuse the array.
+     *
+     * @see #write(String)
+     */
+    public void write(byte[] line, int offset, int length) {
+        if (!isConnectionBroken() && length > 0) {
+            synchronized (this) {
+                try {
+                    pendingTraces.add(line, offset, length);
+                } catch (IOException e) {
+                    LOG.error("[elastest-plugin]: Error encoding a log line: {}",
+                            e.getMessage());
+                    return;
+                }
+                pendingBytes += length;
+                if (pendingTraces.getLines() >= batchMaxLines
+                        || pendingBytes >= batchMaxBytes) {
+                    enqueuePendingTraces();
+                } else if (lingerFlush == null) {
+                    lingerFlush = LINGER_TIMER.schedule(
+                            () -> LINGER_FLUSHER.execute(this::flush),
+                            batchLingerMillis, TimeUnit.MILLISECONDS);
+                }
+            }
         }
     }
 
+    /**
+     * Sends the lines of the current batch without waiting for it to be full.
+     * It must be called before {@link #awaitSent(long, TimeUnit)}.
+     */
+    public void flush() {
+        if (!isConnectionBroken()) {
+            synchronized (this) {
+                if (pendingTraces.getLines() > 0) {
+                    enqueuePendingTraces();
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers an output stream that writes to this writer.
+     */
+    synchronized void streamOpened() {
+        openStreams++;
+    }
+
+    /**
+     * Called when an output stream that writes to this writer is closed. It
+     * sends the lines of the current batch. A writer rebuilt on an agent is
+     * also closed with its last stream, once its lines have been sent, since
+     * the controller only closes its own writer when the build is finalized.
+     */
+    void streamClosed() {
+        flush();
+        synchronized (this) {
+            if (!onAgent || openStreams == 0 || --openStreams > 0) {
+                return;
+            }
+        }
+        try {
+            if (!awaitSent(AGENT_CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOG.warn("[elastest-plugin]: Timeout sending the logs of the agent to ElasTest");
+            }
+        } catch (InterruptedException e) {
+            LOG.warn("[elastest-plugin]: Interrupted sending the logs of the agent to ElasTest");
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
     /**
      * @return True if errors have occurred during initialization or write.
      */
     public boolean isConnectionBroken() {
-        return connectionBroken || build == null || elastestSubmiter == null;
+        return connectionBroken || elastestSubmiter == null
+                || (build == null && agentShipping == null);
+    }
+
+    /**
+     * @return true if the lines are sent from the agent.
+     */
+    public boolean isShipFromAgent() {
+        return agentShipping != null;
     }
 
     // Method to encapsulate calls for unit-testing
@@ -137,10 +367,42 @@ public class ElasTestWriter implements Serializable {
             LOG.debug("[elastest-plugin]: LOGSTASH KEY -> {}", key);
             LOG.debug("[elastest-plugin]: LOGSTASH HOST -> {}", host);
             LOG.debug("[elastest-plugin]: LOGSTASH PORT -> {}", port);
+        } else if (type.compareTo(SubmitterType.BEATS) == 0) {
+            host = externalJob.getEnvVars().get(LSBEATS_HOST);
+            try {
+                port = Integer.valueOf(externalJob.getEnvVars().get(LSBEATS_PORT));
+            } catch (NumberFormatException e) {
+                throw new InstantiationException(
+                        "[elastest-plugin]: Invalid lsbeats port "
+                                + externalJob.getEnvVars().get(LSBEATS_PORT));
+            }
+            LOG.debug("[elastest-plugin]: BEATS HOST -> {}", host);
+            LOG.debug("[elastest-plugin]: BEATS PORT -> {}", port);
         }
 
         return SubmitterFactory.getInstance(type, host, port, key,
-                descriptor.username, descriptor.password);
+                descriptor.username, descriptor.password,
+                descriptor.maxConnectionsPerRoute,
+                ContentEncoding.fromName(descriptor.compression),
+                descriptor.compressionMinBytes, descriptor.beatsWindowSize,
+                descriptor.beatsCompressed);
+    }
+
+    /**
+     * @return the submitter type chosen in the global configuration, or
+     *         Logstash if ElasTest did not provide the lsbeats endpoint.
+     */
+    private SubmitterType getConfiguredSubmitterType() {
+        if (SubmitterType.BEATS.name().equals(ElasTestInstallation
+                .getLogstashDescriptor().submitterType)) {
+            if (externalJob != null && externalJob.getEnvVars() != null
+                    && externalJob.getEnvVars().get(LSBEATS_HOST) != null
+                    && externalJob.getEnvVars().get(LSBEATS_PORT) != null) {
+                return SubmitterType.BEATS;
+            }
+            LOG.warn("[elastest-plugin]: The lsbeats endpoint is not available, sending the logs to Logstash");
+        }
+        return SubmitterType.LOGSTASH;
     }
 
     String getJenkinsUrl() {
@@ -148,15 +410,137 @@ public class ElasTestWriter implements Serializable {
     }
 
     /**
-     * Write a list of lines to the indexer as one Logstash payload.
+     * Queues the current batch as one Logstash payload. Must be called
+     * holding the lock of the writer.
      */
-    private void write(List<String> lines) {
-        if (build.getAction(ElasTestItemMenuAction.class) != null) {
-            final String payload = elastestSubmiter.buildPayload(lines,
-                    externalJob);
-            LOG.debug(
-                    "[elastest-plugin]: Message to send " + payload.toString());
-            executor.execute(() -> sendPayload(payload));
+    private void enqueuePendingTraces() {
+        if (lingerFlush != null) {
+            lingerFlush.cancel(false);
+            lingerFlush = null;
+        }
+        int lines = pendingTraces.getLines();
+        byte[] payload;
+        try {
+            payload = pendingTraces.drain();
+        } catch (IOException e) {
+            LOG.error("[elastest-plugin]: Error encoding {} log lines: {}",
+                    lines, e.getMessage());
+            return;
+        } finally {
+            pendingBytes = 0;
+        }
+        // On the agent there is no build, it was checked on the controller
+        if (build == null || getMenuAction() != null) {
+            LOG.debug("[elastest-plugin]: Batch of {} lines to send", lines);
+            queue.offer(new LogBatch(payload, lines));
+            channel.signal();
+        }
+    }
+
+    /**
+     * Sends the next queued batch. Called by the {@link LogSenderService}, one
+     * thread at a time.
+     * 
+     * @return the size of the batch sent, 0 if there was nothing to send, or
+     *         -1 if it could not be sent.
+     */
+    private long sendNext() {
+        LogBatch batch = queue.poll();
+        if (batch == null) {
+            return 0;
+        }
+        CircuitBreaker breaker = CircuitBreaker.forSubmitter(elastestSubmiter);
+        if (breaker.allowRequest()) {
+            try {
+                if (sendPayload(batch.getPayload())) {
+                    breaker.onSuccess();
+                    queue.sent(batch);
+                    return Math.max(1, batch.getPayload().length);
+                }
+                breaker.onFailure();
+            } catch (RejectedPayloadException e) {
+                // ElasTest is reachable, but retrying the batch would fail again
+                breaker.onSuccess();
+                LOG.warn("[elastest-plugin]: {} rejected {} log lines, dropping them: {}",
+                        elastestSubmiter.getDescription(), batch.getLines(),
+                        ExceptionUtils.getRootCauseMessage(e));
+                queue.rejected(batch);
+                return Math.max(1, batch.getPayload().length);
+            }
+        } else {
+            LOG.debug("[elastest-plugin]: {} is not reachable, keeping {} lines",
+                    breaker, batch.getLines());
+        }
+        queue.failed(batch);
+        // Meanwhile, new batches are stored in the spool after the failed one
+        LINGER_TIMER.schedule(channel::signal, breaker.getRetryDelayMillis(),
+                TimeUnit.MILLISECONDS);
+        return -1;
+    }
+
+    /**
+     * Waits until the queued batches have been sent, or sending them failed
+     * and they were kept on disk.
+     * 
+     * @return false if the timeout elapsed first.
+     */
+    public boolean awaitSent(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        // A writer deserialized on the controller has nothing to send
+        return channel == null || channel.awaitIdle(timeout, unit);
+    }
+
+    private PayloadSpool createSpool() throws IOException {
+        File spoolDir = new File(PayloadSpool.getRootDirectory(),
+                String.valueOf(externalJob.gettJobExecId()));
+        LOG.info("[elastest-plugin]: Spilling log lines to {}", spoolDir);
+        PayloadSpool spool = new PayloadSpool(spoolDir);
+        try {
+            spool.writeEndpoint(SubmitterFactory.describe(elastestSubmiter));
+        } catch (IOException e) {
+            spool.close();
+            throw e;
+        }
+        return spool;
+    }
+
+    private ElasTestItemMenuAction getMenuAction() {
+        return build != null ? build.getAction(ElasTestItemMenuAction.class)
+                : null;
+    }
+
+    /**
+     * Releases the resources of the writer. Lines that have not been sent
+     * yet are kept on disk and sent by the
+     * {@link jenkins.plugins.elastest.spool.SpoolDrainer}. A writer
+     * deserialized on the controller was never initialized, and has nothing
+     * to release.
+     */
+    public void close() {
+        if (channel == null) {
+            return;
+        }
+        channel.close();
+        if (queue != null) {
+            int left = queue.close();
+            if (left > 0) {
+                LOG.warn("[elastest-plugin]: {} batches of log lines of {} will be sent later",
+                        left, build != null ? build.getFullDisplayName() : "");
+            }
+        }
+        if (elastestSubmiter != null) {
+            SubmitterFactory.release(elastestSubmiter);
+        }
+        ElasTestItemMenuAction action = getMenuAction();
+        if (action != null && (action.getDroppedLines() > 0
+                || action.getSpilledLines() > 0)) {
+            // The build may have been saved before the last lines were sent
+            try {
+                build.save();
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Error saving the log counters: {}",
+                        e.getMessage());
+            }
         }
     }
 
@@ -194,14 +578,6 @@ public class ElasTestWriter implements Serializable {
         return externalJob;
     }
 
-    public ExecutorService getExecutor() {
-        return executor;
-    }
-
-    public void setExecutor(ExecutorService executor) {
-        this.executor = executor;
-    }
-
     /**
      * Write error message to errorStream
      */
@@ -216,36 +592,76 @@ public class ElasTestWriter implements Serializable {
         }
     }
 
-    private void sendPayload(final String payload) {
-        try {
-            int maxAttempts = 4;
-            int attempt = 0;
-            boolean sended = false;
-            // LOG.info("Send message in runnable: " + payload.toString());
-            while (attempt < maxAttempts && !sended) {
-                if (attempt > 0) {
-                    try {
-                        Thread.sleep(500);
-
-                    } catch (InterruptedException ie) {
-                    }
-                }
-                attempt++;
-                LOG.debug("[elastest-plugin]: Attempt to send {}", attempt);
-                sended = elastestSubmiter.push(payload.toString());
+    /**
+     * What a writer needs to send the lines from an agent, where the
+     * descriptor and the build are not available. The password is kept as a
+     * {@link Secret}, never as plain text in the serialized writer.
+     */
+    private static final class AgentShipping implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Properties endpoint;
+        private final String username;
+        private final Secret password;
+        private final int maxConnectionsPerRoute;
+        private final String compression;
+        private final int compressionMinBytes;
+        private final int beatsWindowSize;
+        private final boolean beatsCompressed;
+        private final int queueCapacity;
+        private final String overflowPolicy;
+
+        AgentShipping(ElasTestInstallation.Descriptor descriptor,
+                ElasTestSubmitter submitter) {
+            this.endpoint = SubmitterFactory.describe(submitter);
+            this.username = descriptor.username;
+            this.password = Secret.fromString(descriptor.password);
+            this.maxConnectionsPerRoute = descriptor.maxConnectionsPerRoute;
+            this.compression = descriptor.compression;
+            this.compressionMinBytes = descriptor.compressionMinBytes;
+            this.beatsWindowSize = descriptor.beatsWindowSize;
+            this.beatsCompressed = descriptor.beatsCompressed;
+            this.queueCapacity = descriptor.queueCapacity;
+            this.overflowPolicy = descriptor.overflowPolicy;
+        }
+
+        ElasTestSubmitter getSubmitterOrNull() {
+            try {
+                return SubmitterFactory.getInstance(endpoint, username,
+                        Secret.toString(password), maxConnectionsPerRoute,
+                        ContentEncoding.fromName(compression),
+                        compressionMinBytes, beatsWindowSize, beatsCompressed);
+            } catch (InstantiationException e) {
+                getLogger(lookup().lookupClass()).error(
+                        "[elastest-plugin]: Unable to ship the logs from the agent: {}",
+                        e.getMessage());
+                return null;
             }
-            if (attempt > 4 && !sended) {
-                String msg = "[elastest-plugin]: Failed to send log data to "
-                        + elastestSubmiter.getSubmitterType() + ":"
-                        + elastestSubmiter.getDescription() + ".\n";
-                logErrorMessage(msg);
+        }
+    }
+
+    /**
+     * Makes a single attempt to send the payload. Retries are left to the
+     * {@link CircuitBreaker} of the endpoint.
+     * 
+     * @return true if the payload was sent.
+     */
+    private boolean sendPayload(final byte[] payload)
+            throws RejectedPayloadException {
+        try {
+            if (elastestSubmiter.push(payload)) {
+                return true;
             }
+            LOG.warn("[elastest-plugin]: Failed to send log data to {}:{}",
+                    elastestSubmiter.getSubmitterType(),
+                    elastestSubmiter.getDescription());
+        } catch (RejectedPayloadException e) {
+            throw e;
         } catch (IOException e) {
-            String msg = "[elastest-plugin]: Failed to send log data to "
-                    + elastestSubmiter.getSubmitterType() + ":"
-                    + elastestSubmiter.getDescription() + ".\n"
-                    + ExceptionUtils.getStackTrace(e);
-            logErrorMessage(msg);
+            LOG.warn("[elastest-plugin]: Failed to send log data to {}:{}: {}",
+                    elastestSubmiter.getSubmitterType(),
+                    elastestSubmiter.getDescription(),
+                    ExceptionUtils.getRootCauseMessage(e));
         }
+        return false;
     }
 }
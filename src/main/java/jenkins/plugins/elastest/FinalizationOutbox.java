@@ -0,0 +1,322 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.model.Jenkins;
+import jenkins.plugins.elastest.json.ExternalJob;
+
+/**
+ * Sends the finalization of the TJobs to ElasTest in the background, so a slow
+ * or unavailable ElasTest does not delay the end of the builds nor loses their
+ * result.
+ * <p>
+ * Each finalization is written to a file named after its TJob execution id in
+ * {@link #ROOT_DIR}, inside JENKINS_HOME, before it is sent, and the file is
+ * deleted once ElasTest accepts it. The id is the idempotency key: a new
+ * finalization of the same TJob execution replaces the pending one, and
+ * sending it again after a failure has no other effect in ElasTest. The
+ * failed attempts are retried with a delay that starts at
+ * {@link #BASE_DELAY_MILLIS} and doubles up to {@link #MAX_DELAY_MILLIS}, with
+ * a random jitter of up to half the delay. The files left by a previous run of
+ * Jenkins are sent when the jobs have been loaded.
+ * <p>
+ * Client errors (4xx), except timeouts and throttling, are not retried: the
+ * finalization is dropped and the error logged.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class FinalizationOutbox {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    public static final String ROOT_DIR = "elastest-outbox";
+    static final long BASE_DELAY_MILLIS = 5 * 1000;
+    static final long MAX_DELAY_MILLIS = 10 * 60 * 1000;
+    private static final String SUFFIX = ".json";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final ScheduledExecutorService SENDER = Executors
+            .newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable,
+                        "ElasTest finalization outbox");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static FinalizationOutbox instance;
+
+    /** Sends the finalization of a TJob to ElasTest. */
+    interface FinalizationClient {
+        /**
+         * @return the HTTP status of the response.
+         */
+        int finish(ExternalJob externalJob) throws Exception;
+    }
+
+    private static final class Entry {
+        final long tJobExecId;
+        // Grows with each new finalization of the TJob execution
+        int generation;
+        int attempts;
+
+        Entry(long tJobExecId) {
+            this.tJobExecId = tJobExecId;
+        }
+    }
+
+    private final File directory;
+    private final FinalizationClient client;
+    private final ScheduledExecutorService scheduler;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Random random = new Random();
+    private final ConcurrentMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    FinalizationOutbox(File directory, FinalizationClient client,
+            ScheduledExecutorService scheduler, long baseDelayMillis,
+            long maxDelayMillis) {
+        this.directory = directory;
+        this.client = client;
+        this.scheduler = scheduler;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public static synchronized FinalizationOutbox getInstance() {
+        if (instance == null) {
+            instance = new FinalizationOutbox(
+                    new File(Jenkins.getInstance().getRootDir(), ROOT_DIR),
+                    ElasTestService.getInstance()::finishElasTestTJobExecution,
+                    SENDER, BASE_DELAY_MILLIS, MAX_DELAY_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Sends the finalizations left by the previous run of Jenkins.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void recoverPending() {
+        getInstance().recover();
+    }
+
+    /**
+     * Stores the finalization of the TJob and sends it in the background. It
+     * replaces the finalization of the same TJob execution still pending.
+     *
+     * @throws IOException
+     *             if it cannot be stored. It is not sent in that case.
+     */
+    public void enqueue(ExternalJob externalJob) throws IOException {
+        Long tJobExecId = externalJob.gettJobExecId();
+        if (tJobExecId == null) {
+            throw new IllegalArgumentException(
+                    "The TJob of " + externalJob.getJobName()
+                            + " has no execution id");
+        }
+        Entry entry = entries.computeIfAbsent(tJobExecId, Entry::new);
+        synchronized (entry) {
+            write(tJobExecId, externalJob.toJSONBytes());
+            entry.generation++;
+            entry.attempts = 0;
+        }
+        LOG.info("[elastest-plugin]: Finalization of the TJob execution {} queued",
+                tJobExecId);
+        scheduler.execute(() -> send(entry));
+    }
+
+    /**
+     * @return the number of finalizations not yet accepted by ElasTest.
+     */
+    public int getPendingCount() {
+        return entries.size();
+    }
+
+    void recover() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Not completely written, its finalization was not queued
+                if (!file.delete()) {
+                    LOG.warn("[elastest-plugin]: Unable to delete {}", file);
+                }
+            } else if (name.endsWith(SUFFIX)) {
+                try {
+                    long tJobExecId = Long.parseLong(name.substring(0,
+                            name.length() - SUFFIX.length()));
+                    Entry entry = new Entry(tJobExecId);
+                    if (entries.putIfAbsent(tJobExecId, entry) == null) {
+                        LOG.info("[elastest-plugin]: Resending the finalization of the TJob execution {}",
+                                tJobExecId);
+                        scheduler.execute(() -> send(entry));
+                    }
+                } catch (NumberFormatException e) {
+                    LOG.warn("[elastest-plugin]: Ignoring the file {} of the outbox",
+                            file);
+                }
+            }
+        }
+    }
+
+    private void send(Entry entry) {
+        ExternalJob externalJob;
+        int generation;
+        synchronized (entry) {
+            generation = entry.generation;
+            try {
+                externalJob = read(entry.tJobExecId);
+            } catch (IOException e) {
+                LOG.error("[elastest-plugin]: Dropping the finalization of the TJob execution {}, it cannot be read: {}",
+                        entry.tJobExecId, e.getMessage());
+                remove(entry, generation);
+                return;
+            }
+        }
+
+        boolean done;
+        try {
+            int status = client.finish(externalJob);
+            done = isAccepted(status) || !isRetryable(status);
+            if (!isAccepted(status)) {
+                LOG.warn("[elastest-plugin]: ElasTest answered {} to the finalization of the TJob execution {}",
+                        status, entry.tJobExecId);
+            }
+            if (done && !isAccepted(status)) {
+                LOG.error("[elastest-plugin]: Dropping the finalization of the TJob execution {}",
+                        entry.tJobExecId);
+            }
+        } catch (Exception e) {
+            LOG.warn("[elastest-plugin]: Error sending the finalization of the TJob execution {}: {}",
+                    entry.tJobExecId, e.getMessage());
+            done = false;
+        }
+
+        if (done) {
+            if (!remove(entry, generation)) {
+                // Replaced while it was being sent, the new one is sent now
+                scheduler.execute(() -> send(entry));
+            }
+        } else {
+            long delay;
+            synchronized (entry) {
+                entry.attempts++;
+                delay = getRetryDelayMillis(entry.attempts);
+            }
+            LOG.info("[elastest-plugin]: Retrying the finalization of the TJob execution {} in {} ms",
+                    entry.tJobExecId, delay);
+            scheduler.schedule(() -> send(entry), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Removes the finalization, unless a new one was queued since the given
+     * generation.
+     *
+     * @return true if it was removed.
+     */
+    private boolean remove(Entry entry, int generation) {
+        synchronized (entry) {
+            if (entry.generation != generation) {
+                return false;
+            }
+            try {
+                Files.deleteIfExists(getFile(entry.tJobExecId).toPath());
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Error deleting the finalization of the TJob execution {}: {}",
+                        entry.tJobExecId, e.getMessage());
+            }
+            entries.remove(entry.tJobExecId, entry);
+            return true;
+        }
+    }
+
+    long getRetryDelayMillis(int attempts) {
+        long delay = maxDelayMillis;
+        if (attempts < 30) {
+            delay = Math.min(maxDelayMillis,
+                    baseDelayMillis * (1L << (attempts - 1)));
+        }
+        return delay - (long) (random.nextDouble() * delay / 2);
+    }
+
+    static boolean isAccepted(int status) {
+        return status >= 200 && status < 300;
+    }
+
+    static boolean isRetryable(int status) {
+        return status >= 500 || status == 408 || status == 429;
+    }
+
+    File getFile(long tJobExecId) {
+        return new File(directory, tJobExecId + SUFFIX);
+    }
+
+    /**
+     * Writes to a temporary file that is then renamed, so a crash never leaves
+     * a finalization half written.
+     */
+    private void write(long tJobExecId, byte[] json) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(
+                    "Unable to create the outbox directory " + directory);
+        }
+        File temp = new File(directory, tJobExecId + TEMP_SUFFIX);
+        try (OutputStream output = new FileOutputStream(temp)) {
+            output.write(json);
+        }
+        Files.move(temp.toPath(), getFile(tJobExecId).toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private ExternalJob read(long tJobExecId) throws IOException {
+        try (InputStream input = new FileInputStream(getFile(tJobExecId))) {
+            return ExternalJob.fromJSON(input);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+
+import hudson.FilePath;
+import hudson.model.Run;
+import jenkins.plugins.elastest.json.ElasTestBuild;
+import jenkins.plugins.elastest.json.ExternalJob;
+import jenkins.plugins.elastest.utils.ReportWatcher;
+
+/**
+ * Ships the test reports of a build to ElasTest while the build runs.
+ * <p>
+ * A {@link ReportWatcher} on the agent detects the reports written in the
+ * workspace, and every {@link #POLL_PERIOD_SECONDS} the reports it found
+ * ready are uploaded. The timer only hands the polls to a pool of
+ * {@link #UPLOAD_THREADS} threads, and a build is not polled again while its
+ * previous poll runs, so a slow upload only delays the build it belongs to.
+ * When the build completes, {@link #finish(List)} only
+ * uploads the reports not shipped yet. If ElasTest does not accept the upload
+ * of test reports the shipping stops, and the reports go in the finalization
+ * of the TJob as before.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class IncrementalReportShipper {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    static final long POLL_PERIOD_SECONDS = 15;
+    static final int UPLOAD_THREADS = 4;
+    private static final ScheduledExecutorService SHIPPER = Executors
+            .newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ElasTest report shipper");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final ThreadPoolExecutor UPLOADER = new ThreadPoolExecutor(
+            UPLOAD_THREADS, UPLOAD_THREADS, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "ElasTest report uploader");
+                thread.setDaemon(true);
+                return thread;
+            });
+    static {
+        UPLOADER.allowCoreThreadTimeOut(true);
+    }
+
+    private final String id;
+    private final ExternalJob externalJob;
+    private final FilePath workspace;
+    private final ElasTestService elasTestService;
+    private final Set<String> uploaded = new LinkedHashSet<>();
+    private final AtomicBoolean pollPending = new AtomicBoolean();
+    private volatile ScheduledFuture<?> polling;
+    private volatile boolean stopped;
+    private boolean unsupported;
+
+    private IncrementalReportShipper(String id, ExternalJob externalJob,
+            FilePath workspace, ElasTestService elasTestService) {
+        this.id = id;
+        this.externalJob = externalJob;
+        this.workspace = workspace;
+        this.elasTestService = elasTestService;
+    }
+
+    /**
+     * Starts shipping the test reports of the build, once its TJob is ready.
+     * 
+     * @return the shipper, or null if the TJob has no test reports or the
+     *         watcher could not be started.
+     */
+    public static IncrementalReportShipper start(Run<?, ?> build,
+            ElasTestBuild elasTestBuild) {
+        ExternalJob externalJob = elasTestBuild.getExternalJob();
+        FilePath workspace = elasTestBuild.getWorkspace();
+        if (externalJob == null || workspace == null
+                || externalJob.getTestResultFilePattern() == null
+                || externalJob.getTestResultFilePattern().isEmpty()) {
+            return null;
+        }
+        String id = build.getExternalizableId();
+        try {
+            workspace.act(new ReportWatcher.Start(id,
+                    externalJob.getTestResultFilePattern(),
+                    build.getTimestamp().getTimeInMillis(),
+                    System.currentTimeMillis()));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("[elastest-plugin]: The test reports will be sent at the end of the build: {}",
+                    e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        IncrementalReportShipper shipper = new IncrementalReportShipper(id,
+                externalJob, workspace, ElasTestService.getInstance());
+        shipper.polling = SHIPPER.scheduleWithFixedDelay(shipper::schedulePoll,
+                POLL_PERIOD_SECONDS, POLL_PERIOD_SECONDS, TimeUnit.SECONDS);
+        elasTestBuild.setReportShipper(shipper);
+        return shipper;
+    }
+
+    private void schedulePoll() {
+        if (pollPending.compareAndSet(false, true)) {
+            UPLOADER.execute(() -> {
+                try {
+                    poll();
+                } finally {
+                    pollPending.set(false);
+                }
+            });
+        }
+    }
+
+    private synchronized void poll() {
+        if (unsupported || stopped) {
+            return;
+        }
+        try {
+            List<String> ready = workspace.act(new ReportWatcher.Poll(id));
+            if (ready == null) {
+                // The agent was restarted or the watcher gave up
+                stopPolling();
+                return;
+            }
+            upload(ready);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("[elastest-plugin]: Error shipping the test reports: {}",
+                    e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void upload(List<String> reports)
+            throws IOException, InterruptedException {
+        if (reports.isEmpty()) {
+            return;
+        }
+        List<String> result = elasTestService.uploadTestResults(externalJob,
+                workspace, reports);
+        if (result == null) {
+            unsupported = true;
+            stopPolling();
+        } else {
+            uploaded.addAll(result);
+        }
+    }
+
+    private void stopPolling() {
+        ScheduledFuture<?> current = polling;
+        if (current != null) {
+            current.cancel(false);
+        }
+    }
+
+    /**
+     * Stops the shipping and the watcher without uploading anything else, if
+     * they were not stopped yet by {@link #finish(List)}. Safe to call more
+     * than once.
+     */
+    public void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        stopPolling();
+        try {
+            workspace.act(new ReportWatcher.Stop(id));
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("[elastest-plugin]: Error stopping the report watcher: {}",
+                    e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops the shipping and uploads the reports of the build not shipped
+     * yet: those not uploaded while the build ran, and those the watcher had
+     * not found stable.
+     * 
+     * @param reports
+     *            the reports of the build, found in the workspace.
+     * @return all the reports uploaded, or null if ElasTest does not accept
+     *         the upload of test reports.
+     */
+    public List<String> finish(List<String> reports)
+            throws IOException, InterruptedException {
+        stopped = true;
+        stopPolling();
+        List<String> pending = workspace.act(new ReportWatcher.Stop(id));
+        synchronized (this) {
+            if (unsupported) {
+                return null;
+            }
+            List<String> delta = new ArrayList<>();
+            for (String report : reports) {
+                // Those pending may have been rewritten after being uploaded
+                if (!uploaded.contains(report)
+                        || (pending != null && pending.contains(report))) {
+                    delta.add(report);
+                }
+            }
+            LOG.debug("[elastest-plugin]: {} test reports shipped during the build, {} left",
+                    uploaded.size(), delta.size());
+            upload(delta);
+            return unsupported ? null : new ArrayList<>(uploaded);
+        }
+    }
+}
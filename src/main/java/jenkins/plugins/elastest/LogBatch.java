@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+/**
+ * A payload ready to be sent to ElasTest, together with the number of console
+ * lines it contains.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public class LogBatch {
+    private final byte[] payload;
+    private final int lines;
+
+    /**
+     * @param payload
+     *            the JSON payload encoded in UTF-8.
+     */
+    public LogBatch(byte[] payload, int lines) {
+        this.payload = payload;
+        this.lines = lines;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+
+import jenkins.model.Jenkins;
+
+/**
+ * Sends the log batches of all the builds with a small, fixed pool of threads.
+ * <p>
+ * Each build registers a {@link Channel}. Channels with pending batches wait
+ * in a round robin queue and are served with unweighted deficit round robin:
+ * every turn a channel may send up to {@link #QUANTUM_BYTES} before going
+ * back to the end of the queue, so a noisy build cannot starve the rest. A
+ * channel is served by one thread at a time, which keeps the order of the
+ * batches of each build.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class LogSenderService {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    public static final int DEFAULT_THREADS = 4;
+    static final long QUANTUM_BYTES = 64 * 1024;
+    private static LogSenderService instance;
+
+    /**
+     * The batches of one build.
+     */
+    public interface Source {
+        /**
+         * Sends the next pending batch.
+         * 
+         * @return the size of the batch sent, 0 if there was nothing to send,
+         *         or -1 if it could not be sent.
+         */
+        long sendNext();
+
+        boolean hasPending();
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Queue<Channel> ready = new ConcurrentLinkedQueue<>();
+
+    LogSenderService(int threads) {
+        int size = Math.max(1, threads);
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable,
+                    "ElasTest log sender " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized LogSenderService getInstance() {
+        if (instance == null) {
+            // On an agent there is no descriptor
+            ElasTestInstallation.Descriptor descriptor = Jenkins
+                    .getInstanceOrNull() != null
+                            ? ElasTestInstallation.getLogstashDescriptor()
+                            : null;
+            instance = new LogSenderService(descriptor != null
+                    ? descriptor.senderThreads : DEFAULT_THREADS);
+        }
+        return instance;
+    }
+
+    /**
+     * Changes the number of threads. Batches being sent are not affected.
+     */
+    public synchronized void setThreads(int threads) {
+        int size = Math.max(1, threads);
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * Registers the batches of a build.
+     * 
+     * @param name
+     *            used in log messages.
+     */
+    public Channel register(String name, Source source) {
+        return new Channel(name, source);
+    }
+
+    private void schedule(Channel channel) {
+        ready.add(channel);
+        try {
+            executor.execute(this::serveNext);
+        } catch (RejectedExecutionException e) {
+            ready.remove(channel);
+            channel.idle();
+            LOG.warn("[elastest-plugin]: Unable to send the log lines of {}",
+                    channel.name);
+        }
+    }
+
+    private void serveNext() {
+        Channel channel = ready.poll();
+        if (channel != null) {
+            channel.serve();
+        }
+    }
+
+    /**
+     * Scheduling state of the batches of a build. A channel is scheduled while
+     * it is in the round robin queue or being served.
+     */
+    public final class Channel {
+        private final String name;
+        private final Source source;
+        private long deficit;
+        private boolean scheduled;
+        private boolean closed;
+
+        private Channel(String name, Source source) {
+            this.name = name;
+            this.source = source;
+        }
+
+        /**
+         * Notifies that there are batches to send.
+         */
+        public void signal() {
+            synchronized (this) {
+                if (scheduled || closed) {
+                    return;
+                }
+                scheduled = true;
+            }
+            schedule(this);
+        }
+
+        /**
+         * Waits until the channel has no batches to send, or sending them
+         * failed.
+         * 
+         * @return false if the timeout elapsed first.
+         */
+        public synchronized boolean awaitIdle(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (scheduled) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        }
+
+        /**
+         * Stops scheduling the channel. A turn in progress is completed.
+         */
+        public synchronized void close() {
+            closed = true;
+        }
+
+        private void serve() {
+            long result;
+            synchronized (this) {
+                deficit += QUANTUM_BYTES;
+            }
+            do {
+                try {
+                    result = source.sendNext();
+                } catch (RuntimeException e) {
+                    LOG.error("[elastest-plugin]: Error sending the log lines of {}",
+                            name, e);
+                    result = -1;
+                }
+                if (result > 0) {
+                    synchronized (this) {
+                        deficit -= result;
+                        if (deficit <= 0 && !closed) {
+                            // Turn finished, back to the end of the queue
+                            schedule(this);
+                            return;
+                        }
+                    }
+                }
+            } while (result > 0 && !isClosed());
+            idle();
+            // A batch may have been added after the last sendNext
+            if (result == 0 && source.hasPending()) {
+                signal();
+            }
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        private synchronized void idle() {
+            deficit = 0;
+            scheduled = false;
+            notifyAll();
+        }
+    }
+}
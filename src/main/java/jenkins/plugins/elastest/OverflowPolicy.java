@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+/**
+ * What to do with a new batch of console lines when the queue of batches
+ * pending to be sent to ElasTest is full.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public enum OverflowPolicy {
+    /** Wait until there is room in the queue. It slows down the build. */
+    BLOCK("Block the build until there is room"),
+    /** Discard the oldest batch in the queue. */
+    DROP_OLDEST("Drop the oldest lines"),
+    /** Discard the new batch. */
+    DROP_NEWEST("Drop the newest lines"),
+    /** Store the batch on disk until there is room in the queue. */
+    SPILL_TO_DISK("Spill the lines to disk");
+
+    private final String description;
+
+    private OverflowPolicy(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public static OverflowPolicy fromName(String name) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().equals(name)) {
+                return policy;
+            }
+        }
+        return SPILL_TO_DISK;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.slf4j.Logger;
+
+import jenkins.plugins.elastest.spool.PayloadSpool;
+
+/**
+ * Bounded queue of batches pending to be sent to ElasTest. When the queue is
+ * full, the {@link OverflowPolicy} decides what happens with new batches.
+ * <p>
+ * Batches that cannot be kept in memory are stored in a {@link PayloadSpool}:
+ * the ones that do not fit with {@link OverflowPolicy#SPILL_TO_DISK}, and all
+ * of them while ElasTest is unreachable. Every batch in memory is older than
+ * the batches in the spool, so they are returned in the order they were
+ * added. A batch read from the spool is only removed from it once it has been
+ * sent.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+class PayloadQueue {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    private static final long BLOCK_WAIT_MILLIS = 100;
+
+    /**
+     * Receives the number of lines that were discarded or stored on disk.
+     */
+    interface Listener {
+        void onDropped(int lines);
+
+        void onSpilled(int lines);
+    }
+
+    /**
+     * Creates the spool the first time a batch must be stored on disk.
+     */
+    interface SpoolProvider {
+        PayloadSpool create() throws IOException;
+    }
+
+    private final Deque<LogBatch> batches = new ArrayDeque<>();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final SpoolProvider spoolProvider;
+    private final Listener listener;
+    private PayloadSpool spool;
+    private LogBatch spoolHead;
+    private boolean closed;
+
+    PayloadQueue(int capacity, OverflowPolicy policy,
+            SpoolProvider spoolProvider, Listener listener) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = spoolProvider == null
+                && policy == OverflowPolicy.SPILL_TO_DISK
+                        ? OverflowPolicy.BLOCK
+                        : policy;
+        this.spoolProvider = spoolProvider;
+        this.listener = listener;
+    }
+
+    /**
+     * Adds a batch to the queue, applying the overflow policy if it is full.
+     */
+    synchronized void offer(LogBatch batch) {
+        while (true) {
+            if (closed) {
+                listener.onDropped(batch.getLines());
+                return;
+            }
+            // Once there are batches on disk, the new ones go after them
+            if (hasSpooledBatches()) {
+                spill(batch);
+                return;
+            }
+            if (batches.size() < capacity) {
+                batches.addLast(batch);
+                return;
+            }
+            switch (policy) {
+            case BLOCK:
+                try {
+                    wait(BLOCK_WAIT_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    listener.onDropped(batch.getLines());
+                    return;
+                }
+                break;
+            case DROP_OLDEST:
+                listener.onDropped(batches.pollFirst().getLines());
+                break;
+            case DROP_NEWEST:
+                listener.onDropped(batch.getLines());
+                return;
+            case SPILL_TO_DISK:
+                spill(batch);
+                return;
+            default:
+                throw new IllegalStateException("Unknown policy " + policy);
+            }
+        }
+    }
+
+    /**
+     * Returns the next batch to send, or null if there are no pending batches.
+     * The caller must report the result with {@link #sent(LogBatch)},
+     * {@link #rejected(LogBatch)} or {@link #failed(LogBatch)}.
+     */
+    synchronized LogBatch poll() {
+        if (closed) {
+            return null;
+        }
+        LogBatch batch = batches.pollFirst();
+        if (batch != null) {
+            notifyAll();
+            return batch;
+        }
+        if (spool != null) {
+            try {
+                spoolHead = spool.peek();
+                return spoolHead;
+            } catch (IOException e) {
+                LOG.error("[elastest-plugin]: Error reading spilled log lines: {}",
+                        e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Confirms that a batch returned by {@link #poll()} was sent.
+     */
+    synchronized void sent(LogBatch batch) {
+        if (batch != spoolHead || closed) {
+            return;
+        }
+        spoolHead = null;
+        try {
+            spool.remove();
+        } catch (IOException e) {
+            LOG.error("[elastest-plugin]: Error removing sent log lines from disk: {}",
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Reports that ElasTest refused a batch returned by {@link #poll()}. The
+     * batch is discarded, since sending it again would fail in the same way.
+     */
+    synchronized void rejected(LogBatch batch) {
+        sent(batch);
+        listener.onDropped(batch.getLines());
+    }
+
+    /**
+     * Reports that a batch returned by {@link #poll()} could not be sent. The
+     * batch is kept, along with the rest of batches in memory, in the spool
+     * until ElasTest is reachable again. Without a spool, it is kept in memory
+     * while the queue is not full, and dropped otherwise.
+     */
+    synchronized void failed(LogBatch batch) {
+        if (batch == spoolHead) {
+            // Still the first batch in the spool
+            spoolHead = null;
+            return;
+        }
+        if (spoolProvider == null && !closed) {
+            if (batches.size() < capacity) {
+                batches.addFirst(batch);
+            } else {
+                LOG.warn("[elastest-plugin]: The queue is full, dropping {} log lines that could not be sent",
+                        batch.getLines());
+                listener.onDropped(batch.getLines());
+            }
+            return;
+        }
+        List<LogBatch> pending = new ArrayList<>(batches.size() + 1);
+        pending.add(batch);
+        pending.addAll(batches);
+        batches.clear();
+        notifyAll();
+        if (spoolProvider == null || closed) {
+            drop(pending);
+            return;
+        }
+        try {
+            prepend(pending);
+        } catch (IOException e) {
+            LOG.error("[elastest-plugin]: Error spilling log lines to disk: {}",
+                    e.getMessage());
+            drop(pending);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return batches.isEmpty() && !hasSpooledBatches();
+    }
+
+    /**
+     * Stores the batches still in memory in the spool, if there is one, and
+     * releases it. The spool is deleted if it is empty and kept otherwise, so
+     * its batches can be sent later.
+     * 
+     * @return the number of batches left on disk.
+     */
+    synchronized int close() {
+        if (closed) {
+            return 0;
+        }
+        closed = true;
+        notifyAll();
+        List<LogBatch> pending = new ArrayList<>(batches);
+        batches.clear();
+        if (spool == null && !pending.isEmpty() && spoolProvider != null) {
+            try {
+                spool = spoolProvider.create();
+            } catch (IOException e) {
+                LOG.error("[elastest-plugin]: Error creating the spool: {}",
+                        e.getMessage());
+            }
+        }
+        if (spool == null) {
+            drop(pending);
+            return 0;
+        }
+        int left = 0;
+        try {
+            spool.prepend(pending);
+            listener.onSpilled(count(pending));
+            left = spool.size();
+            if (left == 0) {
+                spool.delete();
+            } else {
+                spool.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("[elastest-plugin]: Error closing the spool: {}",
+                    e.getMessage());
+        }
+        spool = null;
+        return left;
+    }
+
+    private boolean hasSpooledBatches() {
+        return spool != null && !spool.isEmpty();
+    }
+
+    private void spill(LogBatch batch) {
+        try {
+            if (spool == null) {
+                spool = spoolProvider.create();
+            }
+            spool.append(batch);
+            listener.onSpilled(batch.getLines());
+        } catch (IOException e) {
+            LOG.error("[elastest-plugin]: Error spilling log lines to disk: {}",
+                    e.getMessage());
+            listener.onDropped(batch.getLines());
+        }
+    }
+
+    private void prepend(List<LogBatch> pending) throws IOException {
+        if (spool == null) {
+            spool = spoolProvider.create();
+        }
+        spool.prepend(pending);
+        listener.onSpilled(count(pending));
+    }
+
+    private void drop(List<LogBatch> pending) {
+        if (!pending.isEmpty()) {
+            listener.onDropped(count(pending));
+        }
+    }
+
+    private static int count(List<LogBatch> pending) {
+        int lines = 0;
+        for (LogBatch batch : pending) {
+            lines += batch.getLines();
+        }
+        return lines;
+    }
+}
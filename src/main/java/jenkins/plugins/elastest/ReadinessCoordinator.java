@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+
+import jenkins.plugins.elastest.json.ExternalJob;
+
+/**
+ * Waits for the TJobs of all the builds to be ready. Instead of each build
+ * polling ElasTest on its own, the pending TJobs are polled one after another
+ * from a single thread, so ElasTest never gets more than one status request
+ * at a time from this Jenkins.
+ * <p>
+ * ElasTest has no query for the status of several TJobs, so each TJob is
+ * still polled with its own request. The delay between the polls of a TJob
+ * starts at {@link #INITIAL_DELAY_MILLIS} and grows by half each time, up to
+ * {@link #MAX_DELAY_MILLIS}, as TJobs that are not ready soon usually take a
+ * while to provision.
+ * <p>
+ * A failed status request is retried with the same delays, and the wait only
+ * fails when ElasTest reports an error for the TJob, see
+ * {@link TJobErrorException}, or when the requests have been failing for
+ * longer than {@link #MAX_ERROR_MILLIS}.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class ReadinessCoordinator {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    static final long INITIAL_DELAY_MILLIS = 500;
+    static final long MAX_DELAY_MILLIS = 5 * 1000;
+    static final long MAX_ERROR_MILLIS = 5 * 60 * 1000;
+    // Shared by all the coordinators, it only waits and sends a request
+    private static final ScheduledExecutorService POLLER = Executors
+            .newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable,
+                        "ElasTest TJob readiness poller");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /** Asks ElasTest for the current status of a TJob. */
+    interface StatusClient {
+        ExternalJob getStatus(ExternalJob externalJob) throws Exception;
+    }
+
+    private static final class Pending {
+        final CompletableFuture<ExternalJob> future = new CompletableFuture<>();
+        final List<CompletableFuture<ExternalJob>> waiters = new ArrayList<>();
+        ExternalJob externalJob;
+        long delayMillis;
+        long nextPollMillis;
+        // When the status requests started failing, if they are failing
+        long failingSinceMillis;
+        boolean failing;
+
+        Pending(ExternalJob externalJob, long delayMillis, long now) {
+            this.externalJob = externalJob;
+            this.delayMillis = delayMillis;
+            this.nextPollMillis = now;
+        }
+    }
+
+    private final StatusClient client;
+    private final ScheduledExecutorService scheduler;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final long maxErrorMillis;
+    private final Map<Long, Pending> pending = new HashMap<>();
+    private ScheduledFuture<?> tick;
+
+    ReadinessCoordinator(StatusClient client) {
+        this(client, POLLER, INITIAL_DELAY_MILLIS, MAX_DELAY_MILLIS,
+                MAX_ERROR_MILLIS);
+    }
+
+    ReadinessCoordinator(StatusClient client,
+            ScheduledExecutorService scheduler, long initialDelayMillis,
+            long maxDelayMillis, long maxErrorMillis) {
+        this.client = client;
+        this.scheduler = scheduler;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxErrorMillis = maxErrorMillis;
+    }
+
+    /**
+     * @return a future completed with the TJob once it is ready, or
+     *         exceptionally if ElasTest reports an error or cannot be asked
+     *         for the status of the TJob for too long. Cancelling it stops
+     *         polling the TJob, unless other builds are waiting for it too.
+     */
+    public synchronized CompletableFuture<ExternalJob> awaitReady(
+            ExternalJob externalJob) {
+        if (externalJob.isReady()) {
+            return CompletableFuture.completedFuture(externalJob);
+        }
+        Pending entry = pending.get(externalJob.gettJobExecId());
+        if (entry == null || entry.future.isDone()) {
+            entry = new Pending(externalJob, initialDelayMillis, now());
+            pending.put(externalJob.gettJobExecId(), entry);
+            LOG.debug("[elastest-plugin]: Waiting for the TJob execution {}, {} pending",
+                    externalJob.gettJobExecId(), pending.size());
+            scheduleTick(0);
+        }
+        // Each waiter can cancel its own future without affecting the others
+        CompletableFuture<ExternalJob> waiter = new CompletableFuture<>();
+        entry.future.whenComplete((job, e) -> {
+            if (e != null) {
+                waiter.completeExceptionally(e);
+            } else {
+                waiter.complete(job);
+            }
+        });
+        entry.waiters.add(waiter);
+        return waiter;
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private void scheduleTick(long delayMillis) {
+        if (tick == null || tick.isDone()) {
+            tick = scheduler.schedule(this::poll, delayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Polls the TJobs whose delay has elapsed, one after another, and
+     * schedules the next round.
+     */
+    private void poll() {
+        for (Pending entry : takeDue()) {
+            ExternalJob status;
+            try {
+                status = client.getStatus(entry.externalJob);
+            } catch (TJobErrorException e) {
+                remove(entry);
+                entry.future.completeExceptionally(e);
+                continue;
+            } catch (Exception e) {
+                if (!retryAfterError(entry, e)) {
+                    remove(entry);
+                    entry.future.completeExceptionally(e);
+                }
+                continue;
+            }
+            if (status.isReady()) {
+                remove(entry);
+                entry.future.complete(status);
+            } else {
+                synchronized (this) {
+                    entry.externalJob = status;
+                    entry.failing = false;
+                    backOff(entry);
+                }
+            }
+        }
+        synchronized (this) {
+            tick = null;
+            long next = Long.MAX_VALUE;
+            for (Pending entry : pending.values()) {
+                next = Math.min(next, entry.nextPollMillis);
+            }
+            if (next != Long.MAX_VALUE) {
+                scheduleTick(Math.max(0, next - now()));
+            }
+        }
+    }
+
+    /**
+     * @return true if the TJob will be polled again, false if the requests
+     *         have been failing for too long.
+     */
+    private synchronized boolean retryAfterError(Pending entry, Exception e) {
+        long now = now();
+        if (!entry.failing) {
+            entry.failing = true;
+            entry.failingSinceMillis = now;
+        } else if (now - entry.failingSinceMillis >= maxErrorMillis) {
+            LOG.error("[elastest-plugin]: Giving up on the status of the TJob execution {}: {}",
+                    entry.externalJob.gettJobExecId(), e.getMessage());
+            return false;
+        }
+        LOG.warn("[elastest-plugin]: Error checking the status of the TJob execution {}, retrying: {}",
+                entry.externalJob.gettJobExecId(), e.getMessage());
+        backOff(entry);
+        return true;
+    }
+
+    private void backOff(Pending entry) {
+        entry.nextPollMillis = now() + entry.delayMillis;
+        entry.delayMillis = Math.min(maxDelayMillis,
+                entry.delayMillis + entry.delayMillis / 2);
+    }
+
+    private synchronized List<Pending> takeDue() {
+        List<Pending> due = new ArrayList<>();
+        long now = now();
+        for (Pending entry : new ArrayList<>(pending.values())) {
+            if (entry.waiters.stream().allMatch(CompletableFuture::isDone)) {
+                // Nobody is waiting any more
+                pending.remove(entry.externalJob.gettJobExecId());
+                entry.future.cancel(false);
+            } else if (entry.nextPollMillis <= now) {
+                due.add(entry);
+            }
+        }
+        return due;
+    }
+
+    private synchronized void remove(Pending entry) {
+        pending.remove(entry.externalJob.gettJobExecId(), entry);
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
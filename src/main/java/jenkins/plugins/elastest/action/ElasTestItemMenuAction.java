@@ -31,6 +31,7 @@ import hudson.model.Actionable;
 import hudson.model.Run;
 import jenkins.plugins.elastest.ElasTestService;
 import jenkins.plugins.elastest.Messages;
+import jenkins.plugins.elastest.json.ExternalJob;
 
 /**
  * This class creates the icon that allows access to the Job execution in
@@ -47,6 +48,8 @@ public class ElasTestItemMenuAction extends Actionable implements Action {
 
     private String elasTestLogAnalyzerUrl = "http://localhost:4200/#/logmanager";
     private String elasTestTJobExecutionUrl = "";
+    private long droppedLines;
+    private long spilledLines;
 
     public ElasTestItemMenuAction(@SuppressWarnings("rawtypes") Run<?, ?> build,
             String elasTestLogAnalyzerUrl, String elasTestTJobExecutionUrl) {
@@ -60,12 +63,11 @@ public class ElasTestItemMenuAction extends Actionable implements Action {
     }
 
     public static void addActionToMenu(Run<?, ?> build) {
-        ElasTestService elasTestService = ElasTestService.getInstance();
+        ExternalJob externalJob = ElasTestService.getInstance()
+                .getExternalJob(build);
         ElasTestItemMenuAction action = new ElasTestItemMenuAction(build,
-                elasTestService.getExternalJobByBuildFullName(
-                        build.getFullDisplayName()).getLogAnalyzerUrl(),
-                elasTestService.getExternalJobByBuildFullName(
-                        build.getFullDisplayName()).getExecutionUrl());
+                externalJob.getLogAnalyzerUrl(),
+                externalJob.getExecutionUrl());
         build.addAction(action);
     }
 
@@ -105,4 +107,28 @@ public class ElasTestItemMenuAction extends Actionable implements Action {
         this.elasTestTJobExecutionUrl = elasTestTJobExecutionUrl;
     }
 
+    /**
+     * @return number of console lines that were not sent to ElasTest because
+     *         the queue of pending lines was full.
+     */
+    public synchronized long getDroppedLines() {
+        return droppedLines;
+    }
+
+    public synchronized void addDroppedLines(long lines) {
+        droppedLines += lines;
+    }
+
+    /**
+     * @return number of console lines that were stored on disk because the
+     *         queue of pending lines was full.
+     */
+    public synchronized long getSpilledLines() {
+        return spilledLines;
+    }
+
+    public synchronized void addSpilledLines(long lines) {
+        spilledLines += lines;
+    }
+
 }
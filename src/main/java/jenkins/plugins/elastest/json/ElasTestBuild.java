@@ -1,25 +1,28 @@
 package jenkins.plugins.elastest.json;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import hudson.EnvVars;
 import hudson.FilePath;
 import jenkins.plugins.elastest.ElasTestWriter;
+import jenkins.plugins.elastest.IncrementalReportShipper;
 
 public class ElasTestBuild implements Serializable {
     private static final long serialVersionUID = 1L;
 
-    private transient FilePath workspace;
+    private transient volatile FilePath workspace;
 
-    private ExternalJob externalJob;
+    private volatile ExternalJob externalJob;
 
     private List<String> containers;
 
-    private transient ElasTestWriter writer;
+    private transient volatile ElasTestWriter writer;
 
-    private String eimAgentId;
+    private volatile String eimAgentId;
+
+    private transient volatile IncrementalReportShipper reportShipper;
 
     private EnvVars envVars;
 
@@ -30,7 +33,7 @@ public class ElasTestBuild implements Serializable {
     public ElasTestBuild(ExternalJob externalJob) {
         super();
         this.externalJob = externalJob;
-        this.containers = new ArrayList<>();
+        this.containers = new CopyOnWriteArrayList<>();
         this.envVars = new EnvVars();
     }
 
@@ -74,6 +77,14 @@ public class ElasTestBuild implements Serializable {
         this.eimAgentId = eimAgentId;
     }
 
+    public IncrementalReportShipper getReportShipper() {
+        return reportShipper;
+    }
+
+    public void setReportShipper(IncrementalReportShipper reportShipper) {
+        this.reportShipper = reportShipper;
+    }
+
     public EnvVars getEnvVars() {
         return envVars;
     }
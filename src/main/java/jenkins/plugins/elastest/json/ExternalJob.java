@@ -23,16 +23,21 @@
  */
 package jenkins.plugins.elastest.json;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 /**
  * 
@@ -41,6 +46,10 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 public class ExternalJob implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Thread safe, shared by all the requests to the TJob API
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectReader READER = MAPPER.readerFor(ExternalJob.class);
+    private static final ObjectWriter WRITER = MAPPER.writerFor(ExternalJob.class);
 
     @JsonProperty("jobName")
     private String jobName;
@@ -87,6 +96,12 @@ public class ExternalJob implements Serializable {
     @JsonProperty("testResults")
     private List<String> testResults;
 
+    // Reports uploaded on their own, instead of embedded in testResults. Only
+    // sent when there are some, for the servers that reject unknown fields
+    @JsonProperty("testResultFiles")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private List<String> testResultFiles;
+
     @JsonProperty("sut")
     private Sut sut;
 
@@ -279,6 +294,18 @@ public class ExternalJob implements Serializable {
         this.testResults = testResults;
     }
 
+    /**
+     * @return the paths, relative to the workspace, of the reports already
+     *         uploaded to ElasTest.
+     */
+    public List<String> getTestResultFiles() {
+        return testResultFiles;
+    }
+
+    public void setTestResultFiles(List<String> testResultFiles) {
+        this.testResultFiles = testResultFiles;
+    }
+
     public Sut getSut() {
         return sut;
     }
@@ -350,6 +377,8 @@ public class ExternalJob implements Serializable {
                 && Objects.equals(this.testResultFilePattern,
                         externalJob.testResultFilePattern)
                 && Objects.equals(this.testResults, externalJob.testResults)
+                && Objects.equals(this.testResultFiles,
+                        externalJob.testResultFiles)
                 && Objects.equals(this.sut, externalJob.sut)
                 && Objects.equals(this.status, externalJob.status)
                 && Objects.equals(this.error, externalJob.error)
@@ -365,7 +394,8 @@ public class ExternalJob implements Serializable {
     public int hashCode() {
         return Objects.hash(jobName, executionUrl, logAnalyzerUrl, tJobExecId,
                 logstashPort, servicesIp, tSServices, envVars, result, isReady,
-                testResultFilePattern, testResults, sut, status, error,
+                testResultFilePattern, testResults, testResultFiles, sut,
+                status, error,
                 fromIntegratedJenkins, buildUrl, jobUrl, project,
                 maxExecutions);
     }
@@ -397,6 +427,8 @@ public class ExternalJob implements Serializable {
                 .append(toIndentedString(testResultFilePattern)).append("\n");
         sb.append("    testResults: ").append(toIndentedString(testResults))
                 .append("\n");
+        sb.append("    testResultFiles: ")
+                .append(toIndentedString(testResultFiles)).append("\n");
         sb.append("    sut: ").append(toIndentedString(sut)).append("\n");
         sb.append("    status: ").append(toIndentedString(status)).append("\n");
         sb.append("    error: ").append(toIndentedString(error)).append("\n");
@@ -427,19 +459,28 @@ public class ExternalJob implements Serializable {
     }
 
     public String toJSON() {
-        ObjectMapper mapper = new ObjectMapper();
-
         // Object to JSON in String
-        String jsonInString;
         try {
-            jsonInString = mapper.writeValueAsString(this);
-            return jsonInString;
-
+            return WRITER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
-            // TODO Auto-generated catch block
             e.printStackTrace();
         }
         return "";
     }
 
+    /**
+     * @return the JSON of the TJob encoded in UTF-8.
+     */
+    public byte[] toJSONBytes() throws JsonProcessingException {
+        return WRITER.writeValueAsBytes(this);
+    }
+
+    /**
+     * Reads a TJob from a JSON stream, without copying it into a String first.
+     * The stream is not closed.
+     */
+    public static ExternalJob fromJSON(InputStream input) throws IOException {
+        return READER.readValue(input);
+    }
+
 }
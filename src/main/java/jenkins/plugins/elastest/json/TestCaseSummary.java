@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.json;
+
+import java.io.Serializable;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Result of a test case, with the stack trace of its failure cut to the first
+ * lines and, optionally, its output.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TestCaseSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Status {
+        PASSED, FAILURE, ERROR, SKIPPED
+    }
+
+    @JsonProperty("name")
+    private String name;
+    @JsonProperty("className")
+    private String className;
+    @JsonProperty("time")
+    private double time;
+    @JsonProperty("status")
+    private Status status = Status.PASSED;
+    @JsonProperty("message")
+    private String message;
+    @JsonProperty("type")
+    private String type;
+    @JsonProperty("stackTrace")
+    private String stackTrace;
+    @JsonProperty("systemOut")
+    private String systemOut;
+    @JsonProperty("systemErr")
+    private String systemErr;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public void setClassName(String className) {
+        this.className = className;
+    }
+
+    /**
+     * @return the duration in seconds.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    public void setTime(double time) {
+        this.time = time;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getStackTrace() {
+        return stackTrace;
+    }
+
+    public void setStackTrace(String stackTrace) {
+        this.stackTrace = stackTrace;
+    }
+
+    public String getSystemOut() {
+        return systemOut;
+    }
+
+    public void setSystemOut(String systemOut) {
+        this.systemOut = systemOut;
+    }
+
+    public String getSystemErr() {
+        return systemErr;
+    }
+
+    public void setSystemErr(String systemErr) {
+        this.systemErr = systemErr;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TestCaseSummary [className=%s, name=%s, status=%s]",
+                className, name, status);
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.json;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Compact result of a test suite, extracted from its surefire report.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class TestSuiteSummary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    @JsonProperty("name")
+    private String name;
+    @JsonProperty("time")
+    private double time;
+    @JsonProperty("tests")
+    private int tests;
+    @JsonProperty("failures")
+    private int failures;
+    @JsonProperty("errors")
+    private int errors;
+    @JsonProperty("skipped")
+    private int skipped;
+    @JsonProperty("testCases")
+    private List<TestCaseSummary> testCases = new ArrayList<>();
+    @JsonProperty("systemOut")
+    private String systemOut;
+    @JsonProperty("systemErr")
+    private String systemErr;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the duration in seconds.
+     */
+    public double getTime() {
+        return time;
+    }
+
+    public void setTime(double time) {
+        this.time = time;
+    }
+
+    public int getTests() {
+        return tests;
+    }
+
+    public void setTests(int tests) {
+        this.tests = tests;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public void setFailures(int failures) {
+        this.failures = failures;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+
+    public void setErrors(int errors) {
+        this.errors = errors;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public void setSkipped(int skipped) {
+        this.skipped = skipped;
+    }
+
+    public List<TestCaseSummary> getTestCases() {
+        return testCases;
+    }
+
+    public void setTestCases(List<TestCaseSummary> testCases) {
+        this.testCases = testCases;
+    }
+
+    public String getSystemOut() {
+        return systemOut;
+    }
+
+    public void setSystemOut(String systemOut) {
+        this.systemOut = systemOut;
+    }
+
+    public String getSystemErr() {
+        return systemErr;
+    }
+
+    public void setSystemErr(String systemErr) {
+        this.systemErr = systemErr;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "TestSuiteSummary [name=%s, tests=%s, failures=%s, errors=%s, skipped=%s]",
+                name, tests, failures, errors, skipped);
+    }
+}
@@ -1,13 +1,25 @@
 package jenkins.plugins.elastest.json;
 
 import java.io.Serializable;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 
 public class Trace implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final ObjectWriter WRITER = new ObjectMapper().writer();
+    // Same format as Date.toString()
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+            .ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+    private static volatile CachedTimestamp timestamp = new CachedTimestamp(
+            -1, null);
 
     private String component;
     private String exec;
@@ -70,11 +82,25 @@ public class Trace implements Serializable {
         this.timestampStr = timestampStr;
     }
 
+    /**
+     * Returns the current time as a trace timestamp. The text is only built
+     * once per second.
+     */
+    public static String currentTimestamp() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedTimestamp cached = timestamp;
+        if (cached.second != second) {
+            cached = new CachedTimestamp(second, TIMESTAMP_FORMAT.format(
+                    Instant.ofEpochSecond(second).atZone(ZoneId.systemDefault())));
+            timestamp = cached;
+        }
+        return cached.text;
+    }
+
     public String toJSON() {
-        ObjectMapper mapper = new ObjectMapper();
         String jsonInString;
         try {
-            jsonInString = mapper.writeValueAsString(this);
+            jsonInString = WRITER.writeValueAsString(this);
             return jsonInString;
 
         } catch (JsonProcessingException e) {
@@ -83,6 +109,29 @@ public class Trace implements Serializable {
         return "";
     }
 
+    /**
+     * Serializes several traces as a JSON array, so that they can be sent to
+     * Logstash in a single request.
+     */
+    public static String toJSON(List<Trace> traces) {
+        try {
+            return WRITER.writeValueAsString(traces);
+        } catch (JsonProcessingException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+
+    private static final class CachedTimestamp {
+        final long second;
+        final String text;
+
+        CachedTimestamp(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
     @Override
     public String toString() {
         return "Trace [component=" + component + ", exec=" + exec + ", stream="
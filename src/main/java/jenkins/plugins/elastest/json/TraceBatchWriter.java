@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes console lines as a JSON array of {@link Trace} objects, the same
+ * payload as {@link Trace#toJSON(java.util.List)}, straight from their UTF-8 bytes. The
+ * buffer is reused from one batch to the next, so adding a line does not
+ * allocate objects. Not thread safe.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public class TraceBatchWriter {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final String component;
+    private final String exec;
+    private final String stream;
+    private final Buffer buffer = new Buffer();
+    private JsonGenerator generator;
+    private String timestamp;
+    private int lines;
+
+    public TraceBatchWriter(String component, String exec, String stream) {
+        this.component = component;
+        this.exec = exec;
+        this.stream = stream;
+    }
+
+    /**
+     * Adds a trace with the given line, encoded in UTF-8. The malformed
+     * sequences of a line in another encoding are replaced, so that the
+     * payload is always valid JSON.
+     */
+    public void add(byte[] line, int offset, int length) throws IOException {
+        if (generator == null) {
+            generator = JSON_FACTORY.createGenerator(buffer,
+                    JsonEncoding.UTF8);
+            generator.writeStartArray();
+            // All the traces of a batch share the timestamp
+            timestamp = Trace.currentTimestamp();
+        }
+        generator.writeStartObject();
+        generator.writeStringField("component", component);
+        generator.writeStringField("exec", exec);
+        generator.writeStringField("stream", stream);
+        generator.writeFieldName("message");
+        if (isValidUtf8(line, offset, length)) {
+            generator.writeUTF8String(line, offset, length);
+        } else {
+            generator.writeString(
+                    new String(line, offset, length, StandardCharsets.UTF_8));
+        }
+        generator.writeStringField("@timestamp", timestamp);
+        generator.writeEndObject();
+        lines++;
+    }
+
+    /**
+     * @return true if the bytes are well-formed UTF-8: no stray continuation
+     *         bytes, truncated or overlong sequences, or surrogates.
+     */
+    static boolean isValidUtf8(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int b = bytes[i++];
+            if (b >= 0) {
+                continue;
+            }
+            int continuation;
+            int min;
+            int codePoint;
+            if ((b & 0xE0) == 0xC0) {
+                continuation = 1;
+                min = 0x80;
+                codePoint = b & 0x1F;
+            } else if ((b & 0xF0) == 0xE0) {
+                continuation = 2;
+                min = 0x800;
+                codePoint = b & 0x0F;
+            } else if ((b & 0xF8) == 0xF0) {
+                continuation = 3;
+                min = 0x10000;
+                codePoint = b & 0x07;
+            } else {
+                return false;
+            }
+            if (end - i < continuation) {
+                return false;
+            }
+            for (int k = 0; k < continuation; k++) {
+                int c = bytes[i++];
+                if ((c & 0xC0) != 0x80) {
+                    return false;
+                }
+                codePoint = (codePoint << 6) | (c & 0x3F);
+            }
+            if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= Character.MIN_SURROGATE
+                            && codePoint <= Character.MAX_SURROGATE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    /**
+     * Returns the traces added since the last call and starts a new batch.
+     */
+    public byte[] drain() throws IOException {
+        if (generator == null) {
+            return "[]".getBytes(JsonEncoding.UTF8.getJavaName());
+        }
+        generator.writeEndArray();
+        generator.close();
+        generator = null;
+        byte[] payload = buffer.toByteArray();
+        buffer.reset();
+        buffer.shrink();
+        lines = 0;
+        return payload;
+    }
+
+    /**
+     * Keeps the buffer of a large batch from being retained by a quiet build.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private static final int MAX_RETAINED = 1024 * 1024;
+
+        Buffer() {
+            super(8 * 1024);
+        }
+
+        void shrink() {
+            if (buf.length > MAX_RETAINED) {
+                buf = Arrays.copyOf(buf, 8 * 1024);
+            }
+        }
+    }
+}
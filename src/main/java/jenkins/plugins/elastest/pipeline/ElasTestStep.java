@@ -82,6 +82,9 @@ public class ElasTestStep extends AbstractStepImpl {
     @Nonnull
     private boolean monitoring = false;
 
+    @Nonnull
+    private boolean shipLogsFromAgent = false;
+
     /**
      * Constructor.
      */
@@ -136,6 +139,19 @@ public class ElasTestStep extends AbstractStepImpl {
         this.monitoring = monitoring;
     }
 
+    public boolean isShipLogsFromAgent() {
+        return shipLogsFromAgent;
+    }
+
+    /**
+     * Sends the console lines written on the agent straight from the agent to
+     * ElasTest, instead of through the controller.
+     */
+    @DataBoundSetter
+    public void setShipLogsFromAgent(boolean shipLogsFromAgent) {
+        this.shipLogsFromAgent = shipLogsFromAgent;
+    }
+
     public String getProject() {
         return project;
     }
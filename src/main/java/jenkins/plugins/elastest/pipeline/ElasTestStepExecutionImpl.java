@@ -27,25 +27,31 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 
 import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.BodyExecution;
 import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
 import org.jenkinsci.plugins.workflow.steps.EnvironmentExpander;
 import org.jenkinsci.plugins.workflow.steps.StepContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.FilePath;
 import hudson.console.ConsoleLogFilter;
+import hudson.model.Computer;
 import hudson.model.Run;
 import hudson.remoting.VirtualChannel;
 import jenkins.plugins.elastest.ConsoleLogFilterImpl;
 import jenkins.plugins.elastest.ElasTestService;
 import jenkins.plugins.elastest.ElasTestWriter;
+import jenkins.plugins.elastest.IncrementalReportShipper;
 import jenkins.plugins.elastest.action.ElasTestItemMenuAction;
 import jenkins.plugins.elastest.docker.DockerCommandExecutor;
 import jenkins.plugins.elastest.docker.DockerService;
@@ -68,12 +74,19 @@ public class ElasTestStepExecutionImpl extends AbstractStepExecutionImpl {
     private DockerService dockerService;
     private ElasTestWriter writer;
     private DockerCommandExecutor dockerCommandExecutor;
+    private BodyExecution body;
+    private transient Run<?, ?> build;
+    private transient ElasTestBuild elasTestBuild;
+    private transient volatile Future<?> task;
+    private transient volatile boolean stopped;
 
     @Inject
     transient ElasTestStep elasTestStep;
 
     /**
-     * {@inheritDoc}
+     * Starts preparing the TJob in the background and returns, so the CPS VM
+     * thread is not blocked while ElasTest provisions the TJob. The body is
+     * invoked once the TJob is ready.
      */
     @Override
     public boolean start() throws Exception {
@@ -81,72 +94,103 @@ public class ElasTestStepExecutionImpl extends AbstractStepExecutionImpl {
 
         elasTestService = ElasTestService.getInstance();
         StepContext context = getContext();
-        Run<?, ?> build = context.get(Run.class);
-        ElasTestBuild elasTestBuild = null;
+        build = context.get(Run.class);
 
         LOG.info("[elastest-plugin]: Working on build {}", build.getFullDisplayName());
-        try {
-            // Init Build Context
-            elasTestBuild = new ElasTestBuild();
-            elasTestBuild.setWorkspace(context.get(FilePath.class));
-            // Associate the Jenkins' Job to an ElasTest Job
-            elasTestService.asociateToElasTestTJob(build, elasTestStep, elasTestBuild);
-        } catch (Exception e) {
-            LOG.error("[elastest-plugin]: Error trying to bind the build with a TJob.");
-            e.printStackTrace();
-            throw e;
-        }
+        // Init Build Context
+        elasTestBuild = new ElasTestBuild();
+        elasTestBuild.setWorkspace(context.get(FilePath.class));
+        submit(this::associate, "Error trying to bind the build with a TJob.");
+        return false;
+    }
 
-        try {
-
-            // Add the ElasTest menu item to the left menu
-            ElasTestItemMenuAction.addActionToMenu(build);
-            // Wait until the ElasTest Job is ready
-            while (!elasTestBuild.getExternalJob().isReady()) {
-                elasTestBuild.setExternalJob(elasTestService
-                        .isReadyTJobForExternalExecution(elasTestBuild.getExternalJob()));
-                try {
-                    if (!elasTestBuild.getExternalJob().isReady()) {
-                        Thread.sleep(500);
-                    }
-                } catch (InterruptedException | IllegalArgumentException ie) {
-                    LOG.warn("[elastest-plugin]: {}", ie.getMessage());
+    /**
+     * Associates the Jenkins' Job to an ElasTest Job and starts waiting for
+     * the TJob. The body is started once the TJob is ready.
+     */
+    private void associate() throws Exception {
+        elasTestService.asociateToElasTestTJob(build, elasTestStep, elasTestBuild);
+        // Add the ElasTest menu item to the left menu
+        ElasTestItemMenuAction.addActionToMenu(build);
+        CompletableFuture<ExternalJob> ready = elasTestService
+                .awaitReady(elasTestBuild.getExternalJob());
+        task = ready;
+        ready.whenComplete((externalJob, e) -> {
+            if (e != null) {
+                if (!stopped) {
+                    LOG.error("[elastest-plugin]: Error waiting for the TJob to be ready. {}",
+                            e.getMessage());
+                    getContext().onFailure(e);
                 }
+            } else {
+                elasTestBuild.setExternalJob(externalJob);
+                submit(this::startBody, "Error preparing Job execution.");
             }
-            writer = new ElasTestWriter(build, null,
-                    elasTestService.getExternalJobByBuildFullName(build.getFullDisplayName()));
-            elasTestBuild.setWriter(writer);
-            // Set environment variables
-            addEnvVars(build);
-            // If monitoring is true, start monitoring
-            if (elasTestStep.isMonitoring()) {
-                dockerService = DockerService
-                        .getDockerService(DockerService.DOCKER_HOST_BY_DEFAULT);
-                dockerCommandExecutor = new DockerCommandExecutor(null, dockerService);
-                startMonitoringContainers(elasTestStep.envVars, elasTestBuild,
-                        context.get(FilePath.class).getChannel());
-            }
+        });
+    }
 
-        } catch (Exception e) {
-            LOG.error("[elastest-plugin]: Error preparing Job execution.");
-            e.printStackTrace();
-            throw e;
+    private void startBody() throws Exception {
+        StepContext context = getContext();
+        writer = new ElasTestWriter(build, null,
+                elasTestBuild.getExternalJob(),
+                elasTestStep.isShipLogsFromAgent());
+        elasTestBuild.setWriter(writer);
+        // Set environment variables
+        addEnvVars();
+        // If monitoring is true, start monitoring
+        if (elasTestStep.isMonitoring()) {
+            dockerService = DockerService
+                    .getDockerService(DockerService.DOCKER_HOST_BY_DEFAULT);
+            dockerCommandExecutor = new DockerCommandExecutor(null, dockerService);
+            startMonitoringContainers(elasTestStep.envVars, elasTestBuild,
+                    context.get(FilePath.class).getChannel());
         }
 
         ExpanderImpl expanderImpl = new ExpanderImpl();
         expanderImpl.setOverrides(elasTestStep.envVars);
-        expanderImpl.expand(getContext().get(EnvVars.class));
+        expanderImpl.expand(context.get(EnvVars.class));
 
         String agentIdOrNull = elasTestService.manageEIMIfNecessary(build,
                 elasTestBuild.getEnvVars());
         elasTestBuild.setEimAgentId(agentIdOrNull);
+        IncrementalReportShipper.start(build, elasTestBuild);
 
-        context.newBodyInvoker().withContext(createConsoleLogFilter(context, build))
-                .withContext(EnvironmentExpander.merge(getContext().get(EnvironmentExpander.class),
-                        expanderImpl))
-                .withCallback(BodyExecutionCallback.wrap(getContext())).start();
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            body = context.newBodyInvoker()
+                    .withContext(createConsoleLogFilter(context, build))
+                    .withContext(EnvironmentExpander.merge(
+                            context.get(EnvironmentExpander.class), expanderImpl))
+                    .withCallback(BodyExecutionCallback.wrap(context)).start();
+        }
+    }
 
-        return false;
+    @FunctionalInterface
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs a stage of the preparation in a background thread. If it fails the
+     * step fails.
+     */
+    private void submit(Stage stage, String errorMessage) {
+        task = Computer.threadPoolForRemoting.submit(() -> {
+            if (stopped) {
+                return;
+            }
+            try {
+                stage.run();
+            } catch (Exception e) {
+                if (!stopped) {
+                    LOG.error("[elastest-plugin]: {} {}", errorMessage,
+                            e.getMessage());
+                    getContext().onFailure(e);
+                }
+            }
+        });
     }
 
     private static final class ExpanderImpl extends EnvironmentExpander {
@@ -170,9 +214,8 @@ public class ElasTestStepExecutionImpl extends AbstractStepExecutionImpl {
         return logFilterImpl;
     }
 
-    private void addEnvVars(Run<?, ?> build) {
-        ExternalJob externalJob = elasTestService
-                .getExternalJobByBuildFullName(build.getFullDisplayName());
+    private void addEnvVars() {
+        ExternalJob externalJob = elasTestBuild.getExternalJob();
         elasTestStep.envVars.putAll(externalJob.getEnvVars() != null ? externalJob.getEnvVars()
                 : new HashMap<String, String>());
     }
@@ -237,11 +280,37 @@ public class ElasTestStepExecutionImpl extends AbstractStepExecutionImpl {
     }
 
     /**
-     * {@inheritDoc}
+     * Cancels the preparation of the TJob if it is still in progress, or the
+     * body otherwise.
      */
     @Override
     public void stop(@Nonnull Throwable cause) throws Exception {
-        getContext().onFailure(cause);
+        BodyExecution startedBody;
+        synchronized (this) {
+            stopped = true;
+            startedBody = body;
+        }
+        Future<?> pending = task;
+        if (pending != null) {
+            pending.cancel(true);
+        }
+        if (startedBody != null) {
+            startedBody.cancel(cause);
+        } else {
+            getContext().onFailure(cause);
+        }
+    }
+
+    /**
+     * The preparation of the TJob does not survive a restart. If the body was
+     * not started yet, the step fails.
+     */
+    @Override
+    public void onResume() {
+        if (body == null) {
+            getContext().onFailure(new AbortException(
+                    "Jenkins was restarted before the ElasTest TJob was ready"));
+        }
     }
 
 }
@@ -0,0 +1,509 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.spool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import jenkins.model.Jenkins;
+import jenkins.plugins.elastest.LogBatch;
+
+/**
+ * Append-only store of the batches of log lines that cannot be sent to
+ * ElasTest right away. The batches are written to segment files and read back
+ * in the same order.
+ * <p>
+ * Each record has a one byte state, the number of lines, the length of the
+ * payload, a CRC32 of the lines and the payload, and the payload encoded in
+ * UTF-8. The state is written last, so a record that was not completely
+ * written is ignored when the spool is opened again. Records are marked as
+ * consumed once they have been sent, and a segment is deleted when all of its
+ * records have been consumed. Because all the state is kept in the segments,
+ * a spool can be reopened after a restart of Jenkins.
+ * <p>
+ * A spool directory can only be opened once at a time in this JVM.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public class PayloadSpool implements Closeable {
+    public static final String ROOT_DIR = "elastest-spool";
+    static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String ENDPOINT_FILE = "endpoint.properties";
+    // Leaves room below the first segment for batches added with prepend
+    private static final long FIRST_SEGMENT_ID = 1000000000L;
+    private static final int HEADER_SIZE = 13;
+    private static final byte STATE_END = 0;
+    private static final byte STATE_PENDING = 1;
+    private static final byte STATE_CONSUMED = 2;
+    private static final Set<File> OPEN_SPOOLS = ConcurrentHashMap.newKeySet();
+
+    private final File directory;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private int pendingRecords;
+    private boolean closed;
+
+    /**
+     * Opens the spool stored in the given directory, creating it if it does
+     * not exist.
+     * 
+     * @throws IOException
+     *             if the spool cannot be read or it is already open.
+     */
+    public PayloadSpool(File directory) throws IOException {
+        this.directory = directory.getAbsoluteFile();
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Unable to create the spool directory "
+                    + this.directory);
+        }
+        if (!OPEN_SPOOLS.add(this.directory)) {
+            throw new IOException("The spool " + this.directory
+                    + " is already in use");
+        }
+        try {
+            File[] files = this.directory.listFiles(
+                    (dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName();
+                    long id = Long.parseLong(name.substring(0,
+                            name.length() - SEGMENT_SUFFIX.length()));
+                    Segment segment = new Segment(id, file, 0);
+                    segments.put(id, segment);
+                    pendingRecords += segment.recover();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the directory where the spools of all the builds are stored.
+     */
+    public static File getRootDirectory() {
+        return new File(Jenkins.getInstance().getRootDir(), ROOT_DIR);
+    }
+
+    /**
+     * @return true if the spool in the given directory is being used.
+     */
+    public static boolean isOpen(File directory) {
+        return OPEN_SPOOLS.contains(directory.getAbsoluteFile());
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Adds a batch after all the batches in the spool.
+     */
+    public synchronized void append(LogBatch batch) throws IOException {
+        ensureOpen();
+        Record record = new Record(batch);
+        Segment last = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (last == null || !last.hasRoomFor(record)) {
+            long id = last == null ? FIRST_SEGMENT_ID : last.id + 1;
+            last = createSegment(id, record.size());
+        }
+        last.write(record);
+        pendingRecords++;
+    }
+
+    /**
+     * Adds some batches, in the given order, before all the batches in the
+     * spool.
+     */
+    public synchronized void prepend(List<LogBatch> batches) throws IOException {
+        ensureOpen();
+        if (batches.isEmpty()) {
+            return;
+        }
+        if (segments.isEmpty()) {
+            for (LogBatch batch : batches) {
+                append(batch);
+            }
+            return;
+        }
+        List<Record> records = new ArrayList<>(batches.size());
+        int size = 0;
+        for (LogBatch batch : batches) {
+            Record record = new Record(batch);
+            records.add(record);
+            size += record.size();
+        }
+        Segment first = createSegment(segments.firstKey() - 1, size);
+        for (Record record : records) {
+            first.write(record);
+        }
+        pendingRecords += records.size();
+    }
+
+    /**
+     * Returns the oldest batch in the spool without removing it, or null if
+     * the spool is empty.
+     */
+    public synchronized LogBatch peek() throws IOException {
+        ensureOpen();
+        Segment segment = firstPendingSegment();
+        return segment != null ? segment.read() : null;
+    }
+
+    /**
+     * Marks the oldest batch in the spool as consumed.
+     */
+    public synchronized void remove() throws IOException {
+        ensureOpen();
+        Segment segment = firstPendingSegment();
+        if (segment == null) {
+            return;
+        }
+        segment.consume();
+        pendingRecords--;
+        if (pendingRecords == 0) {
+            // Everything was sent, reclaim the disk space
+            for (Segment each : segments.values()) {
+                each.delete();
+            }
+            segments.clear();
+        } else if (!segment.hasPending() && segment != segments.lastEntry().getValue()) {
+            segments.remove(segment.id).delete();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    public synchronized int size() {
+        return pendingRecords;
+    }
+
+    /**
+     * Stores the data needed to send the spooled batches when the writer that
+     * created them no longer exists, e.g. after a restart.
+     */
+    public void writeEndpoint(Properties endpoint) throws IOException {
+        try (OutputStream out = new FileOutputStream(
+                new File(directory, ENDPOINT_FILE))) {
+            endpoint.store(out, "ElasTest log endpoint");
+        }
+    }
+
+    public Properties readEndpoint() throws IOException {
+        Properties endpoint = new Properties();
+        File file = new File(directory, ENDPOINT_FILE);
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                endpoint.load(in);
+            }
+        }
+        return endpoint;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        IOException error = null;
+        try {
+            for (Segment segment : segments.values()) {
+                try {
+                    segment.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        } finally {
+            OPEN_SPOOLS.remove(directory);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Closes the spool and removes its files, including the batches that were
+     * not consumed.
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        for (Segment segment : segments.values()) {
+            segment.delete();
+        }
+        segments.clear();
+        File endpoint = new File(directory, ENDPOINT_FILE);
+        if ((endpoint.exists() && !endpoint.delete())
+                || (directory.exists() && !directory.delete())) {
+            throw new IOException("Unable to delete the spool " + directory);
+        }
+    }
+
+    private Segment firstPendingSegment() {
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            if (entry.getValue().hasPending()) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private Segment createSegment(long id, int minSize) throws IOException {
+        File file = new File(directory,
+                String.format("%019d%s", id, SEGMENT_SUFFIX));
+        Segment segment = new Segment(id, file, Math.max(SEGMENT_SIZE, minSize));
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The spool " + directory + " is closed");
+        }
+    }
+
+    private static class Record {
+        final int lines;
+        final byte[] payload;
+        final int crc;
+
+        Record(LogBatch batch) {
+            this(batch.getLines(), batch.getPayload());
+        }
+
+        Record(int lines, byte[] payload) {
+            this.lines = lines;
+            this.payload = payload;
+            this.crc = checksum(lines, payload);
+        }
+
+        int size() {
+            return HEADER_SIZE + payload.length;
+        }
+
+        static int checksum(int lines, byte[] payload) {
+            CRC32 crc32 = new CRC32();
+            crc32.update(lines >>> 24);
+            crc32.update(lines >>> 16);
+            crc32.update(lines >>> 8);
+            crc32.update(lines);
+            crc32.update(payload, 0, payload.length);
+            return (int) crc32.getValue();
+        }
+    }
+
+    /**
+     * A segment file, read and written with positional operations of its
+     * channel. Records are read from readPosition and written at
+     * writePosition. The channel is closed before the file is deleted.
+     */
+    private static class Segment {
+        final long id;
+        final File file;
+        final FileChannel channel;
+        final int capacity;
+        int readPosition;
+        int writePosition;
+        int pending;
+
+        Segment(long id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.capacity = (int) Math.max(size, channel.size());
+        }
+
+        /**
+         * Finds the records of an existing segment.
+         * 
+         * @return the number of pending records.
+         */
+        int recover() throws IOException {
+            int position = 0;
+            readPosition = -1;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (position + HEADER_SIZE <= capacity) {
+                header.clear();
+                if (!readFully(header, position)) {
+                    break;
+                }
+                byte state = header.get(0);
+                if (state != STATE_PENDING && state != STATE_CONSUMED) {
+                    break;
+                }
+                int lines = header.getInt(1);
+                int length = header.getInt(5);
+                int crc = header.getInt(9);
+                if (length < 0 || position + HEADER_SIZE + length > capacity) {
+                    break;
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                if (!readFully(payload, position + HEADER_SIZE)
+                        || Record.checksum(lines, payload.array()) != crc) {
+                    // Partially written record, nothing valid after it
+                    break;
+                }
+                if (state == STATE_PENDING) {
+                    pending++;
+                    if (readPosition < 0) {
+                        readPosition = position;
+                    }
+                }
+                position += HEADER_SIZE + length;
+            }
+            writePosition = position;
+            if (readPosition < 0) {
+                readPosition = position;
+            }
+            return pending;
+        }
+
+        boolean hasRoomFor(Record record) {
+            return writePosition + record.size() <= capacity;
+        }
+
+        boolean hasPending() {
+            return pending > 0;
+        }
+
+        void write(Record record) throws IOException {
+            int position = writePosition;
+            ByteBuffer body = ByteBuffer.allocate(record.size() - 1);
+            body.putInt(record.lines);
+            body.putInt(record.payload.length);
+            body.putInt(record.crc);
+            body.put(record.payload);
+            body.flip();
+            writeFully(body, position + 1);
+            // The state makes the record visible, so it goes last
+            writeState(position, STATE_PENDING);
+            writePosition = position + record.size();
+            if (pending == 0) {
+                readPosition = position;
+            }
+            pending++;
+        }
+
+        LogBatch read() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            ByteBuffer payload;
+            if (!readFully(header, readPosition)
+                    || !readFully(payload = ByteBuffer.allocate(header.getInt(5)),
+                            readPosition + HEADER_SIZE)) {
+                throw new IOException("Truncated segment " + file);
+            }
+            return new LogBatch(payload.array(), header.getInt(1));
+        }
+
+        void consume() throws IOException {
+            writeState(readPosition, STATE_CONSUMED);
+            readPosition += HEADER_SIZE + lengthAt(readPosition);
+            pending--;
+            // Skip the records consumed before a restart
+            ByteBuffer state = ByteBuffer.allocate(1);
+            while (pending > 0) {
+                state.clear();
+                if (!readFully(state, readPosition)
+                        || state.get(0) != STATE_CONSUMED) {
+                    break;
+                }
+                readPosition += HEADER_SIZE + lengthAt(readPosition);
+            }
+        }
+
+        private int lengthAt(int position) throws IOException {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            if (!readFully(length, position + 5)) {
+                throw new IOException("Truncated segment " + file);
+            }
+            return length.getInt(0);
+        }
+
+        private void writeState(int position, byte state) throws IOException {
+            writeFully(ByteBuffer.wrap(new byte[] { state }), position);
+        }
+
+        private void writeFully(ByteBuffer data, long position)
+                throws IOException {
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        }
+
+        /**
+         * @return false if the end of the file was reached first.
+         */
+        private boolean readFully(ByteBuffer data, long position)
+                throws IOException {
+            while (data.hasRemaining()) {
+                int read = channel.read(data, position);
+                if (read < 0) {
+                    return false;
+                }
+                position += read;
+            }
+            return true;
+        }
+
+        void close() throws IOException {
+            if (channel.isOpen()) {
+                try {
+                    channel.force(false);
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+
+        void delete() throws IOException {
+            close();
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Unable to delete the segment " + file);
+            }
+        }
+    }
+}
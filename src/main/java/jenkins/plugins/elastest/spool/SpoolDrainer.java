@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.spool;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.plugins.elastest.ElasTestInstallation;
+import jenkins.plugins.elastest.LogBatch;
+import jenkins.plugins.elastest.submitters.BeatsSubmitter;
+import jenkins.plugins.elastest.submitters.CircuitBreaker;
+import jenkins.plugins.elastest.submitters.ContentEncoding;
+import jenkins.plugins.elastest.submitters.ElasTestSubmitter;
+import jenkins.plugins.elastest.submitters.LogstashSubmitter;
+import jenkins.plugins.elastest.submitters.RejectedPayloadException;
+import jenkins.plugins.elastest.submitters.SubmitterFactory;
+
+/**
+ * Sends the log lines left in the spools of builds that have finished, or that
+ * were running when Jenkins was stopped. Spools still used by a running build
+ * are skipped, their writer sends them. The batches of a spool are sent in
+ * order, and the spool is deleted once all of them have been sent.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+@Extension
+public class SpoolDrainer extends AsyncPeriodicWork {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+
+    public SpoolDrainer() {
+        super("ElasTest spool drainer");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    @Override
+    protected void execute(TaskListener listener)
+            throws IOException, InterruptedException {
+        File[] directories = PayloadSpool.getRootDirectory()
+                .listFiles(File::isDirectory);
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (!PayloadSpool.isOpen(directory)) {
+                drain(directory);
+            }
+        }
+    }
+
+    void drain(File directory) {
+        PayloadSpool spool;
+        try {
+            spool = new PayloadSpool(directory);
+        } catch (IOException e) {
+            LOG.debug("[elastest-plugin]: Skipping the spool {}: {}",
+                    directory, e.getMessage());
+            return;
+        }
+        try {
+            if (spool.isEmpty()) {
+                spool.delete();
+                return;
+            }
+            int sent = send(spool);
+            LOG.info("[elastest-plugin]: Sent {} spooled batches from {}, {} left",
+                    sent, directory, spool.size());
+            if (spool.isEmpty()) {
+                spool.delete();
+            }
+        } catch (IOException e) {
+            LOG.warn("[elastest-plugin]: Error draining the spool {}: {}",
+                    directory, e.getMessage());
+        } finally {
+            try {
+                spool.close();
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Error closing the spool {}: {}",
+                        directory, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sends the batches of the spool until it is empty or a batch fails. The
+     * batches that ElasTest rejects are discarded.
+     * 
+     * @return the number of batches sent.
+     */
+    private int send(PayloadSpool spool) throws IOException {
+        ElasTestInstallation.Descriptor descriptor = ElasTestInstallation
+                .getLogstashDescriptor();
+        ElasTestSubmitter submitter;
+        try {
+            submitter = SubmitterFactory.newInstance(spool.readEndpoint(),
+                    descriptor.username, descriptor.password);
+        } catch (InstantiationException e) {
+            LOG.error("[elastest-plugin]: Unable to send the spool {}: {}",
+                    spool.getDirectory(), e.getMessage());
+            return 0;
+        }
+        if (submitter instanceof LogstashSubmitter) {
+            ((LogstashSubmitter) submitter).setCompression(
+                    ContentEncoding.fromName(descriptor.compression),
+                    descriptor.compressionMinBytes);
+        } else if (submitter instanceof BeatsSubmitter) {
+            ((BeatsSubmitter) submitter)
+                    .setWindowSize(descriptor.beatsWindowSize);
+            ((BeatsSubmitter) submitter)
+                    .setCompressed(descriptor.beatsCompressed);
+        }
+        CircuitBreaker breaker = CircuitBreaker.forSubmitter(submitter);
+        int sent = 0;
+        try {
+            LogBatch batch;
+            while ((batch = spool.peek()) != null && breaker.allowRequest()) {
+                try {
+                    if (!submitter.push(batch.getPayload())) {
+                        breaker.onFailure();
+                        break;
+                    }
+                    sent++;
+                } catch (RejectedPayloadException e) {
+                    // Retrying it would block the rest of the spool forever
+                    LOG.warn("[elastest-plugin]: {} rejected {} spooled log lines, dropping them: {}",
+                            submitter.getDescription(), batch.getLines(),
+                            ExceptionUtils.getRootCauseMessage(e));
+                }
+                breaker.onSuccess();
+                spool.remove();
+            }
+        } catch (IOException e) {
+            breaker.onFailure();
+            LOG.warn("[elastest-plugin]: Failed to send log data to {}: {}",
+                    submitter.getDescription(),
+                    ExceptionUtils.getRootCauseMessage(e));
+        } finally {
+            submitter.close();
+        }
+        return sent;
+    }
+}
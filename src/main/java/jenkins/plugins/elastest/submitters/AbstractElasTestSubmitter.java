@@ -23,6 +23,7 @@
  */
 package jenkins.plugins.elastest.submitters;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -58,10 +59,13 @@ abstract class AbstractElasTestSubmitter implements ElasTestSubmitter {
 
     @Override
     public String buildPayload(List<String> logLines, ExternalJob externalJob) {
-        Trace trace = new Trace("test", externalJob.gettJobExecId().toString(),
-                "default_log", logLines.get(0), new Date().toString());
-        String payload = trace.toJSON();
-        return payload;
+        String exec = externalJob.gettJobExecId().toString();
+        String timestamp = new Date().toString();
+        List<Trace> traces = new ArrayList<>(logLines.size());
+        for (String line : logLines) {
+            traces.add(new Trace("test", exec, "default_log", line, timestamp));
+        }
+        return Trace.toJSON(traces);
     }
 
     @Override
@@ -0,0 +1,332 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.slf4j.Logger;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Submitter that sends the traces to the Beats input of ElasTest (the
+ * lsbeats port) with the Lumberjack v2 protocol. A single TCP connection is
+ * kept open and reused by all the requests.
+ * <p>
+ * Each trace of a payload is sent as a JSON event. Events are sent in windows
+ * of at most {@link #getWindowSize()} events, optionally compressed in a
+ * single frame, and every window waits for the acknowledgement of its last
+ * event before the next one is sent. If the connection fails the payload is
+ * reported as not sent and a new connection is opened with the next request.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public class BeatsSubmitter extends AbstractElasTestSubmitter {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    static final byte VERSION = '2';
+    static final byte FRAME_WINDOW = 'W';
+    static final byte FRAME_JSON = 'J';
+    static final byte FRAME_COMPRESSED = 'C';
+    static final byte FRAME_ACK = 'A';
+    public static final int DEFAULT_WINDOW_SIZE = 512;
+    private static final int CONNECT_TIMEOUT_MILLIS = 3 * 1000;
+    private static final int ACK_TIMEOUT_MILLIS = 30 * 1000;
+
+    // Guarded by itself, so that payloads are encoded while another is sent
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+    private volatile int windowSize = DEFAULT_WINDOW_SIZE;
+    private volatile boolean compressed = true;
+    private volatile boolean closed;
+    // Guarded by this
+    private Socket socket;
+    private DataOutputStream output;
+    private DataInputStream input;
+
+    // primary constructor used by indexer factory
+    public BeatsSubmitter(String host, int port, String key, String username,
+            String password) {
+        super(host, port, key, username, password);
+        LOG.info("[elastest-plugin]: Creating a Beats submitter for {}:{}",
+                host, port);
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    @Override
+    public boolean push(String data) throws IOException {
+        return push(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends the traces of a payload built by
+     * {@link #buildPayload(List, jenkins.plugins.elastest.json.ExternalJob)},
+     * either a JSON array of traces or a single trace. The windows are encoded
+     * before taking the connection, which is only held to write them and wait
+     * for their acknowledgements.
+     *
+     * @throws RejectedPayloadException
+     *             if the payload is not valid JSON
+     */
+    @Override
+    public boolean push(byte[] data) throws IOException {
+        List<byte[]> events = toEvents(data);
+        List<Window> windows = encode(events, windowSize, compressed);
+        synchronized (this) {
+            checkOpen();
+            try {
+                connect();
+                for (Window window : windows) {
+                    output.write(window.bytes);
+                    output.flush();
+                    awaitAck(window.events);
+                }
+                return true;
+            } catch (IOException e) {
+                LOG.error("[elastest-plugin]: Error sending {} events to {}: {}",
+                        events.size(), getDescription(), e.getMessage());
+                disconnect();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Splits a payload in its traces, copying the bytes of every trace without
+     * parsing its content.
+     */
+    private static List<byte[]> toEvents(byte[] data) throws IOException {
+        List<byte[]> events = new ArrayList<>();
+        try (JsonParser parser = MAPPER.getFactory().createParser(data)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                events.add(data);
+            } else if (token == JsonToken.START_ARRAY) {
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (token != JsonToken.START_OBJECT) {
+                        throw new RejectedPayloadException(
+                                "The payload is not an array of traces");
+                    }
+                    int start = (int) parser.getTokenLocation().getByteOffset();
+                    parser.skipChildren();
+                    int end = (int) parser.getCurrentLocation()
+                            .getByteOffset();
+                    events.add(Arrays.copyOfRange(data, start, end));
+                }
+            } else {
+                throw new RejectedPayloadException(
+                        "The payload is not a trace or an array of traces");
+            }
+        } catch (JsonProcessingException e) {
+            throw new RejectedPayloadException(
+                    "The payload is not valid JSON: " + e.getOriginalMessage(),
+                    e);
+        }
+        return events;
+    }
+
+    private List<Window> encode(List<byte[]> events, int windowSize,
+            boolean compressed) throws IOException {
+        List<Window> windows = new ArrayList<>(
+                (events.size() + windowSize - 1) / windowSize);
+        synchronized (deflater) {
+            checkOpen();
+            for (int start = 0; start < events.size(); start += windowSize) {
+                windows.add(encodeWindow(events, start,
+                        Math.min(events.size(), start + windowSize),
+                        compressed));
+            }
+        }
+        return windows;
+    }
+
+    private Window encodeWindow(List<byte[]> events, int from, int to,
+            boolean compressed) throws IOException {
+        int count = to - from;
+        frames.reset();
+        DataOutputStream frameOutput = new DataOutputStream(compressed
+                ? new DeflaterOutputStream(frames, resetDeflater())
+                : frames);
+        // Sequence numbers start again with every window
+        for (int i = from; i < to; i++) {
+            byte[] event = events.get(i);
+            frameOutput.writeByte(VERSION);
+            frameOutput.writeByte(FRAME_JSON);
+            frameOutput.writeInt(i - from + 1);
+            frameOutput.writeInt(event.length);
+            frameOutput.write(event);
+        }
+        frameOutput.close();
+
+        ByteArrayOutputStream window = new ByteArrayOutputStream(
+                frames.size() + 12);
+        DataOutputStream windowOutput = new DataOutputStream(window);
+        windowOutput.writeByte(VERSION);
+        windowOutput.writeByte(FRAME_WINDOW);
+        windowOutput.writeInt(count);
+        if (compressed) {
+            windowOutput.writeByte(VERSION);
+            windowOutput.writeByte(FRAME_COMPRESSED);
+            windowOutput.writeInt(frames.size());
+        }
+        frames.writeTo(windowOutput);
+        return new Window(window.toByteArray(), count);
+    }
+
+    private Deflater resetDeflater() {
+        deflater.reset();
+        return deflater;
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The submitter for " + getDescription()
+                    + " is closed");
+        }
+    }
+
+    /**
+     * The frames of a window, ready to be written.
+     */
+    private static final class Window {
+        final byte[] bytes;
+        final int events;
+
+        Window(byte[] bytes, int events) {
+            this.bytes = bytes;
+            this.events = events;
+        }
+    }
+
+    /**
+     * Reads acknowledgements until the last event of the window is
+     * acknowledged. The receiver may acknowledge part of the window first.
+     */
+    private void awaitAck(int lastSequence) throws IOException {
+        while (true) {
+            byte version = input.readByte();
+            byte type = input.readByte();
+            if (version != VERSION || type != FRAME_ACK) {
+                throw new IOException("Unexpected frame " + (char) version
+                        + (char) type + " from " + getDescription());
+            }
+            int sequence = input.readInt();
+            if (sequence == lastSequence) {
+                return;
+            }
+            LOG.debug("[elastest-plugin]: {} of {} events acknowledged",
+                    sequence, lastSequence);
+        }
+    }
+
+    private void connect() throws IOException {
+        if (socket != null && !socket.isClosed()) {
+            return;
+        }
+        Socket newSocket = new Socket();
+        try {
+            newSocket.setKeepAlive(true);
+            newSocket.setTcpNoDelay(true);
+            newSocket.connect(new InetSocketAddress(host, port),
+                    CONNECT_TIMEOUT_MILLIS);
+            newSocket.setSoTimeout(ACK_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+        socket = newSocket;
+        OutputStream socketOutput = new BufferedOutputStream(
+                socket.getOutputStream(), 64 * 1024);
+        output = new DataOutputStream(socketOutput);
+        input = new DataInputStream(socket.getInputStream());
+        LOG.info("[elastest-plugin]: Connected to the Beats input {}",
+                getDescription());
+    }
+
+    private void disconnect() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                LOG.debug("[elastest-plugin]: Error closing the connection to {}: {}",
+                        getDescription(), e.getMessage());
+            }
+            socket = null;
+            output = null;
+            input = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (this) {
+            disconnect();
+        }
+        synchronized (deflater) {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public SubmitterType getSubmitterType() {
+        return SubmitterType.BEATS;
+    }
+}
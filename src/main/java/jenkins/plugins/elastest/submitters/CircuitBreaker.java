@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+
+/**
+ * Circuit breaker shared by all the writers that send to the same endpoint.
+ * <ul>
+ * <li>CLOSED: requests are sent. After {@link #FAILURE_THRESHOLD} consecutive
+ * failures the circuit opens.</li>
+ * <li>OPEN: requests are rejected without trying, so the callers keep the
+ * lines in the spool or drop them, until the retry delay elapses.</li>
+ * <li>HALF_OPEN: a single trial request is let through. If it succeeds the
+ * circuit closes, otherwise it opens again with twice the delay.</li>
+ * </ul>
+ * The delay starts at {@link #BASE_DELAY_MILLIS} and grows exponentially up to
+ * {@link #MAX_DELAY_MILLIS}. A random jitter of up to half the delay is
+ * subtracted, so the agents and the spool drainer do not retry all at once.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class CircuitBreaker {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    static final int FAILURE_THRESHOLD = 3;
+    static final long BASE_DELAY_MILLIS = 1000;
+    static final long MAX_DELAY_MILLIS = 5 * 60 * 1000;
+    // A trial that never reported its result must not block the endpoint
+    static final long TRIAL_TIMEOUT_MILLIS = 60 * 1000;
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final LongSupplier clock;
+    private final Random random;
+    private State state = State.CLOSED;
+    private int failures;
+    private int opened;
+    private long retryAt;
+    private long trialStartedAt;
+
+    CircuitBreaker(String name, LongSupplier clock, Random random) {
+        this.name = name;
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * @return the breaker of the endpoint of the submitter.
+     */
+    public static CircuitBreaker forSubmitter(ElasTestSubmitter submitter) {
+        String name = submitter.getSubmitterType() + "://"
+                + submitter.getDescription();
+        return BREAKERS.computeIfAbsent(name,
+                key -> new CircuitBreaker(key,
+                        () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()),
+                        new Random()));
+    }
+
+    /**
+     * @return true if a request can be sent now. If it returns true, the
+     *         caller must report the result with {@link #onSuccess()} or
+     *         {@link #onFailure()}.
+     */
+    public synchronized boolean allowRequest() {
+        long now = clock.getAsLong();
+        switch (state) {
+        case CLOSED:
+            return true;
+        case OPEN:
+            if (now < retryAt) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialStartedAt = now;
+            return true;
+        default:
+            if (now - trialStartedAt < TRIAL_TIMEOUT_MILLIS) {
+                return false;
+            }
+            trialStartedAt = now;
+            return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOG.info("[elastest-plugin]: {} is reachable again", name);
+        }
+        state = State.CLOSED;
+        failures = 0;
+        opened = 0;
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.OPEN) {
+            // A request sent before the circuit opened
+            return;
+        }
+        failures++;
+        if (state == State.HALF_OPEN || failures >= FAILURE_THRESHOLD) {
+            open();
+        }
+    }
+
+    private void open() {
+        opened++;
+        long delay = Math.min(MAX_DELAY_MILLIS,
+                BASE_DELAY_MILLIS << Math.min(opened - 1, 20));
+        delay -= (long) (random.nextDouble() * (delay / 2));
+        retryAt = clock.getAsLong() + delay;
+        state = State.OPEN;
+        LOG.warn("[elastest-plugin]: {} failed {} times, retrying in {} ms",
+                name, failures, delay);
+    }
+
+    /**
+     * @return how long to wait before trying again after a failed or rejected
+     *         request.
+     */
+    public synchronized long getRetryDelayMillis() {
+        if (state == State.OPEN) {
+            return Math.max(0, retryAt - clock.getAsLong());
+        }
+        return BASE_DELAY_MILLIS;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
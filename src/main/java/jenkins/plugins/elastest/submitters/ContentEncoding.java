@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+/**
+ * Content coding applied to the bodies of the requests sent to Logstash.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public enum ContentEncoding {
+    /** Send the JSON as is. */
+    IDENTITY(null, "Do not compress"),
+    /** Compress with gzip (RFC 1952). */
+    GZIP("gzip", "gzip"),
+    /** Compress with zlib (RFC 1950), the HTTP "deflate" coding. */
+    DEFLATE("deflate", "deflate");
+
+    private final String headerValue;
+    private final String description;
+
+    private ContentEncoding(String headerValue, String description) {
+        this.headerValue = headerValue;
+        this.description = description;
+    }
+
+    /**
+     * @return the value of the Content-Encoding header, or null if the body is
+     *         not compressed.
+     */
+    public String getHeaderValue() {
+        return headerValue;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public static ContentEncoding fromName(String name) {
+        for (ContentEncoding encoding : values()) {
+            if (encoding.name().equals(name)) {
+                return encoding;
+            }
+        }
+        return IDENTITY;
+    }
+}
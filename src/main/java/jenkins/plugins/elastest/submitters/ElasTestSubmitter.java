@@ -23,6 +23,7 @@
  */
 package jenkins.plugins.elastest.submitters;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
 
@@ -33,9 +34,9 @@ import jenkins.plugins.elastest.json.ExternalJob;
  * @author Francisco R. Díaz
  * @since 0.0.1
  */
-public interface ElasTestSubmitter {
+public interface ElasTestSubmitter extends Closeable {
     static enum SubmitterType {
-        LOGSTASH("logstash");
+        LOGSTASH("logstash"), BEATS("beats");
 
         private final String name;
 
@@ -67,7 +68,21 @@ public interface ElasTestSubmitter {
     boolean push(String data) throws IOException;
 
     /**
-     * Bulds a String playload compatible with the Logstash input.
+     * Sends the log data, encoded in UTF-8, to ElasTest.
+     *
+     * @param data
+     *            The serialized data, not null
+     * @throws RejectedPayloadException
+     *             The server refused the data, sending it again would fail
+     *             too
+     * @throws java.io.IOException
+     *             The data is not written to the server
+     */
+    boolean push(byte[] data) throws IOException;
+
+    /**
+     * Bulds a String playload compatible with the Logstash input. All the
+     * lines are sent as a JSON array of traces, one trace per line.
      * 
      * @param logLines
      * @param externalJob
@@ -83,4 +98,11 @@ public interface ElasTestSubmitter {
      * @return
      */
     String buildPayload(String message, ExternalJob externalJob);
+
+    /**
+     * Releases the connections opened to ElasTest. The submitter cannot be
+     * used afterwards, the data pushed to a closed submitter is not sent.
+     */
+    @Override
+    void close() throws IOException;
 }
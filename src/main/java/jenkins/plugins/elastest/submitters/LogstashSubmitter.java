@@ -38,30 +38,47 @@ import java.nio.charset.StandardCharsets;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 
 import com.google.common.collect.Range;
 
+import jenkins.plugins.elastest.utils.HttpTransport;
+
 /**
- * Logstash submitter.
+ * Logstash submitter. The requests are sent through the shared
+ * {@link HttpTransport}, which keeps the persistent connections to Logstash
+ * and applies the timeouts of the plugin.
+ * <p>
+ * The request bodies can be compressed, see
+ * {@link #setCompression(ContentEncoding, int)}.
  *
  * @author Francisco R. Díaz
  * @since 0.0.1
  */
 public class LogstashSubmitter extends AbstractElasTestSubmitter {
     private transient final Logger logger = getLogger(lookup().lookupClass());
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    public static final int DEFAULT_COMPRESSION_MIN_BYTES = 1024;
 
     final HttpClientBuilder clientBuilder;
     final URI uri;
     final String auth;
     final Range<Integer> successCodes = closedOpen(200, 300);
+    // Only when the client is not the shared one, see getHttpClient()
+    private CloseableHttpClient httpClient;
+    private boolean closed;
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private volatile PayloadCompressor compressor = new PayloadCompressor(
+            ContentEncoding.IDENTITY, DEFAULT_COMPRESSION_MIN_BYTES);
 
     // primary constructor used by indexer factory
     public LogstashSubmitter(String host, int port, String key, String username,
@@ -92,20 +109,93 @@ public class LogstashSubmitter extends AbstractElasTestSubmitter {
             auth = null;
         }
 
-        clientBuilder = factory == null ? HttpClientBuilder.create() : factory;
+        clientBuilder = factory;
+    }
+
+    /**
+     * Returns the HTTP client: the one of the {@link HttpTransport}, or one
+     * built by the given builder if there is a builder. The latter is created
+     * the first time it is needed.
+     *
+     * @throws IOException
+     *             if the submitter was closed
+     */
+    synchronized CloseableHttpClient getHttpClient() throws IOException {
+        if (closed) {
+            throw new IOException("The submitter for " + uri + " is closed");
+        }
+        if (clientBuilder == null) {
+            return HttpTransport.getInstance().getClient();
+        }
+        if (httpClient == null) {
+            httpClient = clientBuilder.build();
+        }
+        return httpClient;
+    }
+
+    public synchronized int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the maximum number of persistent connections to Logstash. It can be
+     * changed while the submitter is in use.
+     */
+    public synchronized void setMaxConnectionsPerRoute(
+            int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = Math.max(1, maxConnectionsPerRoute);
+        if (clientBuilder == null) {
+            HttpTransport.getInstance().setMaxConnections(uri,
+                    this.maxConnectionsPerRoute);
+        }
+    }
+
+    public ContentEncoding getCompression() {
+        return compressor.getEncoding();
+    }
+
+    public int getCompressionMinBytes() {
+        return compressor.getMinBytes();
+    }
+
+    /**
+     * Sets how the request bodies are compressed. Bodies smaller than
+     * minBytes are sent as is. It can be changed while the submitter is in
+     * use: the previous compressor is not closed, since other threads may
+     * still be compressing with it, and its deflaters are freed when it is
+     * collected.
+     */
+    public synchronized void setCompression(ContentEncoding encoding,
+            int minBytes) {
+        PayloadCompressor current = compressor;
+        if (current.getEncoding() != encoding
+                || current.getMinBytes() != minBytes) {
+            compressor = new PayloadCompressor(encoding, minBytes);
+        }
     }
 
     HttpPost getHttpPost(String data) {
-        HttpPost postRequest;
-        RequestConfig.Builder requestConfig = RequestConfig.custom();
-        requestConfig.setConnectTimeout(3 * 1000);
-        requestConfig.setConnectionRequestTimeout(3 * 1000);
-        requestConfig.setSocketTimeout(3 * 1000);
-
-        postRequest = new HttpPost(uri);
-        postRequest.setConfig(requestConfig.build());
-        StringEntity input = new StringEntity(data,
+        if (compressor.shouldCompress(data.length())) {
+            return getHttpPost(data.getBytes(StandardCharsets.UTF_8));
+        }
+        return getHttpPost(new StringEntity(data, ContentType.APPLICATION_JSON));
+    }
+
+    HttpPost getHttpPost(byte[] data) {
+        PayloadCompressor current = compressor;
+        byte[] compressed = current.compress(data);
+        if (compressed == null) {
+            return getHttpPost(
+                    new ByteArrayEntity(data, ContentType.APPLICATION_JSON));
+        }
+        ByteArrayEntity entity = new ByteArrayEntity(compressed,
                 ContentType.APPLICATION_JSON);
+        entity.setContentEncoding(current.getEncoding().getHeaderValue());
+        return getHttpPost(entity);
+    }
+
+    private HttpPost getHttpPost(AbstractHttpEntity input) {
+        HttpPost postRequest = new HttpPost(uri);
         postRequest.setEntity(input);
         if (auth != null) {
             postRequest.addHeader("Authorization", "Basic " + auth);
@@ -115,37 +205,72 @@ public class LogstashSubmitter extends AbstractElasTestSubmitter {
 
     @Override
     public boolean push(String data) throws IOException {
-        CloseableHttpClient httpClient = null;
+        return push(getHttpPost(data));
+    }
+
+    @Override
+    public boolean push(byte[] data) throws IOException {
+        return push(getHttpPost(data));
+    }
+
+    private boolean push(HttpPost post) throws IOException {
         CloseableHttpResponse response = null;
-        HttpPost post = getHttpPost(data);
         boolean sentMessage = false;
 
         try {
-            httpClient = clientBuilder.build();
-            response = httpClient.execute(post);
+            response = HttpTransport.getInstance().execute(getHttpClient(),
+                    post);
 
-            if (!successCodes
-                    .contains(response.getStatusLine().getStatusCode())) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (isRejected(statusCode)) {
+                throw new RejectedPayloadException(
+                        this.getErrorMessage(response));
+            }
+            if (!successCodes.contains(statusCode)) {
                 throw new IOException(this.getErrorMessage(response));
             }
             sentMessage = true;
-        } catch (RuntimeException re) {
+        } catch (RuntimeException | RejectedPayloadException re) {
             throw re;
         } catch (Exception e) {
             logger.error(
-                    "[elastest-plugin]: Error sendind log trace message {} ",
-                    data);
+                    "[elastest-plugin]: Error sendind log trace message of {} bytes: {}",
+                    post.getEntity().getContentLength(), e.getMessage());
         } finally {
             if (response != null) {
+                // Consume the body so the connection can return to the pool
+                EntityUtils.consumeQuietly(response.getEntity());
                 response.close();
             }
-            if (httpClient != null) {
-                httpClient.close();
-            }
         }
         return sentMessage;
     }
 
+    /**
+     * Client errors mean that the payload is not valid, except for a timeout
+     * or too many requests, which can succeed later.
+     */
+    static boolean isRejected(int statusCode) {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 408
+                && statusCode != 429;
+    }
+
+    @Override
+    public void close() throws IOException {
+        CloseableHttpClient client;
+        compressor.close();
+        synchronized (this) {
+            closed = true;
+            client = httpClient;
+            httpClient = null;
+        }
+        if (client != null) {
+            logger.info("[elastest-plugin]: Closing the Logstash client for {}",
+                    uri);
+            client.close();
+        }
+    }
+
     private String getErrorMessage(CloseableHttpResponse response) {
         ByteArrayOutputStream byteStream = null;
         PrintStream stream = null;
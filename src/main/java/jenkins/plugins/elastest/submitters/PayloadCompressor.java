@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the request bodies with a {@link ContentEncoding}. Bodies smaller
+ * than the threshold are not compressed, because the saving would not pay for
+ * the CPU and the headers.
+ * <p>
+ * The {@link Deflater} instances are kept in a small pool and reused by the
+ * next requests, instead of allocating the native zlib buffers for each one as
+ * {@link java.util.zip.GZIPOutputStream} does. The pool never holds more than
+ * {@link #MAX_IDLE_DEFLATERS}, so the memory used is bounded by the number of
+ * threads sending logs.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+final class PayloadCompressor {
+    static final int MAX_IDLE_DEFLATERS = 8;
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b,
+            Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private static final int GZIP_TRAILER_LENGTH = 8;
+
+    private final ContentEncoding encoding;
+    private final int minBytes;
+    private final ArrayDeque<Deflater> idle = new ArrayDeque<>();
+
+    PayloadCompressor(ContentEncoding encoding, int minBytes) {
+        this.encoding = encoding == null ? ContentEncoding.IDENTITY : encoding;
+        this.minBytes = Math.max(0, minBytes);
+    }
+
+    ContentEncoding getEncoding() {
+        return encoding;
+    }
+
+    int getMinBytes() {
+        return minBytes;
+    }
+
+    boolean shouldCompress(int length) {
+        return encoding != ContentEncoding.IDENTITY && length >= minBytes;
+    }
+
+    /**
+     * @return the compressed data, or null if it should be sent as is because
+     *         it is below the threshold or it does not get smaller.
+     */
+    byte[] compress(byte[] data) {
+        if (!shouldCompress(data.length)) {
+            return null;
+        }
+        boolean gzip = encoding == ContentEncoding.GZIP;
+        int trailer = gzip ? GZIP_TRAILER_LENGTH : 0;
+        byte[] out = new byte[data.length / 4 + GZIP_HEADER.length + trailer
+                + 64];
+        int length = 0;
+        if (gzip) {
+            System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+            length = GZIP_HEADER.length;
+        }
+
+        Deflater deflater = acquire(gzip);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (length + trailer >= data.length) {
+                    return null;
+                }
+                if (length == out.length - trailer) {
+                    out = Arrays.copyOf(out,
+                            Math.min(out.length * 2, data.length + trailer));
+                }
+                length += deflater.deflate(out, length,
+                        out.length - trailer - length);
+            }
+        } finally {
+            release(deflater);
+        }
+
+        if (gzip) {
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            length = writeIntLE(out, length, (int) crc.getValue());
+            length = writeIntLE(out, length, data.length);
+        }
+        return length < data.length ? Arrays.copyOf(out, length) : null;
+    }
+
+    private static int writeIntLE(byte[] out, int offset, int value) {
+        out[offset] = (byte) value;
+        out[offset + 1] = (byte) (value >>> 8);
+        out[offset + 2] = (byte) (value >>> 16);
+        out[offset + 3] = (byte) (value >>> 24);
+        return offset + 4;
+    }
+
+    private synchronized Deflater acquire(boolean nowrap) {
+        Deflater deflater = idle.poll();
+        return deflater != null ? deflater
+                : new Deflater(Deflater.BEST_SPEED, nowrap);
+    }
+
+    private synchronized void release(Deflater deflater) {
+        if (idle.size() < MAX_IDLE_DEFLATERS) {
+            deflater.reset();
+            idle.push(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Frees the native memory of the idle deflaters. The compressor can still
+     * be used afterwards.
+     */
+    synchronized void close() {
+        Deflater deflater;
+        while ((deflater = idle.poll()) != null) {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.submitters;
+
+import java.io.IOException;
+
+/**
+ * Thrown when ElasTest answers that a payload is not valid, for instance an
+ * HTTP 400 or 413. Sending the same payload again would fail in the same way,
+ * so it must be discarded instead of retried, and it does not mean that
+ * ElasTest is unreachable.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public class RejectedPayloadException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public RejectedPayloadException(String message) {
+        super(message);
+    }
+
+    public RejectedPayloadException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
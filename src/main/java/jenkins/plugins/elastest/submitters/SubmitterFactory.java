@@ -23,31 +23,54 @@
  */
 package jenkins.plugins.elastest.submitters;
 
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.slf4j.Logger;
+
+import hudson.init.Terminator;
 
 import jenkins.plugins.elastest.submitters.ElasTestSubmitter.SubmitterType;
 
 /**
- * Factory for AbstractElasTestSubmitter objects.
+ * Factory for AbstractElasTestSubmitter objects. There is a shared submitter
+ * per endpoint (type, host, port and key), used by all the writers that send
+ * to it. Every user of a shared submitter must {@link #release} it, and a
+ * submitter is only closed once it has no users left, or when Jenkins shuts
+ * down.
  *
  * @author Francisco R. Díaz
  * @since 0.0.1
  */
 public final class SubmitterFactory {
-    private static AbstractElasTestSubmitter instance = null;
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    private static final String ENDPOINT_TYPE = "type";
+    private static final String ENDPOINT_HOST = "host";
+    private static final String ENDPOINT_PORT = "port";
+    private static final String ENDPOINT_KEY = "key";
+    // Shared submitters by endpoint, and users of every submitter handed out
+    private static final Map<String, AbstractElasTestSubmitter> INSTANCES = new HashMap<>();
+    private static final Map<ElasTestSubmitter, Integer> USERS = new IdentityHashMap<>();
 
     private static final Map<SubmitterType, Class<?>> INDEXER_MAP;
     static {
         Map<SubmitterType, Class<?>> indexerMap = new HashMap<SubmitterType, Class<?>>();
 
         indexerMap.put(SubmitterType.LOGSTASH, LogstashSubmitter.class);
+        indexerMap.put(SubmitterType.BEATS, BeatsSubmitter.class);
 
         INDEXER_MAP = Collections.unmodifiableMap(indexerMap);
     }
@@ -55,6 +78,24 @@ public final class SubmitterFactory {
     public static synchronized ElasTestSubmitter getInstance(SubmitterType type,
             String host, Integer port, String key, String username,
             String password) throws InstantiationException {
+        return getInstance(type, host, port, key, username, password,
+                LogstashSubmitter.DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+                ContentEncoding.IDENTITY,
+                LogstashSubmitter.DEFAULT_COMPRESSION_MIN_BYTES,
+                BeatsSubmitter.DEFAULT_WINDOW_SIZE, true);
+    }
+
+    /**
+     * Returns the shared submitter for the endpoint, creating it if there is
+     * none or if the credentials changed. The caller must {@link #release} it
+     * once it is no longer used.
+     */
+    public static synchronized ElasTestSubmitter getInstance(SubmitterType type,
+            String host, Integer port, String key, String username,
+            String password, int maxConnectionsPerRoute,
+            ContentEncoding compression, int compressionMinBytes,
+            int beatsWindowSize, boolean beatsCompressed)
+            throws InstantiationException {
         if (type == null || !INDEXER_MAP.containsKey(type)) {
             throw new InstantiationException(
                     "[elastest-plugin]: Unknown IndexerType '" + type
@@ -63,41 +104,194 @@ public final class SubmitterFactory {
 
         port = (port == null ? Integer.valueOf(-1) : port);
 
-        if (shouldRefreshInstance(type, host, port, key, username, password)) {
-            try {
-                Class<?> indexerClass = INDEXER_MAP.get(type);
-                Constructor<?> constructor = indexerClass.getConstructor(
-                        String.class, int.class, String.class, String.class,
-                        String.class);
-                instance = (AbstractElasTestSubmitter) constructor
-                        .newInstance(host, port, key, username, password);
-            } catch (NoSuchMethodException e) {
-                throw new InstantiationException(
-                        ExceptionUtils.getRootCauseMessage(e));
-            } catch (InvocationTargetException e) {
-                throw new InstantiationException(
-                        ExceptionUtils.getRootCauseMessage(e));
-            } catch (IllegalAccessException e) {
-                throw new InstantiationException(
-                        ExceptionUtils.getRootCauseMessage(e));
+        String endpoint = getEndpointKey(type, host, port, key);
+        AbstractElasTestSubmitter instance = INSTANCES.get(endpoint);
+        if (shouldRefreshInstance(instance, username, password)) {
+            AbstractElasTestSubmitter newInstance = create(type, host, port,
+                    key, username, password);
+            INSTANCES.put(endpoint, newInstance);
+            // The builds still using the old one keep it until they release it
+            if (instance != null && !USERS.containsKey(instance)) {
+                close(instance);
             }
+            instance = newInstance;
         }
 
+        if (instance instanceof LogstashSubmitter) {
+            ((LogstashSubmitter) instance)
+                    .setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+            ((LogstashSubmitter) instance).setCompression(compression,
+                    compressionMinBytes);
+        } else if (instance instanceof BeatsSubmitter) {
+            ((BeatsSubmitter) instance).setWindowSize(beatsWindowSize);
+            ((BeatsSubmitter) instance).setCompressed(beatsCompressed);
+        }
+
+        USERS.merge(instance, 1, Integer::sum);
         return instance;
     }
 
-    private static boolean shouldRefreshInstance(SubmitterType type, String host,
-            int port, String key, String username, String password) {
-        if (instance == null) {
-            return true;
+    /**
+     * Releases a submitter returned by {@link #getInstance}. It is closed if it
+     * was replaced and this was its last user.
+     */
+    public static synchronized void release(ElasTestSubmitter submitter) {
+        Integer users = USERS.get(submitter);
+        if (users == null) {
+            return;
+        }
+        if (users > 1) {
+            USERS.put(submitter, users - 1);
+            return;
+        }
+        USERS.remove(submitter);
+        if (!isShared(submitter)) {
+            close(submitter);
+        }
+    }
+
+    /**
+     * Returns the shared submitter for the endpoint returned by
+     * {@link #describe(ElasTestSubmitter)}.
+     */
+    public static synchronized ElasTestSubmitter getInstance(
+            Properties endpoint, String username, String password,
+            int maxConnectionsPerRoute, ContentEncoding compression,
+            int compressionMinBytes, int beatsWindowSize,
+            boolean beatsCompressed) throws InstantiationException {
+        return getInstance(getType(endpoint),
+                endpoint.getProperty(ENDPOINT_HOST), getPort(endpoint),
+                endpoint.getProperty(ENDPOINT_KEY, ""), username, password,
+                maxConnectionsPerRoute, compression, compressionMinBytes,
+                beatsWindowSize, beatsCompressed);
+    }
+
+    /**
+     * Creates a submitter that is not shared with the running builds, for the
+     * endpoint returned by {@link #describe(ElasTestSubmitter)}. The caller
+     * must close it.
+     */
+    public static ElasTestSubmitter newInstance(Properties endpoint,
+            String username, String password) throws InstantiationException {
+        SubmitterType type = getType(endpoint);
+        if (!INDEXER_MAP.containsKey(type)) {
+            throw new InstantiationException(
+                    "[elastest-plugin]: Unknown IndexerType '" + type + "'");
+        }
+        return create(type, endpoint.getProperty(ENDPOINT_HOST),
+                getPort(endpoint), endpoint.getProperty(ENDPOINT_KEY, ""),
+                username, password);
+    }
+
+    private static SubmitterType getType(Properties endpoint)
+            throws InstantiationException {
+        try {
+            return SubmitterType.valueOf(endpoint.getProperty(ENDPOINT_TYPE));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new InstantiationException(
+                    "[elastest-plugin]: Invalid submitter endpoint " + endpoint);
+        }
+    }
+
+    private static int getPort(Properties endpoint)
+            throws InstantiationException {
+        try {
+            return Integer.parseInt(endpoint.getProperty(ENDPOINT_PORT));
+        } catch (NumberFormatException e) {
+            throw new InstantiationException(
+                    "[elastest-plugin]: Invalid submitter endpoint " + endpoint);
+        }
+    }
+
+    /**
+     * @return the type and address of a submitter, without its credentials.
+     */
+    public static Properties describe(ElasTestSubmitter submitter) {
+        Properties endpoint = new Properties();
+        endpoint.setProperty(ENDPOINT_TYPE,
+                submitter.getSubmitterType().name());
+        if (submitter instanceof AbstractElasTestSubmitter) {
+            AbstractElasTestSubmitter abstractSubmitter = (AbstractElasTestSubmitter) submitter;
+            endpoint.setProperty(ENDPOINT_HOST,
+                    StringUtils.defaultString(abstractSubmitter.host));
+            endpoint.setProperty(ENDPOINT_PORT,
+                    String.valueOf(abstractSubmitter.port));
+            endpoint.setProperty(ENDPOINT_KEY,
+                    StringUtils.defaultString(abstractSubmitter.key));
+        }
+        return endpoint;
+    }
+
+    private static AbstractElasTestSubmitter create(SubmitterType type,
+            String host, int port, String key, String username,
+            String password) throws InstantiationException {
+        try {
+            Class<?> indexerClass = INDEXER_MAP.get(type);
+            Constructor<?> constructor = indexerClass.getConstructor(
+                    String.class, int.class, String.class, String.class,
+                    String.class);
+            return (AbstractElasTestSubmitter) constructor.newInstance(host,
+                    port, key, username, password);
+        } catch (NoSuchMethodException e) {
+            throw new InstantiationException(
+                    ExceptionUtils.getRootCauseMessage(e));
+        } catch (InvocationTargetException e) {
+            throw new InstantiationException(
+                    ExceptionUtils.getRootCauseMessage(e));
+        } catch (IllegalAccessException e) {
+            throw new InstantiationException(
+                    ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    /**
+     * Closes all the submitters, in use or not, when Jenkins shuts down.
+     */
+    @Terminator
+    public static synchronized void closeAll() {
+        List<ElasTestSubmitter> submitters = new ArrayList<>(INSTANCES.values());
+        for (ElasTestSubmitter submitter : USERS.keySet()) {
+            if (!isShared(submitter)) {
+                submitters.add(submitter);
+            }
+        }
+        INSTANCES.clear();
+        USERS.clear();
+        for (ElasTestSubmitter submitter : submitters) {
+            close(submitter);
+        }
+    }
+
+    private static void close(ElasTestSubmitter submitter) {
+        try {
+            submitter.close();
+        } catch (IOException e) {
+            LOG.warn("[elastest-plugin]: Error closing the submitter {}: {}",
+                    submitter.getDescription(), e.getMessage());
         }
+    }
+
+    private static boolean isShared(ElasTestSubmitter submitter) {
+        if (!(submitter instanceof AbstractElasTestSubmitter)) {
+            return false;
+        }
+        AbstractElasTestSubmitter abstractSubmitter = (AbstractElasTestSubmitter) submitter;
+        return INSTANCES.get(getEndpointKey(submitter.getSubmitterType(),
+                abstractSubmitter.host, abstractSubmitter.port,
+                abstractSubmitter.key)) == submitter;
+    }
+
+    private static String getEndpointKey(SubmitterType type, String host,
+            int port, String key) {
+        return type + "://" + StringUtils.defaultString(host) + ":" + port
+                + "/" + StringUtils.defaultString(key);
+    }
 
-        boolean matches = (instance.getSubmitterType() == type)
-                && StringUtils.equals(instance.host, host)
-                && (instance.port == port)
-                && StringUtils.equals(instance.key, key)
-                && StringUtils.equals(instance.username, username)
-                && StringUtils.equals(instance.password, password);
-        return !matches;
+    private static boolean shouldRefreshInstance(
+            AbstractElasTestSubmitter instance, String username,
+            String password) {
+        return instance == null
+                || !StringUtils.equals(instance.username, username)
+                || !StringUtils.equals(instance.password, password);
     }
 }
@@ -0,0 +1,203 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+
+/**
+ * An Ant pattern compiled to regular expressions, with the semantics of Ant's
+ * {@code DirectoryScanner}: {@code *} and {@code ?} match within a name,
+ * {@code **} matches zero or more directories and a trailing separator stands
+ * for {@code **}. Both '/' and '\' are separators in the patterns, and the
+ * paths are matched relative to the base directory with '/' as separator.
+ * <p>
+ * Besides whole paths, it tells whether a directory can hold matches, so the
+ * walk can skip the rest, whether the pattern names the directory before any
+ * "**", and whether everything below a directory matches, to skip excluded
+ * trees.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+final class AntPattern implements PathMatcher {
+    private static final String DEEP = "**";
+
+    private final String pattern;
+    // One per name of the pattern, null for "**"
+    private final List<Pattern> names = new ArrayList<>();
+    private final Pattern whole;
+    // Matches the directories whose whole tree matches, or null
+    private final AntPattern tree;
+
+    AntPattern(String pattern) {
+        String normalized = pattern.trim().replace('\\', '/');
+        if (normalized.endsWith("/")) {
+            normalized += DEEP;
+        }
+        this.pattern = normalized;
+        StringBuilder regex = new StringBuilder();
+        StringTokenizer tokens = new StringTokenizer(normalized, "/");
+        List<String> tokenList = new ArrayList<>();
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            tokenList.add(token);
+            if (DEEP.equals(token)) {
+                names.add(null);
+                regex.append("(?:/[^/]+)*");
+            } else {
+                String name = toRegex(token);
+                names.add(Pattern.compile(name));
+                regex.append('/').append(name);
+            }
+        }
+        this.whole = Pattern.compile(regex.toString());
+        int last = tokenList.size() - 1;
+        if (last == 0 && DEEP.equals(tokenList.get(last))) {
+            this.tree = this;
+        } else if (last > 0 && DEEP.equals(tokenList.get(last))) {
+            this.tree = new AntPattern(
+                    String.join("/", tokenList.subList(0, last)));
+        } else {
+            this.tree = null;
+        }
+    }
+
+    private static String toRegex(String name) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? "[^/]*" : "[^/]");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return regex.toString();
+    }
+
+    /**
+     * @return the patterns separated by commas.
+     */
+    static List<AntPattern> compile(String patterns) {
+        List<AntPattern> result = new ArrayList<>();
+        if (patterns != null) {
+            StringTokenizer tokens = new StringTokenizer(patterns, ",");
+            while (tokens.hasMoreTokens()) {
+                String token = tokens.nextToken().trim();
+                if (!token.isEmpty()) {
+                    result.add(new AntPattern(token));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param path
+     *            relative to the base directory, with '/' as separator.
+     */
+    boolean matches(String path) {
+        return whole.matcher(path.isEmpty() ? "" : "/" + path).matches();
+    }
+
+    @Override
+    public boolean matches(Path path) {
+        return matches(path.toString().replace(File.separatorChar, '/'));
+    }
+
+    /**
+     * @param directory
+     *            relative to the base directory, with '/' as separator.
+     * @return whether a path below the directory can match.
+     */
+    boolean matchesStart(String directory) {
+        if (directory.isEmpty()) {
+            return true;
+        }
+        String[] segments = directory.split("/");
+        int i = 0;
+        for (Pattern name : names) {
+            if (name == null) {
+                return true;
+            }
+            if (i == segments.length) {
+                // More names to match below the directory
+                return true;
+            }
+            if (!name.matcher(segments[i++]).matches()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param directory
+     *            relative to the base directory, with '/' as separator.
+     * @return whether the directory is in the fixed part of the pattern, the
+     *         names before the first "**", so that it is named by the pattern
+     *         instead of being any directory below a "**".
+     */
+    boolean matchesFixedStart(String directory) {
+        if (directory.isEmpty()) {
+            return true;
+        }
+        String[] segments = directory.split("/");
+        int i = 0;
+        for (Pattern name : names) {
+            if (i == segments.length) {
+                return true;
+            }
+            if (name == null || !name.matcher(segments[i++]).matches()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether every path below the directory matches.
+     */
+    boolean matchesTree(String directory) {
+        return tree != null && tree.matches(directory);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -1,54 +1,292 @@
 package jenkins.plugins.elastest.utils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.util.StringTokenizer;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
-import org.apache.tools.ant.Project;
-import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.DirectoryScanner;
 
+/**
+ * Finds and reads the files of the workspace. {@link #scan} finds them with
+ * Ant patterns in a single walk that skips the directories that cannot hold
+ * them. The files are read up to
+ * {@code maxFileBytes} each and {@code maxTotalBytes} in total for this
+ * instance, so a huge file matching a loose pattern cannot exhaust the memory
+ * of the agent; what is left out is replaced by {@link #TRUNCATED}. The summaries of
+ * the reports are charged to the same caps with {@link #cap}. An instance can
+ * be shared by several threads.
+ */
 public class FileManager {
+    public static final long DEFAULT_MAX_FILE_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_MAX_TOTAL_BYTES = 128L * 1024 * 1024;
+    public static final String TRUNCATED = "\n[truncated]";
+    private static final byte[] TRUNCATED_BYTES = TRUNCATED
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final long maxFileBytes;
+    private final AtomicLong remainingBytes;
+
+    public FileManager() {
+        this(DEFAULT_MAX_FILE_BYTES, DEFAULT_MAX_TOTAL_BYTES);
+    }
+
+    public FileManager(long maxFileBytes, long maxTotalBytes) {
+        this.maxFileBytes = maxFileBytes;
+        this.remainingBytes = new AtomicLong(maxTotalBytes);
+    }
     
-    public FileSet createFileSet(@Nonnull File baseDir, @Nonnull String includes, @CheckForNull String excludes) {
-        FileSet fs = new FileSet();
-        fs.setDir(baseDir);
-        fs.setProject(new Project());
-
-        StringTokenizer tokens;
-
-        tokens = new StringTokenizer(includes,",");
-        while(tokens.hasMoreTokens()) {
-            String token = tokens.nextToken().trim();
-            fs.createInclude().setName(token);
-        }
-        if(excludes!=null) {
-            tokens = new StringTokenizer(excludes,",");
-            while(tokens.hasMoreTokens()) {
-                String token = tokens.nextToken().trim();
-                fs.createExclude().setName(token);
+    /**
+     * Finds the files matching the patterns, as an Ant file set would,
+     * walking the tree once with {@link Files#walkFileTree}. The directories that cannot hold a match,
+     * or are wholly excluded, are not entered, and the files modified before
+     * the time given are discarded during the walk. Ant's default excludes
+     * apply, and symbolic links are followed.
+     * 
+     * @param includes
+     *            Ant patterns separated by commas.
+     * @param excludes
+     *            Ant patterns separated by commas, or null.
+     * @param modifiedSince
+     *            the oldest modification time of the files, 0 for all.
+     * @return the paths of the files relative to the base directory, with
+     *         the separator of the platform, sorted.
+     */
+    public String[] scan(@Nonnull File baseDir, @Nonnull String includes,
+            @CheckForNull String excludes, long modifiedSince)
+            throws IOException {
+        List<AntPattern> included = AntPattern.compile(includes);
+        List<AntPattern> excluded = AntPattern.compile(excludes);
+        for (String defaultExclude : DirectoryScanner.getDefaultExcludes()) {
+            excluded.add(new AntPattern(defaultExclude));
+        }
+        Path root = baseDir.toPath();
+        List<String> files = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return new String[0];
+        }
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS),
+                Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path directory,
+                            BasicFileAttributes attributes) {
+                        String path = relativize(root, directory);
+                        if (path.isEmpty()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        for (AntPattern pattern : excluded) {
+                            if (pattern.matchesTree(path)) {
+                                return FileVisitResult.SKIP_SUBTREE;
+                            }
+                        }
+                        for (AntPattern pattern : included) {
+                            if (pattern.matchesStart(path)) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                        }
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file,
+                            BasicFileAttributes attributes) {
+                        if (attributes.isRegularFile() && attributes
+                                .lastModifiedTime().toMillis() >= modifiedSince) {
+                            String path = relativize(root, file);
+                            if (matchesAny(included, path)
+                                    && !matchesAny(excluded, path)) {
+                                files.add(path);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file,
+                            IOException e) {
+                        // Unreadable or a loop of links, as Ant skips them
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+        Collections.sort(files);
+        String[] result = new String[files.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = files.get(i).replace('/', File.separatorChar);
+        }
+        return result;
+    }
+
+    private static boolean matchesAny(List<AntPattern> patterns, String path) {
+        for (AntPattern pattern : patterns) {
+            if (pattern.matches(path)) {
+                return true;
             }
         }
-        return fs;
+        return false;
     }
-    
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar,
+                '/');
+    }
+
+    /**
+     * @return the content of the file as UTF-8, with {@link #TRUNCATED} at
+     *         the end if it was cut, or null if it is a directory.
+     */
     public String readFile(File file) throws IOException {
-        String content = null;
-
-        if (!file.isDirectory()) {
-            try {
-                content = new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
-            } catch (IOException e) {
-                e.printStackTrace();
-                throw e;
+        if (file.isDirectory()) {
+            return null;
+        }
+        long size = file.length();
+        int length = (int) reserve(size);
+        byte[] content = new byte[length];
+        int read = 0;
+        try (InputStream input = bounded(file, length)) {
+            int count;
+            while (read < length
+                    && (count = input.read(content, read, length - read)) != -1) {
+                read += count;
             }
         }
+        ByteBuffer buffer = ByteBuffer.wrap(content, 0, read);
+        if (length < size) {
+            // A character cut in the middle is left out
+            buffer.limit(characterEnd(buffer));
+            return decode(buffer) + TRUNCATED;
+        }
+        return decode(buffer);
+    }
 
-        return content;
+    /**
+     * @return a stream of the file up to the caps, with {@link #TRUNCATED} at
+     *         the end if it was cut.
+     */
+    public InputStream open(File file) throws IOException {
+        long size = file.length();
+        long length = reserve(size);
+        InputStream input = bounded(file, length);
+        return length < size ? new SequenceInputStream(input,
+                new ByteArrayInputStream(TRUNCATED_BYTES)) : input;
+    }
+
+    /**
+     * Takes the UTF-8 length of a text made from a file, as the summary of a
+     * report, from the total left.
+     * 
+     * @return the text up to the caps, with {@link #TRUNCATED} at the end if
+     *         it was cut.
+     */
+    public String cap(String text) {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        int length = (int) reserve(content.length);
+        if (length == content.length) {
+            return text;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(content, 0, length);
+        buffer.limit(characterEnd(buffer));
+        return decode(buffer) + TRUNCATED;
+    }
+
+    /**
+     * @return a stream of the first bytes of the file.
+     */
+    private static InputStream bounded(File file, long length)
+            throws IOException {
+        return new FilterInputStream(Files.newInputStream(file.toPath())) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int read = super.read();
+                if (read != -1) {
+                    remaining--;
+                }
+                return read;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int read = super.read(b, off, (int) Math.min(len, remaining));
+                if (read > 0) {
+                    remaining -= read;
+                }
+                return read;
+            }
+        };
+    }
+
+    /**
+     * Takes the bytes of a file from the total left.
+     * 
+     * @return the bytes that can be read.
+     */
+    private long reserve(long size) {
+        long wanted = Math.min(size, Math.min(maxFileBytes, Integer.MAX_VALUE));
+        while (true) {
+            long remaining = remainingBytes.get();
+            long granted = Math.max(0, Math.min(wanted, remaining));
+            if (remainingBytes.compareAndSet(remaining, remaining - granted)) {
+                return granted;
+            }
+        }
+    }
+
+    /**
+     * @return the end of the last whole UTF-8 character of the view.
+     */
+    static int characterEnd(ByteBuffer content) {
+        int end = content.limit();
+        int start = end - 1;
+        while (start > 0 && end - start < 4
+                && (content.get(start) & 0xC0) == 0x80) {
+            start--;
+        }
+        if (start < 0) {
+            return end;
+        }
+        int lead = content.get(start) & 0xFF;
+        int length = lead >= 0xF0 ? 4 : lead >= 0xE0 ? 3 : lead >= 0xC0 ? 2 : 1;
+        return start + length > end ? start : end;
+    }
+
+    private static String decode(ByteBuffer content) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return decoder.decode(content).toString();
+        } catch (CharacterCodingException e) {
+            // Not thrown when replacing
+            throw new IllegalStateException(e);
+        }
     }
 
 }
@@ -0,0 +1,318 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.StandardHttpRequestRetryHandler;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.slf4j.Logger;
+
+import hudson.init.Terminator;
+import jenkins.model.Jenkins;
+import jenkins.plugins.elastest.ElasTestInstallation;
+
+/**
+ * The HTTP transport of the plugin. All the HTTP requests, to ElasTest, to
+ * the EIM and to Logstash, go through a single pool of persistent
+ * connections, with the same timeouts and retry policy, and are counted in
+ * the same {@link HttpTransportMetrics}.
+ * <p>
+ * The requests that fail before a response is received are retried up to
+ * {@link #MAX_RETRIES} times, but only if they are idempotent (GET, PUT,
+ * DELETE...). A POST that may have reached the server is never repeated.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class HttpTransport {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 10;
+    public static final int DEFAULT_READ_TIMEOUT_SECONDS = 60;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    static final int MAX_TOTAL_CONNECTIONS = 100;
+    static final int MAX_RETRIES = 2;
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = 30 * 1000;
+    private static final long MAX_IDLE_SECONDS = 30;
+    private static final String START_PROPERTY = HttpTransport.class.getName()
+            + ".start";
+
+    private static HttpTransport instance;
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final HttpTransportMetrics metrics = new HttpTransportMetrics();
+    private volatile int connectTimeoutSeconds;
+    private volatile int readTimeoutSeconds;
+    private volatile RequestConfig requestConfig;
+
+    HttpTransport(int connectTimeoutSeconds, int readTimeoutSeconds) {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_TOTAL_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        setTimeouts(connectTimeoutSeconds, readTimeoutSeconds);
+
+        ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                    .getKeepAliveDuration(response, context);
+            return keepAlive > 0 ? keepAlive : DEFAULT_KEEP_ALIVE_MILLIS;
+        };
+        HttpRequestRetryHandler standardRetryHandler = new StandardHttpRequestRetryHandler(
+                MAX_RETRIES, false);
+        HttpRequestRetryHandler retryHandler = (exception, executionCount,
+                context) -> {
+            boolean retry = standardRetryHandler.retryRequest(exception,
+                    executionCount, context);
+            if (retry) {
+                String endpoint = endpointOf(
+                        HttpClientContext.adapt(context).getTargetHost());
+                LOG.debug("[elastest-plugin]: Retrying a request to {}: {}",
+                        endpoint, exception.getMessage());
+                metrics.recordRetry(endpoint);
+            }
+            return retry;
+        };
+        client = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .setRetryHandler(retryHandler)
+                .evictExpiredConnections()
+                .evictIdleConnections(MAX_IDLE_SECONDS, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public static synchronized HttpTransport getInstance() {
+        if (instance == null) {
+            // On an agent there is no descriptor
+            ElasTestInstallation.Descriptor descriptor = Jenkins
+                    .getInstanceOrNull() != null
+                            ? ElasTestInstallation.getLogstashDescriptor()
+                            : null;
+            instance = descriptor != null
+                    ? new HttpTransport(descriptor.httpConnectTimeoutSeconds,
+                            descriptor.httpReadTimeoutSeconds)
+                    : new HttpTransport(DEFAULT_CONNECT_TIMEOUT_SECONDS,
+                            DEFAULT_READ_TIMEOUT_SECONDS);
+        }
+        return instance;
+    }
+
+    /**
+     * Releases the connections when Jenkins shuts down.
+     */
+    @Terminator
+    public static synchronized void closeInstance() {
+        if (instance != null) {
+            LOG.info("[elastest-plugin]: Closing the HTTP transport, metrics: {}",
+                    instance.metrics);
+            try {
+                instance.client.close();
+            } catch (IOException e) {
+                LOG.warn("[elastest-plugin]: Error closing the HTTP transport: {}",
+                        e.getMessage());
+            }
+            instance = null;
+        }
+    }
+
+    /**
+     * Changes the timeouts of the requests sent from now on. For the REST
+     * clients, the timeouts are read when they are configured, see
+     * {@link #configure(ClientConfig)}.
+     */
+    public void setTimeouts(int connectTimeoutSeconds, int readTimeoutSeconds) {
+        this.connectTimeoutSeconds = Math.max(1, connectTimeoutSeconds);
+        this.readTimeoutSeconds = Math.max(1, readTimeoutSeconds);
+        int connectTimeoutMillis = (int) TimeUnit.SECONDS
+                .toMillis(this.connectTimeoutSeconds);
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setConnectionRequestTimeout(connectTimeoutMillis)
+                .setSocketTimeout((int) TimeUnit.SECONDS
+                        .toMillis(this.readTimeoutSeconds))
+                .build();
+    }
+
+    public int getConnectTimeoutSeconds() {
+        return connectTimeoutSeconds;
+    }
+
+    public int getReadTimeoutSeconds() {
+        return readTimeoutSeconds;
+    }
+
+    /**
+     * Limits the connections to one endpoint. The rest of endpoints can use
+     * up to {@link #DEFAULT_MAX_CONNECTIONS_PER_ROUTE}.
+     */
+    public void setMaxConnections(URI uri, int maxConnections) {
+        boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+        HttpHost target = new HttpHost(uri.getHost(),
+                portOf(uri.getScheme(), uri.getPort()), uri.getScheme());
+        connectionManager.setMaxPerRoute(new HttpRoute(target, null, secure),
+                Math.max(1, maxConnections));
+    }
+
+    /**
+     * @return the shared client. It must not be closed.
+     */
+    public CloseableHttpClient getClient() {
+        return client;
+    }
+
+    public HttpTransportMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the leased and available connections of the pool.
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Sends a request through the shared client. The response must be closed
+     * to return its connection to the pool.
+     */
+    public CloseableHttpResponse execute(HttpUriRequest request)
+            throws IOException {
+        return execute(client, request);
+    }
+
+    /**
+     * Sends a request through the given client with the timeouts of the
+     * transport, unless the request has its own, and records it in the
+     * metrics.
+     */
+    public CloseableHttpResponse execute(CloseableHttpClient httpClient,
+            HttpUriRequest request) throws IOException {
+        if (request instanceof HttpRequestBase
+                && ((HttpRequestBase) request).getConfig() == null) {
+            ((HttpRequestBase) request).setConfig(requestConfig);
+        }
+        String endpoint = endpointOf(request.getURI());
+        long start = System.nanoTime();
+        try {
+            CloseableHttpResponse response = httpClient.execute(request);
+            metrics.recordResponse(endpoint,
+                    response.getStatusLine().getStatusCode(),
+                    System.nanoTime() - start);
+            return response;
+        } catch (IOException e) {
+            metrics.recordFailure(endpoint, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a REST client send its requests through the shared pool, with the
+     * timeouts of the transport, and count them in the metrics. Closing the
+     * client does not close the pool.
+     */
+    public ClientConfig configure(ClientConfig config) {
+        return config.connectorProvider(new ApacheConnectorProvider())
+                .property(ApacheClientProperties.CONNECTION_MANAGER,
+                        connectionManager)
+                .property(ApacheClientProperties.CONNECTION_MANAGER_SHARED,
+                        true)
+                .property(ClientProperties.CONNECT_TIMEOUT,
+                        (int) TimeUnit.SECONDS.toMillis(connectTimeoutSeconds))
+                .property(ClientProperties.READ_TIMEOUT,
+                        (int) TimeUnit.SECONDS.toMillis(readTimeoutSeconds))
+                .register(new MetricsFilter(metrics));
+    }
+
+    static String endpointOf(URI uri) {
+        return uri.getHost() + ":" + portOf(uri.getScheme(), uri.getPort());
+    }
+
+    static String endpointOf(HttpHost host) {
+        return host == null ? "unknown"
+                : host.getHostName() + ":"
+                        + portOf(host.getSchemeName(), host.getPort());
+    }
+
+    private static int portOf(String scheme, int port) {
+        if (port > 0) {
+            return port;
+        }
+        return "https".equalsIgnoreCase(scheme) ? 443 : 80;
+    }
+
+    /**
+     * Counts the requests of the REST clients. The requests that fail without
+     * a response never reach the response filter and are not counted.
+     */
+    static final class MetricsFilter
+            implements ClientRequestFilter, ClientResponseFilter {
+        private final HttpTransportMetrics metrics;
+
+        MetricsFilter(HttpTransportMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void filter(ClientRequestContext requestContext) {
+            requestContext.setProperty(START_PROPERTY, System.nanoTime());
+        }
+
+        @Override
+        public void filter(ClientRequestContext requestContext,
+                ClientResponseContext responseContext) {
+            Object start = requestContext.getProperty(START_PROPERTY);
+            long latency = start instanceof Long
+                    ? System.nanoTime() - (Long) start : 0;
+            metrics.recordResponse(endpointOf(requestContext.getUri()),
+                    responseContext.getStatus(), latency);
+        }
+    }
+}
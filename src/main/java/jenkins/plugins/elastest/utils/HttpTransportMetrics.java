@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the HTTP requests sent through the {@link HttpTransport},
+ * grouped by endpoint (host and port).
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class HttpTransportMetrics {
+
+    /**
+     * Counters of one endpoint.
+     */
+    public static final class Endpoint {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder errorResponses = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+
+        /**
+         * @return the requests with a response, whatever its status.
+         */
+        public long getRequests() {
+            return requests.sum();
+        }
+
+        /**
+         * @return the requests without a response: connection errors and
+         *         timeouts.
+         */
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        /**
+         * @return the responses with a status out of the 2xx range.
+         */
+        public long getErrorResponses() {
+            return errorResponses.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        public long getAverageLatencyMillis() {
+            long count = getRequests() + getFailures();
+            return count == 0 ? 0
+                    : TimeUnit.NANOSECONDS.toMillis(latencyNanos.sum() / count);
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + getRequests() + ", failures=" + getFailures()
+                    + ", errorResponses=" + getErrorResponses() + ", retries="
+                    + getRetries() + ", averageLatencyMillis="
+                    + getAverageLatencyMillis();
+        }
+    }
+
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    Endpoint forEndpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, key -> new Endpoint());
+    }
+
+    void recordResponse(String endpoint, int status, long latencyNanos) {
+        Endpoint counters = forEndpoint(endpoint);
+        counters.requests.increment();
+        counters.latencyNanos.add(latencyNanos);
+        if (status < 200 || status >= 300) {
+            counters.errorResponses.increment();
+        }
+    }
+
+    void recordFailure(String endpoint, long latencyNanos) {
+        Endpoint counters = forEndpoint(endpoint);
+        counters.failures.increment();
+        counters.latencyNanos.add(latencyNanos);
+    }
+
+    void recordRetry(String endpoint) {
+        forEndpoint(endpoint).retries.increment();
+    }
+
+    /**
+     * @return the counters by endpoint, as "host:port".
+     */
+    public Map<String, Endpoint> getEndpoints() {
+        return Collections.unmodifiableMap(endpoints);
+    }
+
+    @Override
+    public String toString() {
+        return endpoints.toString();
+    }
+}
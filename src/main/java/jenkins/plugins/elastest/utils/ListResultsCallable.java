@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Finds the test reports to send to ElasTest without reading them, so they can
+ * be streamed one by one from the workspace. Selects the same reports as
+ * {@link ParseResultCallable}.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public class ListResultsCallable
+        extends MasterToSlaveFileCallable<List<String>> {
+
+    private static final long serialVersionUID = 1L;
+    private final long buildTime;
+    private final String testResults;
+    private final long nowMaster;
+
+    public ListResultsCallable(String testResults, long buildTime,
+            long nowMaster) {
+        this.buildTime = buildTime;
+        this.testResults = testResults;
+        this.nowMaster = nowMaster;
+    }
+
+    /**
+     * @return the paths of the reports, relative to the workspace and with
+     *         '/' as separator.
+     */
+    public List<String> invoke(File ws, VirtualChannel channel)
+            throws IOException {
+        final long nowSlave = System.currentTimeMillis();
+        long agentBuildTime = buildTime + (nowSlave - nowMaster);
+
+        String[] files = new FileManager().scan(ws, testResults, null,
+                agentBuildTime - ParseResultCallable.UPDATE_MARGIN_MILLIS);
+        List<String> reports = new ArrayList<>();
+        for (String value : files) {
+            reports.add(value.replace(File.separatorChar, '/'));
+        }
+        return reports;
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import hudson.FilePath;
+import hudson.remoting.Pipe;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Sends the test reports selected by a {@link ParseResultCallable} from the
+ * agent as a zip stream through a {@link Pipe}, instead of a list of strings,
+ * so they travel compressed through the channel. The agent writes the reports
+ * one by one while the controller reads them in
+ * {@link #readTestResults(FilePath, ParseResultCallable)}, so none of the
+ * sides holds all of them at once in another form.
+ * 
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public class PackResultsCallable extends MasterToSlaveFileCallable<Integer> {
+
+    private static final long serialVersionUID = 1L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final ParseResultCallable reader;
+    private final Pipe pipe;
+
+    public PackResultsCallable(ParseResultCallable reader, Pipe pipe) {
+        this.reader = reader;
+        this.pipe = pipe;
+    }
+
+    /**
+     * @return the number of reports sent.
+     */
+    public Integer invoke(File ws, VirtualChannel channel) throws IOException {
+        return pack(reader, ws, pipe.getOut());
+    }
+
+    /**
+     * Writes the reports to the output as a zip stream, each one in an entry
+     * named after its path in the workspace.
+     * 
+     * @return the number of reports written.
+     */
+    static int pack(ParseResultCallable reader, File ws, OutputStream output)
+            throws IOException {
+        String[] files = reader.findReports(ws);
+        FileManager fm = new FileManager();
+        try (ZipOutputStream zip = new ZipOutputStream(
+                new BufferedOutputStream(output, BUFFER_SIZE))) {
+            for (String file : files) {
+                File reportFile = new File(ws, file);
+                zip.putNextEntry(
+                        new ZipEntry(file.replace(File.separatorChar, '/')));
+                String summary = reader.summarize(reportFile, fm);
+                if (summary != null) {
+                    zip.write(summary.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    try (InputStream input = fm.open(reportFile)) {
+                        copy(input, zip);
+                    }
+                }
+                zip.closeEntry();
+            }
+        }
+        return files.length;
+    }
+
+    /**
+     * @return the contents of the reports in the zip stream, in order.
+     */
+    static List<String> unpack(InputStream input) throws IOException {
+        List<String> results = new ArrayList<>();
+        ZipInputStream zip = new ZipInputStream(input);
+        while (zip.getNextEntry() != null) {
+            results.add(read(zip));
+        }
+        // The rest of the stream is consumed so the writer is never blocked
+        byte[] buffer = new byte[8192];
+        while (input.read(buffer) != -1) {
+            // Central directory, not needed
+        }
+        return results;
+    }
+
+    private static void copy(InputStream input, OutputStream output)
+            throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the reports selected by the reader from the workspace. They are
+     * sent compressed if the workspace is on an agent.
+     * 
+     * @return the contents of the reports, or null if there are none, as
+     *         {@link ParseResultCallable} does.
+     */
+    public static List<String> readTestResults(FilePath workspace,
+            ParseResultCallable reader)
+            throws IOException, InterruptedException {
+        if (!workspace.isRemote()) {
+            return workspace.act(reader);
+        }
+        Pipe pipe = Pipe.createRemoteToLocal();
+        Future<Integer> packing = workspace
+                .actAsync(new PackResultsCallable(reader, pipe));
+        List<String> results;
+        try (InputStream input = pipe.getIn()) {
+            results = unpack(input);
+        } catch (IOException e) {
+            packing.cancel(true);
+            throw e;
+        }
+        try {
+            packing.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Error reading the test reports",
+                    e.getCause());
+        }
+        return results.isEmpty() ? null : results;
+    }
+}
@@ -24,18 +24,31 @@
 package jenkins.plugins.elastest.utils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.List;
-
-import org.apache.tools.ant.DirectoryScanner;
-import org.apache.tools.ant.types.FileSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import hudson.remoting.VirtualChannel;
 import jenkins.MasterToSlaveFileCallable;
+import jenkins.plugins.elastest.json.TestSuiteSummary;
 
 /**
- * Processes test reports to send to ElasTest
+ * Processes test reports to send to ElasTest. Only the reports updated during
+ * the build are read, the rest are discarded while the workspace is scanned.
+ * The reports can be read in parallel, in a fork-join pool of the given size
+ * created for each call; they are returned in the order they were found.
+ * <p>
+ * With a {@link TestReportSummarizer}, each report is replaced by a compact
+ * one, extracted on the agent, so much less data is sent to ElasTest.
+ * Otherwise the reports are read up to the size caps of {@link FileManager}.
  * 
  * @author Francisco R. Díaz
  * @since 0.0.1
@@ -44,48 +57,143 @@ public class ParseResultCallable
         extends MasterToSlaveFileCallable<List<String>> {
 
     private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_PARALLELISM = 4;
+    // Tolerance between the clocks of the file system and the agent
+    static final long UPDATE_MARGIN_MILLIS = 3000;
     private final long buildTime;
     private final String testResults;
     private final long nowMaster;
+    private final int parallelism;
+    private final TestReportSummarizer summarizer;
 
     public ParseResultCallable(String testResults, long buildTime,
             long nowMaster) {
+        this(testResults, buildTime, nowMaster, 1, null);
+    }
+
+    /**
+     * @param parallelism
+     *            number of reports read at the same time, 1 to read them one
+     *            after another.
+     * @param summarizer
+     *            to send a summary of each report, or null to send them as
+     *            they are.
+     */
+    public ParseResultCallable(String testResults, long buildTime,
+            long nowMaster, int parallelism, TestReportSummarizer summarizer) {
         this.buildTime = buildTime;
         this.testResults = testResults;
         this.nowMaster = nowMaster;
+        this.parallelism = Math.max(1, parallelism);
+        this.summarizer = summarizer;
     }
 
     public List<String> invoke(File ws, VirtualChannel channel)
             throws IOException {
-        final long nowSlave = System.currentTimeMillis();
-
-        FileManager fm = new FileManager();
-
-        FileSet fs = fm.createFileSet(ws, testResults, null);
-        DirectoryScanner ds = fs.getDirectoryScanner();
         List<String> result = null;
 
-        String[] files = ds.getIncludedFiles();
+        String[] files = findReports(ws);
         if (files.length > 0) {
-            result = parse(buildTime + (nowSlave - nowMaster), ds.getBasedir(),
-                    ds.getIncludedFiles(), fm);
+            result = read(ws, files, new FileManager());
         }
         return result;
     }
 
+    /**
+     * @return the paths, relative to the workspace, of the reports updated
+     *         during the build.
+     */
+    String[] findReports(File ws) throws IOException {
+        final long nowSlave = System.currentTimeMillis();
+
+        return new FileManager().scan(ws, testResults, null,
+                buildTime + (nowSlave - nowMaster) - UPDATE_MARGIN_MILLIS);
+    }
+
     public List<String> parse(long buildTime, File baseDir,
             String[] reportFiles, FileManager fm) throws IOException {
-        List<String> testReportsAsString = new ArrayList<>();
-        boolean parsed = false;
-
-        for (String value : reportFiles) {
-            File reportFile = new File(baseDir, value);
-            // only count files that were actually updated during this build
-            if (buildTime - 3000 <= reportFile.lastModified()) {
-                testReportsAsString.add(fm.readFile(reportFile));
+        String[] updated = Arrays.stream(reportFiles)
+                .filter(value -> isUpdatedDuringBuild(buildTime,
+                        new File(baseDir, value)))
+                .toArray(String[]::new);
+        return read(baseDir, updated, fm);
+    }
+
+    /**
+     * @return the contents of the reports, in the same order.
+     */
+    List<String> read(File baseDir, String[] reportFiles, FileManager fm)
+            throws IOException {
+        if (parallelism == 1 || reportFiles.length < 2) {
+            try (Stream<String> reports = reports(baseDir, reportFiles, fm)) {
+                return reports.collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
             }
         }
-        return testReportsAsString;
+        // The terminal operation runs in the pool that submits it
+        ForkJoinPool pool = new ForkJoinPool(
+                Math.min(parallelism, reportFiles.length));
+        try {
+            return pool.submit(() -> reports(baseDir, reportFiles, fm)
+                    .parallel().collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted reading the test reports");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Error reading the test reports", cause);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Stream<String> reports(File baseDir, String[] reportFiles,
+            FileManager fm) {
+        return Arrays.stream(reportFiles).map(value -> {
+            try {
+                return readReport(new File(baseDir, value), fm);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private String readReport(File reportFile, FileManager fm)
+            throws IOException {
+        String summary = summarize(reportFile, fm);
+        return summary != null ? summary : fm.readFile(reportFile);
+    }
+
+    /**
+     * The report is streamed whole to the summarizer, and the summary is
+     * charged to the caps of the {@link FileManager}.
+     * 
+     * @return the summary of the report, or null if it must be sent as it is.
+     */
+    String summarize(File reportFile, FileManager fm) {
+        if (summarizer != null) {
+            try (InputStream input = new FileInputStream(reportFile)) {
+                List<TestSuiteSummary> suites = summarizer.summarize(input);
+                if (suites != null) {
+                    return fm.cap(TestReportSummarizer.toXML(suites));
+                }
+            } catch (IOException e) {
+                // Not a surefire report, it is sent as it is
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Only the reports actually updated during the build are sent.
+     */
+    static boolean isUpdatedDuringBuild(long buildTime, File reportFile) {
+        return buildTime - UPDATE_MARGIN_MILLIS <= reportFile.lastModified();
     }
 
-}
\ No newline at end of file
+}
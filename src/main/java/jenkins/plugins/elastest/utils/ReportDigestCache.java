@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.slf4j.Logger;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Remembers, on the agent, the SHA-256 of the test reports of a TJob and the
+ * TJob execution each one was last shipped to, so a report touched but not
+ * changed is not read nor sent again to the same execution.
+ * <p>
+ * A report is identified by its path in the workspace, and its digest is only
+ * computed again when its size or modification time change. The cache is a
+ * properties file named after the TJob, in the temporary directory of the
+ * workspace, so it outlives the builds. A report shipped to a previous
+ * execution is still sent to the new one, as ElasTest keeps the reports of
+ * each execution apart.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class ReportDigestCache {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    static final String FILE_PREFIX = "elastest-reports-";
+    private static final String FILE_SUFFIX = ".properties";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String ALGORITHM = "SHA-256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final String digest;
+        final long shippedTo;
+
+        Entry(long size, long lastModified, String digest, long shippedTo) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+            this.shippedTo = shippedTo;
+        }
+
+        static Entry parse(String value) {
+            String[] fields = value != null ? value.split(",") : new String[0];
+            if (fields.length != 4) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(fields[0]),
+                        Long.parseLong(fields[1]), fields[2],
+                        Long.parseLong(fields[3]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return size + "," + lastModified + "," + digest + "," + shippedTo;
+        }
+    }
+
+    private final File root;
+    private final File file;
+    private final Properties entries = new Properties();
+
+    ReportDigestCache(File root, File directory, String tJob) {
+        this.root = root;
+        this.file = new File(directory, FILE_PREFIX
+                + tJob.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_SUFFIX);
+        if (file.isFile()) {
+            try (InputStream input = new FileInputStream(file)) {
+                entries.load(input);
+            } catch (IOException | IllegalArgumentException e) {
+                LOG.warn("[elastest-plugin]: Ignoring the report cache {}: {}",
+                        file, e.getMessage());
+                entries.clear();
+            }
+        }
+    }
+
+    /**
+     * @return the digest of the current content of the report, the cached
+     *         one if the report has not changed since it was computed.
+     */
+    String digest(String report) throws IOException {
+        File reportFile = new File(root, report);
+        long size = reportFile.length();
+        long lastModified = reportFile.lastModified();
+        Entry entry = Entry.parse(entries.getProperty(report));
+        if (entry != null && entry.size == size
+                && entry.lastModified == lastModified) {
+            return entry.digest;
+        }
+        String digest = sha256(reportFile);
+        entries.setProperty(report, new Entry(size, lastModified, digest,
+                entry != null && digest.equals(entry.digest) ? entry.shippedTo
+                        : -1).toString());
+        return digest;
+    }
+
+    /**
+     * @return whether the content with the digest was shipped to the TJob
+     *         execution.
+     */
+    boolean isShipped(String report, String digest, long tJobExecId) {
+        Entry entry = Entry.parse(entries.getProperty(report));
+        return entry != null && entry.shippedTo == tJobExecId
+                && entry.digest.equals(digest);
+    }
+
+    void markShipped(String report, String digest, long tJobExecId) {
+        Entry entry = Entry.parse(entries.getProperty(report));
+        if (entry != null && entry.digest.equals(digest)) {
+            entries.setProperty(report, new Entry(entry.size,
+                    entry.lastModified, digest, tJobExecId).toString());
+        } else {
+            // Digested again since, the digest is computed again next time
+            entries.setProperty(report,
+                    new Entry(-1, -1, digest, tJobExecId).toString());
+        }
+    }
+
+    /**
+     * Writes the cache, forgetting the reports no longer in the workspace.
+     */
+    void save() throws IOException {
+        for (String report : entries.stringPropertyNames()) {
+            if (!new File(root, report).isFile()) {
+                entries.remove(report);
+            }
+        }
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File temp = new File(directory, file.getName() + TEMP_SUFFIX);
+        try (OutputStream output = new FileOutputStream(temp)) {
+            entries.store(output, null);
+        }
+        Files.move(temp.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static String sha256(File file) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream input = new FileInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+        byte[] digest = messageDigest.digest();
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return the reports whose current content has not been shipped to the
+     *         TJob execution, with their digests.
+     */
+    public static class Unshipped
+            extends MasterToSlaveFileCallable<Map<String, String>> {
+        private static final long serialVersionUID = 1L;
+        private final String cacheDir;
+        private final String tJob;
+        private final long tJobExecId;
+        private final List<String> reports;
+
+        public Unshipped(String cacheDir, String tJob, long tJobExecId,
+                List<String> reports) {
+            this.cacheDir = cacheDir;
+            this.tJob = tJob;
+            this.tJobExecId = tJobExecId;
+            this.reports = reports;
+        }
+
+        @Override
+        public Map<String, String> invoke(File ws, VirtualChannel channel)
+                throws IOException {
+            ReportDigestCache cache = new ReportDigestCache(ws,
+                    new File(cacheDir), tJob);
+            Map<String, String> unshipped = new LinkedHashMap<>();
+            for (String report : reports) {
+                String digest = cache.digest(report);
+                if (!cache.isShipped(report, digest, tJobExecId)) {
+                    unshipped.put(report, digest);
+                }
+            }
+            cache.save();
+            return unshipped;
+        }
+    }
+
+    /**
+     * Records the reports, with the digests returned by {@link Unshipped}, as
+     * shipped to the TJob execution.
+     */
+    public static class Shipped extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+        private final String cacheDir;
+        private final String tJob;
+        private final long tJobExecId;
+        private final Map<String, String> digests;
+
+        public Shipped(String cacheDir, String tJob, long tJobExecId,
+                Map<String, String> digests) {
+            this.cacheDir = cacheDir;
+            this.tJob = tJob;
+            this.tJobExecId = tJobExecId;
+            this.digests = new LinkedHashMap<>(digests);
+        }
+
+        @Override
+        public Void invoke(File ws, VirtualChannel channel) throws IOException {
+            ReportDigestCache cache = new ReportDigestCache(ws,
+                    new File(cacheDir), tJob);
+            for (Map.Entry<String, String> entry : digests.entrySet()) {
+                cache.markShipped(entry.getKey(), entry.getValue(), tJobExecId);
+            }
+            cache.save();
+            return null;
+        }
+    }
+}
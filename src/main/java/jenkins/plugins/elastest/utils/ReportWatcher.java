@@ -0,0 +1,515 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import static java.lang.invoke.MethodHandles.lookup;
+import static org.slf4j.LoggerFactory.getLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+
+import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Watches the workspace of a build on the agent for the test reports written
+ * while the build runs, so they can be shipped to ElasTest as they appear
+ * instead of all at the end.
+ * <p>
+ * The changes are detected with a {@link WatchService} on the directories that
+ * the patterns name before any "**", at most {@link #MAX_WATCH_KEYS} of them,
+ * plus a full scan every {@link #SCAN_PERIOD_MILLIS}. The scan finds the
+ * reports in the rest of directories, and those whose events are lost or not
+ * reported by the file system (network file systems). A report is ready once its size and modification time have not
+ * changed for {@link #STABLE_MILLIS}, so it is not shipped half written. A
+ * report rewritten after being handed over is handed over again.
+ * <p>
+ * The watchers live in the JVM of the agent and are driven from the
+ * controller with {@link Start}, {@link Poll} and {@link Stop}. A watcher
+ * stops by itself when the channel to the controller that started it is
+ * closed, or when it is not polled for {@link #IDLE_TIMEOUT_MILLIS}, in case
+ * the controller went away without the channel noticing.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public final class ReportWatcher implements Closeable {
+    private static final Logger LOG = getLogger(lookup().lookupClass());
+    static final long STABLE_MILLIS = 2 * 1000;
+    static final long SCAN_PERIOD_MILLIS = 30 * 1000;
+    static final long IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    // Each key takes an inotify watch on Linux, a limited resource of the agent
+    static final int MAX_WATCH_KEYS = 128;
+    private static final long WAIT_MILLIS = 500;
+    private static final ConcurrentMap<String, ReportWatcher> WATCHERS = new ConcurrentHashMap<>();
+
+    private static final class Candidate {
+        long size = -1;
+        long lastModified = -1;
+        long changedAt;
+    }
+
+    private final String id;
+    private final Path root;
+    private final String includes;
+    private final List<AntPattern> patterns;
+    private final long since;
+    private final LongSupplier clock;
+    private final Map<String, Candidate> candidates = new HashMap<>();
+    // Modification time of the reports already handed over
+    private final Map<String, Long> handedOver = new HashMap<>();
+    private final Set<String> ready = new LinkedHashSet<>();
+    private final Map<WatchKey, Path> keys = new HashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+    // Stops the watcher if the channel to the controller is closed
+    private Channel channel;
+    private Channel.Listener channelListener;
+    private volatile boolean closed;
+    private volatile long polledAt;
+    private long scannedAt;
+    private boolean keysExhausted;
+
+    ReportWatcher(String id, File workspace, String includes, long since,
+            LongSupplier clock) {
+        this.id = id;
+        this.root = workspace.toPath().toAbsolutePath();
+        this.includes = includes;
+        this.since = since;
+        this.clock = clock;
+        this.patterns = AntPattern.compile(includes);
+        this.polledAt = clock.getAsLong();
+    }
+
+    /**
+     * Starts watching in a background thread.
+     */
+    void start() {
+        try {
+            watchService = root.getFileSystem().newWatchService();
+            register(root);
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.info("[elastest-plugin]: Watching {} by scanning only: {}", root,
+                    e.getMessage());
+            closeWatchService();
+        }
+        thread = new Thread(this::run, "ElasTest report watcher " + id);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                waitForChanges();
+                long now = clock.getAsLong();
+                if (now - polledAt > IDLE_TIMEOUT_MILLIS) {
+                    LOG.warn("[elastest-plugin]: Report watcher {} not polled, stopping it",
+                            id);
+                    WATCHERS.remove(id, this);
+                    close();
+                    return;
+                }
+                if (now - scannedAt >= SCAN_PERIOD_MILLIS) {
+                    try {
+                        scan();
+                    } catch (IOException e) {
+                        LOG.debug("[elastest-plugin]: Error scanning {}: {}", root,
+                                e.getMessage());
+                    }
+                    scannedAt = now;
+                }
+                checkStable(now);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        } catch (RuntimeException e) {
+            LOG.warn("[elastest-plugin]: Report watcher {} failed: {}", id,
+                    e.getMessage());
+        }
+    }
+
+    private void waitForChanges() throws InterruptedException {
+        if (watchService == null) {
+            Thread.sleep(WAIT_MILLIS);
+            return;
+        }
+        WatchKey key = watchService.poll(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            handle(key);
+            key = watchService.poll();
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path directory = keys.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events lost, scan as soon as possible
+                scannedAt = 0;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    try {
+                        register(path);
+                    } catch (IOException e) {
+                        scannedAt = 0;
+                    }
+                }
+            } else {
+                offer(path);
+            }
+        }
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * Walks the directory and those below it that can hold reports, watching
+     * the ones named by the patterns. The files already in them are checked
+     * too, they may have been written before the directory was watched.
+     */
+    private void register(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory,
+                    BasicFileAttributes attributes) throws IOException {
+                if (!directory.equals(root)
+                        && !couldHoldReports(relativize(directory))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (watchService != null
+                        && isNamed(relativize(directory))) {
+                    watch(directory);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file,
+                    BasicFileAttributes attributes) {
+                offer(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watch(Path directory) throws IOException {
+        if (keys.size() >= MAX_WATCH_KEYS) {
+            if (!keysExhausted) {
+                keysExhausted = true;
+                LOG.info("[elastest-plugin]: Watching {} directories of {}, the rest are scanned",
+                        MAX_WATCH_KEYS, root);
+            }
+            return;
+        }
+        keys.put(directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY), directory);
+    }
+
+    void scan() throws IOException {
+        for (String file : new FileManager().scan(root.toFile(), includes,
+                null, since)) {
+            offer(root.resolve(file));
+        }
+    }
+
+    private synchronized void offer(Path file) {
+        String path = relativize(file);
+        if (isReport(path)) {
+            candidates.putIfAbsent(path, new Candidate());
+        }
+    }
+
+    /**
+     * Hands over the candidates that have not changed for a while.
+     */
+    synchronized void checkStable(long now) {
+        Iterator<Map.Entry<String, Candidate>> iterator = candidates.entrySet()
+                .iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Candidate> entry = iterator.next();
+            Candidate candidate = entry.getValue();
+            File file = root.resolve(entry.getKey()).toFile();
+            long size = file.length();
+            long lastModified = file.lastModified();
+            if (lastModified == 0 || lastModified < since) {
+                // Deleted or not written by this build
+                iterator.remove();
+            } else if (size != candidate.size
+                    || lastModified != candidate.lastModified) {
+                candidate.size = size;
+                candidate.lastModified = lastModified;
+                candidate.changedAt = now;
+            } else if (now - candidate.changedAt >= STABLE_MILLIS) {
+                Long previous = handedOver.put(entry.getKey(), lastModified);
+                if (previous == null || previous != lastModified) {
+                    ready.add(entry.getKey());
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the reports ready since the last call.
+     */
+    synchronized List<String> drainReady() {
+        polledAt = clock.getAsLong();
+        List<String> result = new ArrayList<>(ready);
+        ready.clear();
+        return result;
+    }
+
+    /**
+     * @return the reports ready or still changing, which have not been handed
+     *         over yet.
+     */
+    synchronized List<String> drainPending() {
+        List<String> result = drainReady();
+        for (String path : candidates.keySet()) {
+            if (!result.contains(path)) {
+                result.add(path);
+            }
+        }
+        candidates.clear();
+        return result;
+    }
+
+    boolean isReport(String path) {
+        for (AntPattern pattern : patterns) {
+            if (pattern.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isNamed(String directory) {
+        for (AntPattern pattern : patterns) {
+            if (pattern.matchesFixedStart(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean couldHoldReports(String directory) {
+        for (AntPattern pattern : patterns) {
+            if (pattern.matchesStart(directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the path relative to the workspace, with '/' as separator.
+     */
+    private String relativize(Path path) {
+        return root.relativize(path.toAbsolutePath()).toString()
+                .replace(File.separatorChar, '/');
+    }
+
+    private void closeWatchService() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                LOG.debug("[elastest-plugin]: Error closing the watch service: {}",
+                        e.getMessage());
+            }
+            watchService = null;
+        }
+    }
+
+    /**
+     * Stops the watcher when the channel is closed, for instance when the
+     * controller restarts during the build and never sends {@link Stop}.
+     */
+    void stopOnClose(Channel channel) {
+        Channel.Listener listener = new Channel.Listener() {
+            @Override
+            public void onClosed(Channel closedChannel, IOException cause) {
+                if (WATCHERS.remove(id, ReportWatcher.this)) {
+                    LOG.info("[elastest-plugin]: Channel closed, stopping the report watcher {}",
+                            id);
+                }
+                close();
+            }
+        };
+        synchronized (this) {
+            this.channel = channel;
+            this.channelListener = listener;
+        }
+        channel.addListener(listener);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Channel currentChannel;
+        Channel.Listener listener;
+        synchronized (this) {
+            currentChannel = channel;
+            listener = channelListener;
+            channel = null;
+            channelListener = null;
+        }
+        if (listener != null) {
+            // Agent channels outlive the builds, the listener must not
+            currentChannel.removeListener(listener);
+        }
+        Thread current = thread;
+        if (current != null && current != Thread.currentThread()) {
+            current.interrupt();
+        }
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                LOG.debug("[elastest-plugin]: Error closing the watch service: {}",
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Starts watching the workspace for the reports updated during the build.
+     */
+    public static class Start extends MasterToSlaveFileCallable<Boolean> {
+        private static final long serialVersionUID = 1L;
+        private final String id;
+        private final String includes;
+        private final long buildTime;
+        private final long nowMaster;
+
+        public Start(String id, String includes, long buildTime,
+                long nowMaster) {
+            this.id = id;
+            this.includes = includes;
+            this.buildTime = buildTime;
+            this.nowMaster = nowMaster;
+        }
+
+        @Override
+        public Boolean invoke(File ws, VirtualChannel channel) {
+            long since = buildTime + (System.currentTimeMillis() - nowMaster)
+                    - ParseResultCallable.UPDATE_MARGIN_MILLIS;
+            ReportWatcher watcher = new ReportWatcher(id, ws, includes, since,
+                    System::currentTimeMillis);
+            ReportWatcher previous = WATCHERS.put(id, watcher);
+            if (previous != null) {
+                previous.close();
+            }
+            if (channel instanceof Channel) {
+                watcher.stopOnClose((Channel) channel);
+            }
+            watcher.start();
+            return true;
+        }
+    }
+
+    /**
+     * @return the reports ready since the last poll, or null if the watcher
+     *         is not running.
+     */
+    public static class Poll extends MasterToSlaveFileCallable<List<String>> {
+        private static final long serialVersionUID = 1L;
+        private final String id;
+
+        public Poll(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public List<String> invoke(File ws, VirtualChannel channel) {
+            ReportWatcher watcher = WATCHERS.get(id);
+            return watcher != null ? watcher.drainReady() : null;
+        }
+    }
+
+    /**
+     * Stops the watcher.
+     * 
+     * @return the reports not handed over yet, ready or still changing, or
+     *         null if the watcher was not running.
+     */
+    public static class Stop extends MasterToSlaveFileCallable<List<String>> {
+        private static final long serialVersionUID = 1L;
+        private final String id;
+
+        public Stop(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public List<String> invoke(File ws, VirtualChannel channel) {
+            ReportWatcher watcher = WATCHERS.remove(id);
+            if (watcher == null) {
+                return null;
+            }
+            watcher.close();
+            return watcher.drainPending();
+        }
+    }
+}
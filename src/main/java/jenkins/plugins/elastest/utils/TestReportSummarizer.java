@@ -0,0 +1,381 @@
+/*
+ * The MIT License
+ *
+ * (C) Copyright 2017-2019 ElasTest (http://elastest.io/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.plugins.elastest.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import jenkins.plugins.elastest.json.TestCaseSummary;
+import jenkins.plugins.elastest.json.TestCaseSummary.Status;
+import jenkins.plugins.elastest.json.TestSuiteSummary;
+
+/**
+ * Extracts the suites, cases, durations and failures of a surefire report with
+ * a streaming parser, so the report is never loaded whole in memory. The
+ * stack traces are cut to {@link #MAX_STACK_TRACE_LINES} lines. The output of
+ * the tests (system-out and system-err) is dropped, unless it is included on
+ * demand, and then it is cut to {@link #MAX_OUTPUT_CHARS} characters.
+ * <p>
+ * The summaries can be written back as a compact surefire report. The
+ * properties of the suites, their timestamp and hostname, and the reruns of
+ * flaky tests are not kept. The files that are not surefire reports are not
+ * summarized, so they can be sent as they are.
+ *
+ * @author Francisco R. Díaz
+ * @since 1.2.3
+ */
+public class TestReportSummarizer implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int MAX_STACK_TRACE_LINES = 30;
+    static final int MAX_STACK_TRACE_CHARS = 16 * 1024;
+    static final int MAX_OUTPUT_CHARS = 64 * 1024;
+    static final String TRUNCATED = FileManager.TRUNCATED;
+
+    private final boolean includeOutput;
+    private transient XMLInputFactory inputFactory;
+
+    public TestReportSummarizer(boolean includeOutput) {
+        this.includeOutput = includeOutput;
+    }
+
+    public boolean isIncludeOutput() {
+        return includeOutput;
+    }
+
+    private synchronized XMLInputFactory getInputFactory() {
+        if (inputFactory == null) {
+            inputFactory = XMLInputFactory.newInstance();
+            // The reports are data, never resolve entities nor DTDs
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            inputFactory.setProperty(
+                    XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        }
+        return inputFactory;
+    }
+
+    /**
+     * @return the suites of the report, one unless its root is testsuites, or
+     *         null if it is not a surefire report: its root is neither
+     *         testsuite nor testsuites, or it nests a suite in another one.
+     */
+    public List<TestSuiteSummary> summarize(InputStream input)
+            throws IOException {
+        List<TestSuiteSummary> suites = new ArrayList<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = getInputFactory().createXMLStreamReader(input);
+            TestSuiteSummary suite = null;
+            TestCaseSummary testCase = null;
+            boolean root = true;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    if ("testcase".equals(reader.getLocalName())) {
+                        testCase = null;
+                    } else if ("testsuite".equals(reader.getLocalName())) {
+                        suite = null;
+                    }
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                if (root) {
+                    root = false;
+                    if (!"testsuite".equals(reader.getLocalName())
+                            && !"testsuites".equals(reader.getLocalName())) {
+                        // TestNG results, a pom matched by a loose pattern...
+                        return null;
+                    }
+                }
+                switch (reader.getLocalName()) {
+                case "testsuite":
+                    if (suite != null) {
+                        // The summary cannot keep nested suites apart
+                        return null;
+                    }
+                    suite = readSuite(reader);
+                    suites.add(suite);
+                    break;
+                case "testcase":
+                    if (suite != null) {
+                        testCase = readTestCase(reader);
+                        suite.getTestCases().add(testCase);
+                    }
+                    break;
+                case "failure":
+                case "error":
+                case "skipped":
+                    if (testCase != null) {
+                        readResult(reader, testCase);
+                    }
+                    break;
+                case "system-out":
+                case "system-err":
+                    readOutput(reader, suite, testCase);
+                    break;
+                default:
+                    break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Invalid test report: " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+        return suites;
+    }
+
+    private static TestSuiteSummary readSuite(XMLStreamReader reader) {
+        TestSuiteSummary suite = new TestSuiteSummary();
+        suite.setName(reader.getAttributeValue(null, "name"));
+        suite.setTime(parseTime(reader.getAttributeValue(null, "time")));
+        suite.setTests(parseInt(reader.getAttributeValue(null, "tests")));
+        suite.setFailures(parseInt(reader.getAttributeValue(null, "failures")));
+        suite.setErrors(parseInt(reader.getAttributeValue(null, "errors")));
+        suite.setSkipped(parseInt(reader.getAttributeValue(null, "skipped")));
+        return suite;
+    }
+
+    private static TestCaseSummary readTestCase(XMLStreamReader reader) {
+        TestCaseSummary testCase = new TestCaseSummary();
+        testCase.setName(reader.getAttributeValue(null, "name"));
+        testCase.setClassName(reader.getAttributeValue(null, "classname"));
+        testCase.setTime(parseTime(reader.getAttributeValue(null, "time")));
+        return testCase;
+    }
+
+    private static void readResult(XMLStreamReader reader,
+            TestCaseSummary testCase) throws XMLStreamException {
+        String element = reader.getLocalName();
+        testCase.setMessage(reader.getAttributeValue(null, "message"));
+        testCase.setType(reader.getAttributeValue(null, "type"));
+        if ("skipped".equals(element)) {
+            testCase.setStatus(Status.SKIPPED);
+            readText(reader, 0);
+        } else {
+            testCase.setStatus(
+                    "failure".equals(element) ? Status.FAILURE : Status.ERROR);
+            testCase.setStackTrace(firstLines(
+                    readText(reader, MAX_STACK_TRACE_CHARS),
+                    MAX_STACK_TRACE_LINES));
+        }
+    }
+
+    private void readOutput(XMLStreamReader reader, TestSuiteSummary suite,
+            TestCaseSummary testCase) throws XMLStreamException {
+        boolean out = "system-out".equals(reader.getLocalName());
+        String text = readText(reader, includeOutput ? MAX_OUTPUT_CHARS : 0);
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        if (testCase != null) {
+            if (out) {
+                testCase.setSystemOut(text);
+            } else {
+                testCase.setSystemErr(text);
+            }
+        } else if (suite != null) {
+            if (out) {
+                suite.setSystemOut(text);
+            } else {
+                suite.setSystemErr(text);
+            }
+        }
+    }
+
+    /**
+     * Reads the text of the current element up to its end, keeping at most
+     * maxChars characters. The rest is read and discarded.
+     * 
+     * @return the text, or null if maxChars is 0.
+     */
+    static String readText(XMLStreamReader reader, int maxChars)
+            throws XMLStreamException {
+        StringBuilder text = maxChars > 0 ? new StringBuilder() : null;
+        boolean truncated = false;
+        int depth = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth-- == 0) {
+                    break;
+                }
+            } else if (text != null && (event == XMLStreamConstants.CHARACTERS
+                    || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE)) {
+                int room = maxChars - text.length();
+                int length = reader.getTextLength();
+                if (length > room) {
+                    truncated = true;
+                }
+                text.append(reader.getTextCharacters(), reader.getTextStart(),
+                        Math.min(length, room));
+            }
+        }
+        if (text == null) {
+            return null;
+        }
+        return truncated ? text.append(TRUNCATED).toString() : text.toString();
+    }
+
+    static String firstLines(String text, int maxLines) {
+        if (text == null) {
+            return null;
+        }
+        int end = -1;
+        for (int i = 0; i < maxLines; i++) {
+            end = text.indexOf('\n', end + 1);
+            if (end < 0) {
+                return text;
+            }
+        }
+        return text.substring(0, end) + TRUNCATED;
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return value != null ? Integer.parseInt(value.trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double parseTime(String value) {
+        try {
+            // Some reports group the thousands: "1,234.5"
+            return value != null
+                    ? Double.parseDouble(value.replace(",", "").trim()) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the suites as a surefire report, wrapped in a testsuites element
+     * if there are several.
+     */
+    public static String toXML(List<TestSuiteSummary> suites)
+            throws IOException {
+        StringWriter output = new StringWriter();
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance()
+                    .createXMLStreamWriter(output);
+            writer.writeStartDocument("UTF-8", "1.0");
+            if (suites.size() != 1) {
+                writer.writeStartElement("testsuites");
+            }
+            for (TestSuiteSummary suite : suites) {
+                writeSuite(writer, suite);
+            }
+            if (suites.size() != 1) {
+                writer.writeEndElement();
+            }
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing the test report summary", e);
+        }
+        return output.toString();
+    }
+
+    private static void writeSuite(XMLStreamWriter writer,
+            TestSuiteSummary suite) throws XMLStreamException {
+        writer.writeStartElement("testsuite");
+        writeAttribute(writer, "name", suite.getName());
+        writer.writeAttribute("time", formatTime(suite.getTime()));
+        writer.writeAttribute("tests", String.valueOf(suite.getTests()));
+        writer.writeAttribute("errors", String.valueOf(suite.getErrors()));
+        writer.writeAttribute("skipped", String.valueOf(suite.getSkipped()));
+        writer.writeAttribute("failures", String.valueOf(suite.getFailures()));
+        for (TestCaseSummary testCase : suite.getTestCases()) {
+            writer.writeStartElement("testcase");
+            writeAttribute(writer, "name", testCase.getName());
+            writeAttribute(writer, "classname", testCase.getClassName());
+            writer.writeAttribute("time", formatTime(testCase.getTime()));
+            if (testCase.getStatus() != Status.PASSED) {
+                writer.writeStartElement(
+                        testCase.getStatus().name().toLowerCase(Locale.ROOT));
+                writeAttribute(writer, "message", testCase.getMessage());
+                writeAttribute(writer, "type", testCase.getType());
+                writeText(writer, testCase.getStackTrace());
+                writer.writeEndElement();
+            }
+            writeElement(writer, "system-out", testCase.getSystemOut());
+            writeElement(writer, "system-err", testCase.getSystemErr());
+            writer.writeEndElement();
+        }
+        writeElement(writer, "system-out", suite.getSystemOut());
+        writeElement(writer, "system-err", suite.getSystemErr());
+        writer.writeEndElement();
+    }
+
+    private static void writeAttribute(XMLStreamWriter writer, String name,
+            String value) throws XMLStreamException {
+        if (value != null) {
+            writer.writeAttribute(name, value);
+        }
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String name,
+            String text) throws XMLStreamException {
+        if (text != null) {
+            writer.writeStartElement(name);
+            writer.writeCharacters(text);
+            writer.writeEndElement();
+        }
+    }
+
+    private static void writeText(XMLStreamWriter writer, String text)
+            throws XMLStreamException {
+        if (text != null) {
+            writer.writeCharacters(text);
+        }
+    }
+
+    private static String formatTime(double time) {
+        return BigDecimal.valueOf(time).toPlainString();
+    }
+}
@@ -5,8 +5,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import org.apache.tools.ant.DirectoryScanner;
-import org.apache.tools.ant.types.FileSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,19 +21,16 @@ public class TestResultParser {
         try {
             FileManager fm = new FileManager();
 
-            FileSet fs = fm.createFileSet(new File(workspacePath),
-                    testResultFilePattern, null);
-            DirectoryScanner ds = fs.getDirectoryScanner();
-
-            List<String> files = Arrays.asList(ds.getIncludedFiles());
+            List<String> files = Arrays.asList(fm.scan(new File(workspacePath),
+                    testResultFilePattern, null, 0));
             for (String file : files) {
                 LOG.info("[elastest-plugin]: Test result file -> " + file);
                 String absoluteFilePath = workspacePath + "/" + file;
+                String content = fm.readFile(new File(absoluteFilePath));
                 LOG.debug(
                         "[elastest-plugin]: Content of the test results file: "
-                                + fm.readFile(new File(absoluteFilePath)));
-                testReportsAsString
-                        .add(fm.readFile(new File(absoluteFilePath)));
+                                + content);
+                testReportsAsString.add(content);
             }
         } catch (Exception e) {
             e.printStackTrace();
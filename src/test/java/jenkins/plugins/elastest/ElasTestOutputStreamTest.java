@@ -12,10 +12,12 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import hudson.console.ConsoleNote;
 import jenkins.plugins.elastest.ElasTestOutputStream;
 import jenkins.plugins.elastest.ElasTestWriter;
 
@@ -33,7 +35,7 @@ public class ElasTestOutputStreamTest {
   @Before
   public void before() throws Exception {
     buffer = new ByteArrayOutputStream();
-    Mockito.doNothing().when(mockWriter).write(anyString());
+    Mockito.doNothing().when(mockWriter).write(any(byte[].class), anyInt(), anyInt());
     when(mockWriter.isConnectionBroken()).thenReturn(false);
   }
 
@@ -63,7 +65,7 @@ public class ElasTestOutputStreamTest {
     // Verify results
     assertEquals("Results don't match", msg, buffer.toString());
     verify(mockWriter).isConnectionBroken();
-    verify(mockWriter).write(msg);
+    verify(mockWriter).write(aryEq(msg.getBytes()), eq(0), eq(msg.length()));
   }
 
   @Test
@@ -103,7 +105,7 @@ public class ElasTestOutputStreamTest {
     }
 
     //Verify calls were made to the dao logging twice, not three times.
-    verify(mockWriter, times(2)).write(msg);
+    verify(mockWriter, times(2)).write(aryEq(msg.getBytes()), eq(0), eq(msg.length()));
     verify(mockWriter, times(3)).isConnectionBroken();
   }
 
@@ -121,4 +123,24 @@ public class ElasTestOutputStreamTest {
     assertEquals("Results don't match", msg, buffer.toString());
     verify(mockWriter).isConnectionBroken();
   }
+
+  @Test
+  public void eolRemovesNotesAndWhitespace() throws Exception {
+    ElasTestOutputStream los = new ElasTestOutputStream(buffer, mockWriter);
+    String msg = "  " + ConsoleNote.PREAMBLE_STR + "note" + ConsoleNote.POSTAMBLE_STR
+      + "Started by user" + ConsoleNote.PREAMBLE_STR + "other" + ConsoleNote.POSTAMBLE_STR + " \n";
+    ArgumentCaptor<byte[]> line = ArgumentCaptor.forClass(byte[].class);
+    ArgumentCaptor<Integer> offset = ArgumentCaptor.forClass(Integer.class);
+    ArgumentCaptor<Integer> length = ArgumentCaptor.forClass(Integer.class);
+
+    // Unit under test
+    los.eol(msg.getBytes(), msg.length());
+
+    // Verify results
+    assertEquals("Results don't match", msg, buffer.toString());
+    verify(mockWriter).isConnectionBroken();
+    verify(mockWriter).write(line.capture(), offset.capture(), length.capture());
+    assertEquals("Wrong line", "Started by user",
+        new String(line.getValue(), offset.getValue(), length.getValue()));
+  }
 }
@@ -0,0 +1,156 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jenkins.plugins.elastest.json.ExternalJob;
+
+public class FinalizationOutboxTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    ScheduledExecutorService scheduler = Executors
+            .newSingleThreadScheduledExecutor();
+    List<ExternalJob> sent = new CopyOnWriteArrayList<>();
+    /** Statuses answered by ElasTest, 0 fails without an answer. */
+    List<Integer> answers = new CopyOnWriteArrayList<>();
+    File directory;
+    FinalizationOutbox outbox;
+
+    @Before
+    public void before() throws Exception {
+        directory = folder.newFolder("outbox");
+        outbox = newOutbox();
+    }
+
+    @After
+    public void after() {
+        scheduler.shutdownNow();
+    }
+
+    FinalizationOutbox newOutbox() {
+        return new FinalizationOutbox(directory, externalJob -> {
+            sent.add(externalJob);
+            int status = answers.isEmpty() ? 200 : answers.remove(0);
+            if (status == 0) {
+                throw new IllegalStateException("Connection refused");
+            }
+            return status;
+        }, scheduler, 1, 4);
+    }
+
+    static ExternalJob externalJob(long id, int result) {
+        ExternalJob externalJob = new ExternalJob("job");
+        externalJob.settJobExecId(id);
+        externalJob.setResult(result);
+        return externalJob;
+    }
+
+    void awaitDelivered() throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getPendingCount() > 0
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals("Finalizations pending", 0, outbox.getPendingCount());
+    }
+
+    @Test
+    public void sendsAndDeletes() throws Exception {
+        // Unit under test
+        outbox.enqueue(externalJob(7, 1));
+        awaitDelivered();
+
+        // Verify results
+        assertEquals("Wrong finalizations sent", 1, sent.size());
+        assertEquals("Wrong TJob", Long.valueOf(7), sent.get(0).gettJobExecId());
+        assertEquals("Wrong result", 1, sent.get(0).getResult());
+        assertFalse("File not deleted", outbox.getFile(7).exists());
+    }
+
+    @Test
+    public void retriesUntilAccepted() throws Exception {
+        answers.add(503);
+        answers.add(0);
+        answers.add(429);
+
+        // Unit under test
+        outbox.enqueue(externalJob(8, 0));
+        awaitDelivered();
+
+        // Verify results
+        assertEquals("Wrong attempts", 4, sent.size());
+        assertFalse("File not deleted", outbox.getFile(8).exists());
+    }
+
+    @Test
+    public void dropsRejected() throws Exception {
+        answers.add(404);
+
+        // Unit under test
+        outbox.enqueue(externalJob(9, 0));
+        awaitDelivered();
+
+        // Verify results
+        assertEquals("Rejected finalization retried", 1, sent.size());
+        assertFalse("File not deleted", outbox.getFile(9).exists());
+    }
+
+    @Test
+    public void resendsAfterRestart() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            answers.add(503);
+        }
+        outbox.enqueue(externalJob(10, 3));
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        assertTrue("File not stored", outbox.getFile(10).exists());
+        answers.clear();
+        sent.clear();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        // Unit under test
+        outbox = newOutbox();
+        outbox.recover();
+        awaitDelivered();
+
+        // Verify results
+        assertEquals("Wrong finalizations sent", 1, sent.size());
+        assertEquals("Wrong result", 3, sent.get(0).getResult());
+    }
+
+    @Test
+    public void keepsLastFinalizationOfTheSameTJob() throws Exception {
+        answers.add(503);
+
+        // Unit under test
+        outbox.enqueue(externalJob(11, 0));
+        outbox.enqueue(externalJob(11, 1));
+        awaitDelivered();
+
+        // Verify results
+        assertEquals("Wrong result sent last", 1,
+                sent.get(sent.size() - 1).getResult());
+    }
+
+    @Test
+    public void retryDelayGrows() throws Exception {
+        assertTrue("Wrong delay", outbox.getRetryDelayMillis(1) <= 1);
+        assertTrue("Wrong delay", outbox.getRetryDelayMillis(3) >= 2);
+        assertTrue("Delay over the max", outbox.getRetryDelayMillis(40) <= 4);
+    }
+}
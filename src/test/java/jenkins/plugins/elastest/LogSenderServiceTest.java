@@ -0,0 +1,79 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LogSenderServiceTest {
+    final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+    // Keeps the first build from sending everything before the second one
+    // has pending batches
+    final CountDownLatch bothSignaled = new CountDownLatch(1);
+
+    @Test
+    public void noisyBuildDoesNotStarveOthers() throws Exception {
+        LogSenderService service = new LogSenderService(1);
+        Source noisy = new Source("noisy", 50);
+        Source quiet = new Source("quiet", 2);
+        LogSenderService.Channel noisyChannel = service.register("noisy", noisy);
+        LogSenderService.Channel quietChannel = service.register("quiet", quiet);
+
+        noisyChannel.signal();
+        quietChannel.signal();
+        bothSignaled.countDown();
+
+        assertTrue("Timeout", noisyChannel.awaitIdle(10, TimeUnit.SECONDS));
+        assertTrue("Timeout", quietChannel.awaitIdle(10, TimeUnit.SECONDS));
+        assertEquals("Wrong number of batches", 52, sent.size());
+        // Each turn sends one batch of a quantum
+        assertTrue("Quiet build starved: " + sent,
+                sent.indexOf("quiet-1") < 4);
+        assertEquals("Wrong order", sent.indexOf("quiet-0") + 2,
+                sent.indexOf("quiet-1"));
+        assertTrue("Wrong order",
+                sent.indexOf("noisy-10") < sent.indexOf("noisy-11"));
+    }
+
+    class Source implements LogSenderService.Source {
+        final Deque<String> batches = new ArrayDeque<>();
+
+        Source(String name, int count) {
+            for (int i = 0; i < count; i++) {
+                batches.add(name + "-" + i);
+            }
+        }
+
+        @Override
+        public long sendNext() {
+            try {
+                bothSignaled.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String batch = poll();
+            if (batch == null) {
+                return 0;
+            }
+            sent.add(batch);
+            return LogSenderService.QUANTUM_BYTES;
+        }
+
+        synchronized String poll() {
+            return batches.poll();
+        }
+
+        @Override
+        public synchronized boolean hasPending() {
+            return !batches.isEmpty();
+        }
+    }
+}
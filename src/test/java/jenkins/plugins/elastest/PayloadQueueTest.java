@@ -0,0 +1,182 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jenkins.plugins.elastest.spool.PayloadSpool;
+
+public class PayloadQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    int dropped;
+    int spilled;
+    PayloadQueue.Listener listener;
+
+    @Before
+    public void before() {
+        dropped = 0;
+        spilled = 0;
+        listener = new PayloadQueue.Listener() {
+            @Override
+            public void onDropped(int lines) {
+                dropped += lines;
+            }
+
+            @Override
+            public void onSpilled(int lines) {
+                spilled += lines;
+            }
+        };
+    }
+
+    @Test
+    public void dropOldest() {
+        PayloadQueue queue = new PayloadQueue(2, OverflowPolicy.DROP_OLDEST,
+                null, listener);
+
+        queue.offer(batch("a", 1));
+        queue.offer(batch("b", 2));
+        queue.offer(batch("c", 3));
+
+        assertEquals("Wrong dropped lines", 1, dropped);
+        assertEquals("Wrong batch", "b", payload(queue.poll()));
+        assertEquals("Wrong batch", "c", payload(queue.poll()));
+        assertNull("Queue should be empty", queue.poll());
+    }
+
+    @Test
+    public void dropNewest() {
+        PayloadQueue queue = new PayloadQueue(2, OverflowPolicy.DROP_NEWEST,
+                null, listener);
+
+        queue.offer(batch("a", 1));
+        queue.offer(batch("b", 2));
+        queue.offer(batch("c", 3));
+
+        assertEquals("Wrong dropped lines", 3, dropped);
+        assertEquals("Wrong batch", "a", payload(queue.poll()));
+        assertEquals("Wrong batch", "b", payload(queue.poll()));
+        assertNull("Queue should be empty", queue.poll());
+    }
+
+    @Test
+    public void spillKeepsOrder() {
+        PayloadQueue queue = new PayloadQueue(1, OverflowPolicy.SPILL_TO_DISK,
+                () -> new PayloadSpool(folder.getRoot()), listener);
+
+        queue.offer(batch("a", 1));
+        queue.offer(batch("b", 2));
+        queue.offer(batch("c", 3));
+        assertEquals("Wrong batch", "a", next(queue));
+        // There are batches on disk, so this one must go after them
+        queue.offer(batch("d", 4));
+
+        assertEquals("Wrong spilled lines", 9, spilled);
+        assertEquals("Wrong dropped lines", 0, dropped);
+        assertEquals("Wrong batch", "b", next(queue));
+        assertEquals("Wrong batch", "c", next(queue));
+        assertEquals("Wrong batch", "d", next(queue));
+        assertTrue("Queue should be empty", queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void failedBatchGoesBeforeSpilledOnes() {
+        PayloadQueue queue = new PayloadQueue(2, OverflowPolicy.DROP_NEWEST,
+                () -> new PayloadSpool(folder.getRoot()), listener);
+
+        queue.offer(batch("a", 1));
+        queue.offer(batch("b", 2));
+        LogBatch batch = queue.poll();
+        queue.failed(batch);
+        // While ElasTest is unreachable new batches are spilled, not dropped
+        queue.offer(batch("c", 3));
+        batch = queue.poll();
+        assertEquals("Wrong batch", "a", payload(batch));
+        queue.failed(batch);
+
+        assertEquals("Wrong spilled lines", 6, spilled);
+        assertEquals("Wrong dropped lines", 0, dropped);
+        assertEquals("Wrong batch", "a", next(queue));
+        assertEquals("Wrong batch", "b", next(queue));
+        assertEquals("Wrong batch", "c", next(queue));
+        assertTrue("Queue should be empty", queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void failedBatchIsRetriedWithoutSpool() {
+        PayloadQueue queue = new PayloadQueue(2, OverflowPolicy.DROP_NEWEST,
+                null, listener);
+
+        queue.offer(batch("a", 1));
+        queue.offer(batch("b", 2));
+        LogBatch batch = queue.poll();
+        queue.failed(batch);
+        assertEquals("Wrong dropped lines", 0, dropped);
+        assertEquals("Wrong batch", "a", payload(queue.poll()));
+
+        // No room left for the failed batch
+        queue.offer(batch("c", 3));
+        queue.failed(batch);
+
+        assertEquals("Wrong dropped lines", 1, dropped);
+        assertEquals("Wrong batch", "b", next(queue));
+        assertEquals("Wrong batch", "c", next(queue));
+        assertTrue("Queue should be empty", queue.isEmpty());
+    }
+
+    @Test
+    public void rejectedBatchIsDropped() {
+        PayloadQueue queue = new PayloadQueue(2, OverflowPolicy.DROP_NEWEST,
+                () -> new PayloadSpool(folder.getRoot()), listener);
+
+        queue.offer(batch("a", 1));
+        queue.offer(batch("b", 2));
+        queue.failed(queue.poll());
+        LogBatch batch = queue.poll();
+        assertEquals("Wrong batch", "a", payload(batch));
+        queue.rejected(batch);
+
+        assertEquals("Wrong dropped lines", 1, dropped);
+        assertEquals("Wrong batch", "b", next(queue));
+        assertTrue("Queue should be empty", queue.isEmpty());
+        queue.close();
+    }
+
+    @Test
+    public void closeKeepsPendingBatches() throws Exception {
+        PayloadQueue queue = new PayloadQueue(2, OverflowPolicy.BLOCK,
+                () -> new PayloadSpool(folder.getRoot()), listener);
+
+        queue.offer(batch("a", 1));
+        assertEquals("Wrong batches left", 1, queue.close());
+
+        PayloadSpool spool = new PayloadSpool(folder.getRoot());
+        assertEquals("Wrong batch", "a", payload(spool.peek()));
+        spool.close();
+    }
+
+    private static String next(PayloadQueue queue) {
+        LogBatch batch = queue.poll();
+        queue.sent(batch);
+        return payload(batch);
+    }
+
+    private static LogBatch batch(String payload, int lines) {
+        return new LogBatch(payload.getBytes(StandardCharsets.UTF_8), lines);
+    }
+
+    private static String payload(LogBatch batch) {
+        return new String(batch.getPayload(), StandardCharsets.UTF_8);
+    }
+}
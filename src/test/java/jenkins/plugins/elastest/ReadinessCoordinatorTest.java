@@ -0,0 +1,138 @@
+package jenkins.plugins.elastest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import jenkins.plugins.elastest.json.ExternalJob;
+
+public class ReadinessCoordinatorTest {
+    ScheduledExecutorService scheduler = Executors
+            .newSingleThreadScheduledExecutor();
+    Map<Long, AtomicInteger> polls = new ConcurrentHashMap<>();
+    AtomicInteger concurrentPolls = new AtomicInteger();
+    volatile int maxConcurrentPolls;
+
+    /**
+     * TJob n is ready after n polls, TJob -1 fails, the status of TJob -2
+     * fails twice and TJob -3 cannot be polled.
+     */
+    ReadinessCoordinator coordinator = new ReadinessCoordinator(job -> {
+        int running = concurrentPolls.incrementAndGet();
+        maxConcurrentPolls = Math.max(maxConcurrentPolls, running);
+        try {
+            long id = job.gettJobExecId();
+            if (id == -1) {
+                throw new TJobErrorException("TJob failed");
+            }
+            int count = polls.computeIfAbsent(id, key -> new AtomicInteger())
+                    .incrementAndGet();
+            if (id == -3 || (id == -2 && count <= 2)) {
+                throw new IOException("ElasTest not available");
+            }
+            ExternalJob status = externalJob(id);
+            status.setReady(count >= id);
+            return status;
+        } finally {
+            concurrentPolls.decrementAndGet();
+        }
+    }, scheduler, 1, 4, 200);
+
+    @After
+    public void after() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void completesEachBuildWhenReady() throws Exception {
+        CompletableFuture<ExternalJob> first = coordinator
+                .awaitReady(externalJob(3));
+        CompletableFuture<ExternalJob> second = coordinator
+                .awaitReady(externalJob(5));
+        CompletableFuture<ExternalJob> sameTJob = coordinator
+                .awaitReady(externalJob(5));
+
+        assertTrue("Not ready", first.get(5, TimeUnit.SECONDS).isReady());
+        assertTrue("Not ready", second.get(5, TimeUnit.SECONDS).isReady());
+        assertTrue("Not ready", sameTJob.get(5, TimeUnit.SECONDS).isReady());
+        assertEquals("Wrong polls", 3, polls.get(3L).get());
+        assertEquals("Shared TJob polled more than needed", 5, polls.get(5L).get());
+        assertEquals("Concurrent polls", 1, maxConcurrentPolls);
+        assertEquals("Pending TJobs", 0, coordinator.getPendingCount());
+    }
+
+    @Test
+    public void failsWhenStatusFails() throws Exception {
+        CompletableFuture<ExternalJob> failed = coordinator
+                .awaitReady(externalJob(-1));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("Failed TJob completed");
+        } catch (ExecutionException e) {
+            assertEquals("Wrong cause", "TJob failed",
+                    e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void retriesWhenStatusRequestFails() throws Exception {
+        CompletableFuture<ExternalJob> retried = coordinator
+                .awaitReady(externalJob(-2));
+
+        assertTrue("Not ready", retried.get(5, TimeUnit.SECONDS).isReady());
+        assertEquals("Wrong polls", 3, polls.get(-2L).get());
+    }
+
+    @Test
+    public void failsWhenStatusRequestKeepsFailing() throws Exception {
+        CompletableFuture<ExternalJob> failed = coordinator
+                .awaitReady(externalJob(-3));
+        try {
+            failed.get(5, TimeUnit.SECONDS);
+            fail("Unreachable TJob completed");
+        } catch (ExecutionException e) {
+            assertEquals("Wrong cause", "ElasTest not available",
+                    e.getCause().getMessage());
+        }
+        assertTrue("Not retried", polls.get(-3L).get() > 1);
+    }
+
+    @Test
+    public void cancelledWaiterStopsPolling() throws Exception {
+        CompletableFuture<ExternalJob> never = coordinator
+                .awaitReady(externalJob(1000000));
+        never.cancel(false);
+
+        CompletableFuture<ExternalJob> other = coordinator
+                .awaitReady(externalJob(20));
+        other.get(5, TimeUnit.SECONDS);
+        assertEquals("Pending TJobs", 0, coordinator.getPendingCount());
+    }
+
+    @Test
+    public void readyTJobIsNotPolled() throws Exception {
+        ExternalJob ready = externalJob(7);
+        ready.setReady(true);
+        assertTrue("Not completed", coordinator.awaitReady(ready).isDone());
+        assertTrue("Polled", polls.isEmpty());
+    }
+
+    private static ExternalJob externalJob(long id) {
+        ExternalJob externalJob = new ExternalJob("job");
+        externalJob.settJobExecId(id);
+        return externalJob;
+    }
+}
@@ -0,0 +1,66 @@
+package jenkins.plugins.elastest.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TraceBatchWriterTest {
+
+    @Test
+    public void addWritesUtf8Lines() throws Exception {
+        TraceBatchWriter writer = new TraceBatchWriter("test", "1",
+                "default_log");
+        byte[] line = "línea \"1\" €".getBytes(StandardCharsets.UTF_8);
+
+        // Unit under test
+        writer.add(line, 0, line.length);
+
+        JsonNode traces = new ObjectMapper().readTree(writer.drain());
+        assertEquals("Wrong message", "línea \"1\" €",
+                traces.get(0).get("message").asText());
+    }
+
+    @Test
+    public void addReplacesMalformedBytes() throws Exception {
+        TraceBatchWriter writer = new TraceBatchWriter("test", "1",
+                "default_log");
+        // "línea" in ISO-8859-1
+        byte[] line = "línea".getBytes(StandardCharsets.ISO_8859_1);
+
+        // Unit under test
+        writer.add(line, 0, line.length);
+
+        byte[] payload = writer.drain();
+        assertTrue("Payload is not valid UTF-8",
+                TraceBatchWriter.isValidUtf8(payload, 0, payload.length));
+        JsonNode traces = new ObjectMapper().readTree(payload);
+        assertEquals("Wrong message", "l\uFFFDnea",
+                traces.get(0).get("message").asText());
+    }
+
+    @Test
+    public void isValidUtf8RejectsMalformedSequences() {
+        // Stray continuation, overlong, truncated and surrogate sequences
+        assertFalse("Stray continuation byte", valid(0x80));
+        assertFalse("Overlong sequence", valid(0xC0, 0xAF));
+        assertFalse("Truncated sequence", valid(0xE2, 0x82));
+        assertFalse("Surrogate", valid(0xED, 0xA0, 0x80));
+        assertFalse("Beyond U+10FFFF", valid(0xF4, 0x90, 0x80, 0x80));
+        assertTrue("Valid sequence", valid(0xF0, 0x9F, 0x98, 0x80));
+    }
+
+    private static boolean valid(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return TraceBatchWriter.isValidUtf8(bytes, 0, bytes.length);
+    }
+}
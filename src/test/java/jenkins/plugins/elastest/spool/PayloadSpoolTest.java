@@ -0,0 +1,101 @@
+package jenkins.plugins.elastest.spool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jenkins.plugins.elastest.LogBatch;
+
+public class PayloadSpoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void reopenKeepsPendingBatches() throws Exception {
+        PayloadSpool spool = new PayloadSpool(folder.getRoot());
+        spool.append(batch("a", 1));
+        spool.append(batch("b", 2));
+        spool.append(batch("c", 3));
+        assertEquals("Wrong batch", "a", payload(spool.peek()));
+        spool.remove();
+        spool.close();
+
+        spool = new PayloadSpool(folder.getRoot());
+        assertEquals("Wrong size", 2, spool.size());
+        LogBatch batch = spool.peek();
+        assertEquals("Wrong batch", "b", payload(batch));
+        assertEquals("Wrong lines", 2, batch.getLines());
+        spool.remove();
+        assertEquals("Wrong batch", "c", payload(spool.peek()));
+        spool.remove();
+        assertNull("Spool should be empty", spool.peek());
+        spool.close();
+    }
+
+    @Test
+    public void prependGoesFirst() throws Exception {
+        PayloadSpool spool = new PayloadSpool(folder.getRoot());
+        spool.append(batch("c", 1));
+        spool.prepend(Arrays.asList(batch("a", 1),
+                batch("b", 1)));
+        spool.close();
+
+        spool = new PayloadSpool(folder.getRoot());
+        for (String expected : Arrays.asList("a", "b", "c")) {
+            assertEquals("Wrong batch", expected, payload(spool.peek()));
+            spool.remove();
+        }
+        assertTrue("Spool should be empty", spool.isEmpty());
+        spool.delete();
+        assertFalse("Spool should be deleted", folder.getRoot().exists());
+    }
+
+    @Test
+    public void corruptRecordIsIgnored() throws Exception {
+        PayloadSpool spool = new PayloadSpool(folder.getRoot());
+        spool.append(batch("a", 1));
+        spool.append(batch("b", 1));
+        spool.close();
+        // Flips a byte of the payload of the second record
+        File segment = folder.getRoot().listFiles(
+                (dir, name) -> name.endsWith(".seg"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(2 * 13 + 1);
+            file.write('x');
+        }
+
+        spool = new PayloadSpool(folder.getRoot());
+        assertEquals("Wrong size", 1, spool.size());
+        assertEquals("Wrong batch", "a", payload(spool.peek()));
+        spool.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void openTwiceFails() throws Exception {
+        PayloadSpool spool = new PayloadSpool(folder.getRoot());
+        try {
+            new PayloadSpool(folder.getRoot());
+        } finally {
+            spool.close();
+        }
+    }
+
+    private static LogBatch batch(String payload, int lines) {
+        return new LogBatch(payload.getBytes(StandardCharsets.UTF_8), lines);
+    }
+
+    private static String payload(LogBatch batch) {
+        return new String(batch.getPayload(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,163 @@
+package jenkins.plugins.elastest.submitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class BeatsSubmitterTest {
+    static final String PAYLOAD = "[{\"message\":\"line 1\"},{\"message\":\"line 2\"},{\"message\":\"line 3\"}]";
+
+    ServerSocket server;
+    Thread listener;
+    BeatsSubmitter submitter;
+    final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    final List<Integer> windows = Collections.synchronizedList(new ArrayList<>());
+    volatile int connections;
+
+    @Before
+    public void before() throws Exception {
+        server = new ServerSocket(0);
+        listener = new Thread(this::listen);
+        listener.setDaemon(true);
+        listener.start();
+        submitter = new BeatsSubmitter("localhost", server.getLocalPort(), "",
+                null, null);
+    }
+
+    @After
+    public void after() throws Exception {
+        submitter.close();
+        server.close();
+        listener.join(5000);
+    }
+
+    @Test
+    public void pushSendsCompressedWindows() throws Exception {
+        submitter.setWindowSize(2);
+
+        // Unit under test
+        assertTrue("Payload not sent",
+                submitter.push(PAYLOAD.getBytes(StandardCharsets.UTF_8)));
+
+        // Verify results
+        assertEquals("Wrong windows", 2, windows.size());
+        assertEquals("Wrong window size", Integer.valueOf(2), windows.get(0));
+        assertEquals("Wrong messages", 3, messages.size());
+        assertEquals("Wrong message", "line 3", messages.get(2));
+    }
+
+    @Test
+    public void pushReusesConnection() throws Exception {
+        submitter.setCompressed(false);
+
+        // Unit under test
+        assertTrue("Payload not sent", submitter.push(PAYLOAD));
+        assertTrue("Payload not sent", submitter.push(PAYLOAD));
+
+        // Verify results
+        assertEquals("Wrong messages", 6, messages.size());
+        assertEquals("Wrong connections", 1, connections);
+    }
+
+    @Test
+    public void pushFailsWithoutListener() throws Exception {
+        server.close();
+
+        // Unit under test
+        assertFalse("Payload sent", submitter.push(PAYLOAD));
+    }
+
+    @Test
+    public void pushSendsSingleTrace() throws Exception {
+        // Unit under test
+        assertTrue("Payload not sent", submitter.push("{\"message\":\"line 1\"}"));
+
+        // Verify results
+        assertEquals("Wrong messages", 1, messages.size());
+        assertEquals("Wrong message", "line 1", messages.get(0));
+    }
+
+    @Test(expected = RejectedPayloadException.class)
+    public void pushRejectsInvalidPayload() throws Exception {
+        // Unit under test
+        submitter.push("[{\"message\":");
+    }
+
+    /**
+     * Stand-in for the Beats input: reads windows and acknowledges the events
+     * one by one.
+     */
+    void listen() {
+        while (!server.isClosed()) {
+            try (Socket socket = server.accept()) {
+                connections++;
+                DataInputStream input = new DataInputStream(
+                        socket.getInputStream());
+                DataOutputStream output = new DataOutputStream(
+                        socket.getOutputStream());
+                while (true) {
+                    expect(input, BeatsSubmitter.FRAME_WINDOW);
+                    int count = input.readInt();
+                    windows.add(count);
+                    DataInputStream events = input;
+                    byte version = input.readByte();
+                    byte type = input.readByte();
+                    if (type == BeatsSubmitter.FRAME_COMPRESSED) {
+                        byte[] compressed = new byte[input.readInt()];
+                        input.readFully(compressed);
+                        events = new DataInputStream(new InflaterInputStream(
+                                new ByteArrayInputStream(compressed)));
+                        version = events.readByte();
+                        type = events.readByte();
+                    }
+                    for (int i = 1; i <= count; i++) {
+                        if (i > 1) {
+                            version = events.readByte();
+                            type = events.readByte();
+                        }
+                        assertEquals(BeatsSubmitter.VERSION, version);
+                        assertEquals(BeatsSubmitter.FRAME_JSON, type);
+                        assertEquals(i, events.readInt());
+                        byte[] event = new byte[events.readInt()];
+                        events.readFully(event);
+                        messages.add(new ObjectMapper().readTree(event)
+                                .get("message").asText());
+                        output.writeByte(BeatsSubmitter.VERSION);
+                        output.writeByte(BeatsSubmitter.FRAME_ACK);
+                        output.writeInt(i);
+                        output.flush();
+                    }
+                }
+            } catch (EOFException e) {
+                // The submitter closed the connection
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private static void expect(DataInputStream input, byte type)
+            throws IOException {
+        assertEquals(BeatsSubmitter.VERSION, input.readByte());
+        assertEquals(type, input.readByte());
+    }
+}
@@ -0,0 +1,85 @@
+package jenkins.plugins.elastest.submitters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import jenkins.plugins.elastest.submitters.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+    long now = 0;
+    CircuitBreaker breaker = new CircuitBreaker("test", () -> now,
+            new Random(1));
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            assertTrue("Request rejected", breaker.allowRequest());
+            breaker.onFailure();
+        }
+        assertEquals("Wrong state", State.CLOSED, breaker.getState());
+        breaker.onSuccess();
+        fail(CircuitBreaker.FAILURE_THRESHOLD - 1);
+        assertEquals("Success did not reset the failures", State.CLOSED,
+                breaker.getState());
+
+        breaker.allowRequest();
+        breaker.onFailure();
+        assertEquals("Wrong state", State.OPEN, breaker.getState());
+        assertFalse("Request allowed while open", breaker.allowRequest());
+    }
+
+    @Test
+    public void halfOpenAllowsSingleTrial() throws Exception {
+        fail(CircuitBreaker.FAILURE_THRESHOLD);
+        now += breaker.getRetryDelayMillis();
+
+        assertTrue("Trial rejected", breaker.allowRequest());
+        assertEquals("Wrong state", State.HALF_OPEN, breaker.getState());
+        assertFalse("Second trial allowed", breaker.allowRequest());
+
+        breaker.onSuccess();
+        assertEquals("Wrong state", State.CLOSED, breaker.getState());
+        assertTrue("Request rejected", breaker.allowRequest());
+    }
+
+    @Test
+    public void backoffGrowsWithJitter() throws Exception {
+        fail(CircuitBreaker.FAILURE_THRESHOLD);
+        long expected = CircuitBreaker.BASE_DELAY_MILLIS;
+        for (int i = 0; i < 12; i++) {
+            long delay = breaker.getRetryDelayMillis();
+            assertTrue("Delay " + delay + " above " + expected,
+                    delay <= expected);
+            assertTrue("Delay " + delay + " below half of " + expected,
+                    delay >= expected / 2);
+
+            now += delay;
+            assertTrue("Trial rejected", breaker.allowRequest());
+            breaker.onFailure();
+            assertEquals("Wrong state", State.OPEN, breaker.getState());
+            expected = Math.min(expected * 2, CircuitBreaker.MAX_DELAY_MILLIS);
+        }
+    }
+
+    @Test
+    public void lostTrialDoesNotBlockForever() throws Exception {
+        fail(CircuitBreaker.FAILURE_THRESHOLD);
+        now += breaker.getRetryDelayMillis();
+        assertTrue("Trial rejected", breaker.allowRequest());
+
+        now += CircuitBreaker.TRIAL_TIMEOUT_MILLIS;
+        assertTrue("New trial rejected", breaker.allowRequest());
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.allowRequest();
+            breaker.onFailure();
+        }
+    }
+}
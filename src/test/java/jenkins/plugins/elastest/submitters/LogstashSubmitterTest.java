@@ -1,15 +1,23 @@
 package jenkins.plugins.elastest.submitters;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.lang.CharEncoding;
 import org.apache.http.HttpEntity;
@@ -27,6 +35,11 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jenkins.plugins.elastest.json.ExternalJob;
+
 @RunWith(MockitoJUnitRunner.class)
 public class LogstashSubmitterTest {
     LogstashSubmitter submitter;
@@ -173,6 +186,52 @@ public class LogstashSubmitterTest {
                 "{ 'foo': 'bar' }");
     }
 
+    @Test
+    public void getPostCompressed() throws Exception {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            json.append("{ 'message': 'line' }");
+        }
+        submitter.setCompression(ContentEncoding.GZIP, 1024);
+
+        // Unit under test
+        HttpPost post = submitter.getHttpPost(
+                json.toString().getBytes(StandardCharsets.UTF_8));
+        HttpEntity entity = post.getEntity();
+
+        assertEquals("Wrong content encoding", "gzip",
+                entity.getContentEncoding().getValue());
+        assertEquals("Wrong content type", entity.getContentType().getValue(),
+                ContentType.APPLICATION_JSON.toString());
+        assertTrue("Not compressed",
+                entity.getContentLength() < json.length());
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        entity.writeTo(stream);
+        GZIPInputStream input = new GZIPInputStream(
+                new ByteArrayInputStream(stream.toByteArray()));
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            content.write(buffer, 0, read);
+        }
+        assertEquals("Wrong content", json.toString(),
+                content.toString(CharEncoding.UTF_8));
+    }
+
+    @Test
+    public void getPostSmallNotCompressed() throws Exception {
+        submitter.setCompression(ContentEncoding.GZIP, 1024);
+
+        // Unit under test
+        HttpPost post = submitter.getHttpPost("{ 'foo': 'bar' }");
+
+        assertNull("Small body compressed", post.getEntity().getContentEncoding());
+        assertTrue("Wrong content class",
+                post.getEntity() instanceof StringEntity);
+    }
+
     @Test
     public void pushSuccess() throws Exception {
         String json = "{ 'foo': 'bar' }";
@@ -188,7 +247,7 @@ public class LogstashSubmitterTest {
         verify(mockHttpClient).execute(any(HttpPost.class));
         verify(mockStatusLine, atLeastOnce()).getStatusCode();
         verify(mockResponse).close();
-        verify(mockHttpClient).close();
+        verify(mockHttpClient, never()).close();
     }
 
     @Test
@@ -209,6 +268,74 @@ public class LogstashSubmitterTest {
         verify(mockHttpClient).execute(any(HttpPost.class));
         verify(mockStatusLine, atLeastOnce()).getStatusCode();
         verify(mockResponse).close();
+        verify(mockHttpClient, never()).close();
+    }
+
+    @Test(expected = RejectedPayloadException.class)
+    public void pushRejectedStatusCode() throws Exception {
+        String json = "{ 'foo': 'bar' }";
+        submitter = createSubmitter("http://localhost", 8200,
+                "/jenkins/logstash", "username", "password");
+
+        when(mockStatusLine.getStatusCode()).thenReturn(413);
+        when(mockResponse.getEntity()).thenReturn(new StringEntity(
+                "Request entity too large.", ContentType.TEXT_PLAIN));
+
+        // Unit under test
+        submitter.push(json);
+    }
+
+    @Test
+    public void pushReusesClient() throws Exception {
+        String json = "{ 'foo': 'bar' }";
+        submitter = createSubmitter("http://localhost", 8200,
+                "/jenkins/logstash", "", "");
+
+        when(mockStatusLine.getStatusCode()).thenReturn(200);
+
+        // Unit under test
+        submitter.push(json);
+        submitter.push(json);
+
+        // Verify results
+        verify(mockClientBuilder).build();
+        verify(mockHttpClient, times(2)).execute(any(HttpPost.class));
+        verify(mockResponse, times(2)).close();
+        verify(mockHttpClient, never()).close();
+    }
+
+    @Test
+    public void closeReleasesClient() throws Exception {
+        String json = "{ 'foo': 'bar' }";
+        submitter = createSubmitter("http://localhost", 8200,
+                "/jenkins/logstash", "", "");
+
+        when(mockStatusLine.getStatusCode()).thenReturn(200);
+
+        // Unit under test
+        assertTrue("Payload not sent", submitter.push(json));
+        submitter.close();
+        assertFalse("Payload sent after close", submitter.push(json));
+
+        // Verify results
         verify(mockHttpClient).close();
+        verify(mockClientBuilder).build();
+    }
+
+    @Test
+    public void buildPayloadBatch() throws Exception {
+        ExternalJob externalJob = new ExternalJob("job");
+        externalJob.settJobExecId(12L);
+
+        // Unit under test
+        String payload = submitter.buildPayload(
+                Arrays.asList("line 1", "line 2", "line 3"), externalJob);
+
+        JsonNode traces = new ObjectMapper().readTree(payload);
+        assertTrue("Payload is not an array", traces.isArray());
+        assertEquals("Wrong number of traces", 3, traces.size());
+        assertEquals("Wrong message", "line 2",
+                traces.get(1).get("message").asText());
+        assertEquals("Wrong exec", "12", traces.get(2).get("exec").asText());
     }
 }
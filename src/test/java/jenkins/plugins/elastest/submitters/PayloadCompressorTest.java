@@ -0,0 +1,85 @@
+package jenkins.plugins.elastest.submitters;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+public class PayloadCompressorTest {
+
+    @Test
+    public void gzipRoundTrip() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor(
+                ContentEncoding.GZIP, 1024);
+        byte[] data = payload(200);
+
+        // Twice, so the second one uses a pooled deflater
+        for (int i = 0; i < 2; i++) {
+            byte[] compressed = compressor.compress(data);
+            assertTrue("Not compressed", compressed.length < data.length / 5);
+            assertArrayEquals("Wrong data", data, read(
+                    new GZIPInputStream(new ByteArrayInputStream(compressed))));
+        }
+    }
+
+    @Test
+    public void deflateRoundTrip() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor(
+                ContentEncoding.DEFLATE, 1024);
+        byte[] data = payload(200);
+
+        byte[] compressed = compressor.compress(data);
+        assertTrue("Not compressed", compressed.length < data.length / 5);
+        assertArrayEquals("Wrong data", data, read(new InflaterInputStream(
+                new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void smallPayloadIsNotCompressed() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor(
+                ContentEncoding.GZIP, 1024);
+        assertNull("Small payload compressed", compressor.compress(payload(2)));
+        assertNull("Identity compressed", new PayloadCompressor(
+                ContentEncoding.IDENTITY, 0).compress(payload(200)));
+    }
+
+    @Test
+    public void incompressiblePayloadIsNotCompressed() throws Exception {
+        PayloadCompressor compressor = new PayloadCompressor(
+                ContentEncoding.GZIP, 0);
+        byte[] data = new byte[4096];
+        new Random(1).nextBytes(data);
+        assertNull("Random payload compressed", compressor.compress(data));
+    }
+
+    private static byte[] payload(int lines) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < lines; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"component\":\"tjob\",\"exec\":\"12\",")
+                    .append("\"stream\":\"default_log\",\"message\":\"line ")
+                    .append(i).append("\"}");
+        }
+        return json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,7 +1,13 @@
 package jenkins.plugins.elastest.submitters;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
 
 import org.junit.Test;
 
@@ -33,6 +39,47 @@ public class SubmitterFactoryTest {
     }
   }
 
+  @Test
+  public void sharedByEndpoint() throws Exception {
+    ElasTestSubmitter first = SubmitterFactory.getInstance(SubmitterType.BEATS, "localhost", 5044, "", null, null);
+    ElasTestSubmitter second = SubmitterFactory.getInstance(SubmitterType.BEATS, "localhost", 5044, "", null, null);
+    ElasTestSubmitter other = SubmitterFactory.getInstance(SubmitterType.BEATS, "otherhost", 5044, "", null, null);
+
+    assertSame("Same endpoint, different submitter", first, second);
+    assertNotSame("Different endpoint, same submitter", first, other);
+    SubmitterFactory.release(first);
+    SubmitterFactory.release(second);
+    SubmitterFactory.release(other);
+  }
+
+  @Test
+  public void replacedSubmitterIsKeptWhileInUse() throws Exception {
+    ElasTestSubmitter old = SubmitterFactory.getInstance(SubmitterType.BEATS, "localhost", 5045, "", "user", "old");
+    ElasTestSubmitter current = SubmitterFactory.getInstance(SubmitterType.BEATS, "localhost", 5045, "", "user", "new");
+
+    assertNotSame("Credentials changed, same submitter", old, current);
+    // Still in use, so it is not closed and fails only because nobody listens
+    assertFalse("Payload sent", old.push("{}"));
+    SubmitterFactory.release(old);
+    try {
+      old.push("{}");
+      fail("Released submitter was not closed");
+    } catch (IOException e) {
+      // Expected, the old submitter was closed with its last user
+    }
+    SubmitterFactory.release(current);
+  }
+
+  @Test
+  public void appliesTheBeatsSettings() throws Exception {
+    BeatsSubmitter submitter = (BeatsSubmitter) SubmitterFactory.getInstance(SubmitterType.BEATS, "localhost", 5046, "",
+        null, null, 1, ContentEncoding.IDENTITY, 1024, 64, false);
+
+    assertEquals("Wrong window size", 64, submitter.getWindowSize());
+    assertFalse("Windows compressed", submitter.isCompressed());
+    SubmitterFactory.release(submitter);
+  }
+
   @Test(expected = InstantiationException.class)
   public void failureNullType() throws Exception {
     try {
@@ -0,0 +1,196 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileManagerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    int files;
+
+    File write(String content) throws Exception {
+        File file = folder.newFile("TEST-" + files++ + ".xml");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void readsSmallFilesWhole() throws Exception {
+        File file = write("<testsuite name=\"ñ\"/>");
+
+        // Verify results
+        assertEquals("Wrong content", "<testsuite name=\"ñ\"/>",
+                new FileManager().readFile(file));
+    }
+
+    @Test
+    public void cutsEachFile() throws Exception {
+        File file = write("0123456789");
+
+        // Verify results
+        assertEquals("Wrong content", "01234" + FileManager.TRUNCATED,
+                new FileManager(5, 100).readFile(file));
+    }
+
+    @Test
+    public void cutsTheTotal() throws Exception {
+        FileManager fm = new FileManager(8, 12);
+
+        // Unit under test
+        String first = fm.readFile(write("0123456789"));
+        String second = fm.readFile(write("abcdefghij"));
+        String third = fm.readFile(write("ABCDEFGHIJ"));
+
+        // Verify results
+        assertEquals("Wrong content", "01234567" + FileManager.TRUNCATED, first);
+        assertEquals("Wrong content", "abcd" + FileManager.TRUNCATED, second);
+        assertEquals("Wrong content", FileManager.TRUNCATED, third);
+    }
+
+    @Test
+    public void dropsTheCharacterCut() throws Exception {
+        // "ñ" takes two bytes
+        File file = write("abñ");
+
+        // Verify results
+        assertEquals("Wrong content", "ab" + FileManager.TRUNCATED,
+                new FileManager(3, 100).readFile(file));
+    }
+
+    @Test
+    public void capsTheSummaries() throws Exception {
+        FileManager fm = new FileManager(100, 12);
+
+        // Unit under test
+        String first = fm.cap("0123456789");
+        String second = fm.cap("abñ");
+
+        // Verify results
+        assertEquals("Wrong summary", "0123456789", first);
+        assertEquals("Wrong summary", "ab" + FileManager.TRUNCATED, second);
+        assertEquals("Wrong content", FileManager.TRUNCATED,
+                fm.readFile(write("ABCDEFGHIJ")));
+    }
+
+    @Test
+    public void streamsUpToTheCap() throws Exception {
+        File file = write("0123456789");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        // Unit under test
+        try (InputStream input = new FileManager(4, 100).open(file)) {
+            int read;
+            while ((read = input.read()) != -1) {
+                content.write(read);
+            }
+        }
+
+        // Verify results
+        assertEquals("Wrong content", "0123" + FileManager.TRUNCATED,
+                content.toString("UTF-8"));
+    }
+
+    File createTree() throws Exception {
+        File ws = folder.newFolder("ws");
+        for (String path : new String[] { "TEST-root.xml",
+                "target/surefire-reports/TEST-a.xml",
+                "target/surefire-reports/a.txt",
+                "module/target/surefire-reports/TEST-b.xml",
+                "module/sub/target/surefire-reports/TEST-c.xml",
+                "module/target/failsafe-reports/TEST-d.xml",
+                "node_modules/lib/target/surefire-reports/TEST-e.xml",
+                ".git/target/surefire-reports/TEST-f.xml" }) {
+            File file = new File(ws, path);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), "<testsuite/>".getBytes(StandardCharsets.UTF_8));
+        }
+        return ws;
+    }
+
+    // The reference: the file set Ant, and Jenkins, would build
+    String[] antScan(File ws, String includes, String excludes) {
+        FileSet fs = new FileSet();
+        fs.setDir(ws);
+        fs.setProject(new Project());
+        for (String token : includes.split(",")) {
+            fs.createInclude().setName(token.trim());
+        }
+        if (excludes != null) {
+            for (String token : excludes.split(",")) {
+                fs.createExclude().setName(token.trim());
+            }
+        }
+        String[] files = fs.getDirectoryScanner().getIncludedFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Test
+    public void scansAsAnt() throws Exception {
+        File ws = createTree();
+        String[][] patterns = { { "**/target/surefire-reports/*.xml", null },
+                { "target/surefire-reports/", null },
+                { "**/*-reports/TEST-?.xml", "node_modules/**" },
+                { "module/**/TEST-*.xml", "**/failsafe-reports/**" },
+                { "*.xml, module/target/**/*.xml", null },
+                { "**", "**/*.txt" } };
+
+        for (String[] pattern : patterns) {
+            // Verify results
+            assertArrayEquals("Wrong files for " + pattern[0],
+                    antScan(ws, pattern[0], pattern[1]),
+                    new FileManager().scan(ws, pattern[0], pattern[1], 0));
+        }
+    }
+
+    @Test
+    public void scansTheFilesModifiedSince() throws Exception {
+        File ws = createTree();
+        File old = new File(ws, "target/surefire-reports/TEST-a.xml");
+        old.setLastModified(old.lastModified() - 60 * 1000);
+
+        // Unit under test
+        String[] files = new FileManager().scan(ws,
+                "**/target/surefire-reports/*.xml", null,
+                old.lastModified() + 1000);
+
+        // Verify results
+        assertEquals("Wrong files", Arrays.asList(
+                "module/sub/target/surefire-reports/TEST-c.xml",
+                "module/target/surefire-reports/TEST-b.xml",
+                "node_modules/lib/target/surefire-reports/TEST-e.xml"),
+                Arrays.asList(files).stream()
+                        .map(file -> file.replace(File.separatorChar, '/'))
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void prunesTheDirectoriesThatCannotMatch() throws Exception {
+        AntPattern pattern = new AntPattern("module/*/target/**/*.xml");
+
+        // Verify results
+        assertTrue("Directory skipped", pattern.matchesStart("module/sub"));
+        assertTrue("Directory skipped",
+                pattern.matchesStart("module/sub/target/surefire-reports"));
+        assertTrue("Directory entered", !pattern.matchesStart("node_modules"));
+        assertTrue("Directory entered", !pattern.matchesStart("module/sub/src"));
+        assertTrue("Tree not excluded",
+                new AntPattern("**/.git/**").matchesTree("a/.git"));
+    }
+}
@@ -0,0 +1,116 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import jenkins.plugins.elastest.utils.HttpTransportMetrics.Endpoint;
+
+public class HttpTransportTest {
+    HttpServer server;
+    HttpTransport transport = new HttpTransport(1, 1);
+    AtomicInteger dropped = new AtomicInteger();
+    String endpoint;
+
+    @Before
+    public void before() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ok", exchange -> {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/error", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.createContext("/drop", exchange -> {
+            // Closes the connection without an answer
+            dropped.incrementAndGet();
+            exchange.getResponseBody().close();
+        });
+        server.start();
+        endpoint = "localhost:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void after() throws Exception {
+        server.stop(0);
+        transport.getClient().close();
+    }
+
+    URI uri(String path) {
+        return URI.create("http://" + endpoint + path);
+    }
+
+    @Test
+    public void countsResponses() throws Exception {
+        // Unit under test
+        transport.execute(new HttpGet(uri("/ok"))).close();
+        transport.execute(new HttpGet(uri("/ok"))).close();
+        CloseableHttpResponse response = transport
+                .execute(new HttpGet(uri("/error")));
+        response.close();
+
+        // Verify results
+        assertEquals("Wrong status", 500,
+                response.getStatusLine().getStatusCode());
+        Endpoint metrics = transport.getMetrics().getEndpoints().get(endpoint);
+        assertEquals("Wrong requests", 3, metrics.getRequests());
+        assertEquals("Wrong error responses", 1, metrics.getErrorResponses());
+        assertEquals("Wrong failures", 0, metrics.getFailures());
+        assertEquals("Connections not returned to the pool", 0,
+                transport.getPoolStats().getLeased());
+    }
+
+    @Test
+    public void retriesIdempotentRequests() throws Exception {
+        try {
+            // Unit under test
+            transport.execute(new HttpGet(uri("/drop"))).close();
+        } catch (Exception e) {
+            // Expected
+        }
+
+        // Verify results
+        Endpoint metrics = transport.getMetrics().getEndpoints().get(endpoint);
+        assertEquals("Wrong attempts", HttpTransport.MAX_RETRIES + 1,
+                dropped.get());
+        assertEquals("Wrong retries", HttpTransport.MAX_RETRIES,
+                metrics.getRetries());
+        assertEquals("Wrong failures", 1, metrics.getFailures());
+    }
+
+    @Test
+    public void doesNotRetryPosts() throws Exception {
+        try {
+            // Unit under test
+            transport.execute(new HttpPost(uri("/drop"))).close();
+        } catch (Exception e) {
+            // Expected
+        }
+
+        // Verify results
+        assertEquals("Post repeated", 1, dropped.get());
+        assertEquals("Wrong failures", 1, transport.getMetrics()
+                .getEndpoints().get(endpoint).getFailures());
+    }
+
+    @Test
+    public void endpointWithDefaultPort() throws Exception {
+        assertEquals("Wrong endpoint", "elastest.io:80",
+                HttpTransport.endpointOf(URI.create("http://elastest.io/api")));
+        assertEquals("Wrong endpoint", "elastest.io:443",
+                HttpTransport.endpointOf(URI.create("https://elastest.io/api")));
+    }
+}
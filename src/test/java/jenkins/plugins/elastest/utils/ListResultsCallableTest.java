@@ -0,0 +1,39 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ListResultsCallableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void listsReportsUpdatedDuringTheBuild() throws Exception {
+        File ws = folder.newFolder("ws");
+        File reports = new File(ws, "target/surefire-reports");
+        reports.mkdirs();
+        long buildTime = System.currentTimeMillis();
+        new File(reports, "TEST-a.xml").createNewFile();
+        File old = new File(reports, "TEST-old.xml");
+        old.createNewFile();
+        old.setLastModified(buildTime - 60 * 1000);
+        new File(reports, "a.txt").createNewFile();
+
+        // Unit under test
+        List<String> result = new ListResultsCallable(
+                "target/surefire-reports/*.xml", buildTime, buildTime)
+                        .invoke(ws, null);
+
+        // Verify results
+        assertEquals("Wrong reports",
+                Collections.singletonList("target/surefire-reports/TEST-a.xml"),
+                result);
+    }
+}
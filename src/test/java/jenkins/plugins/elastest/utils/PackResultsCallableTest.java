@@ -0,0 +1,80 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackResultsCallableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File createReports(int count) throws Exception {
+        File ws = folder.newFolder("ws");
+        File reports = new File(ws, "reports");
+        reports.mkdirs();
+        for (int i = 0; i < count; i++) {
+            StringBuilder report = new StringBuilder(
+                    "<testsuite name=\"Test" + i + "\" tests=\"20\">");
+            for (int j = 0; j < 20; j++) {
+                report.append("<testcase name=\"test").append(j)
+                        .append("\" classname=\"Test").append(i)
+                        .append("\" time=\"0.1\"/>");
+            }
+            report.append("</testsuite>");
+            Files.write(new File(reports, String.format("TEST-%03d.xml", i)).toPath(),
+                    report.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return ws;
+    }
+
+    @Test
+    public void packsTheReportsInOrder() throws Exception {
+        long buildTime = System.currentTimeMillis();
+        File ws = createReports(50);
+        ParseResultCallable reader = new ParseResultCallable("reports/*.xml",
+                buildTime, buildTime);
+        List<String> expected = reader.invoke(ws, null);
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+
+        // Unit under test
+        int count = PackResultsCallable.pack(reader, ws, packed);
+        List<String> result = PackResultsCallable
+                .unpack(new ByteArrayInputStream(packed.toByteArray()));
+
+        // Verify results
+        assertEquals("Wrong count", 50, count);
+        assertEquals("Wrong reports", expected, result);
+        int size = 0;
+        for (String report : expected) {
+            size += report.length();
+        }
+        assertTrue("Not compressed", packed.size() < size);
+    }
+
+    @Test
+    public void packsTheSummaries() throws Exception {
+        long buildTime = System.currentTimeMillis();
+        File ws = createReports(3);
+        ParseResultCallable reader = new ParseResultCallable("reports/*.xml",
+                buildTime, buildTime, 1, new TestReportSummarizer(false));
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+
+        // Unit under test
+        PackResultsCallable.pack(reader, ws, packed);
+        List<String> result = PackResultsCallable
+                .unpack(new ByteArrayInputStream(packed.toByteArray()));
+
+        // Verify results
+        assertEquals("Wrong reports", reader.invoke(ws, null), result);
+    }
+}
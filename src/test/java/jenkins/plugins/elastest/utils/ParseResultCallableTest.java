@@ -0,0 +1,80 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParseResultCallableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    File createReports(int count, long buildTime) throws Exception {
+        File ws = folder.newFolder("ws");
+        File reports = new File(ws, "reports");
+        reports.mkdirs();
+        for (int i = 0; i < count; i++) {
+            Files.write(new File(reports, String.format("TEST-%03d.xml", i)).toPath(),
+                    ("<testsuite name=\"" + i + "\"/>")
+                            .getBytes(StandardCharsets.UTF_8));
+        }
+        File old = new File(reports, "TEST-old.xml");
+        Files.write(old.toPath(), "<testsuite/>".getBytes(StandardCharsets.UTF_8));
+        old.setLastModified(buildTime - 60 * 1000);
+        return ws;
+    }
+
+    @Test
+    public void readsInParallelInOrder() throws Exception {
+        long buildTime = System.currentTimeMillis();
+        File ws = createReports(50, buildTime);
+
+        // Unit under test
+        List<String> sequential = new ParseResultCallable("reports/*.xml",
+                buildTime, buildTime).invoke(ws, null);
+        List<String> parallel = new ParseResultCallable("reports/*.xml",
+                buildTime, buildTime, 4, null).invoke(ws, null);
+
+        // Verify results
+        assertEquals("Wrong reports", 50, parallel.size());
+        assertEquals("Wrong order", sequential, parallel);
+    }
+
+    @Test
+    public void ignoresOldReports() throws Exception {
+        long buildTime = System.currentTimeMillis();
+        File ws = createReports(0, buildTime);
+
+        // Unit under test
+        List<String> result = new ParseResultCallable("reports/*.xml",
+                buildTime, buildTime, 4, null).invoke(ws, null);
+
+        // Verify results
+        assertNull("Old report read", result);
+    }
+
+    @Test
+    public void sendsOtherReportsAsTheyAre() throws Exception {
+        long buildTime = System.currentTimeMillis();
+        File ws = createReports(0, buildTime);
+        String results = "<testng-results total=\"1\"/>";
+        Files.write(new File(ws, "reports/testng-results.xml").toPath(),
+                results.getBytes(StandardCharsets.UTF_8));
+
+        // Unit under test
+        List<String> result = new ParseResultCallable("reports/*.xml",
+                buildTime, buildTime, 1, new TestReportSummarizer(false))
+                        .invoke(ws, null);
+
+        // Verify results
+        assertEquals("Wrong reports", 1, result.size());
+        assertEquals("Report not sent as it is", results, result.get(0));
+    }
+}
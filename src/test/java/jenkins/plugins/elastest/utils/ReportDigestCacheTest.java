@@ -0,0 +1,91 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReportDigestCacheTest {
+    private static final String REPORT_A = "target/surefire-reports/TEST-a.xml";
+    private static final String REPORT_B = "target/surefire-reports/TEST-b.xml";
+    private static final List<String> REPORTS = Arrays.asList(REPORT_A,
+            REPORT_B);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    File ws;
+    String cacheDir;
+
+    @Before
+    public void before() throws Exception {
+        ws = folder.newFolder("ws");
+        cacheDir = new File(folder.getRoot(), "ws@tmp").getPath();
+        write(REPORT_A, "<testsuite name=\"a\"/>");
+        write(REPORT_B, "<testsuite name=\"b\"/>");
+    }
+
+    private File write(String report, String content) throws Exception {
+        File file = new File(ws, report);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private Map<String, String> unshipped(long tJobExecId) throws Exception {
+        return new ReportDigestCache.Unshipped(cacheDir, "folder/job",
+                tJobExecId, REPORTS).invoke(ws, null);
+    }
+
+    @Test
+    public void skipsTheReportsShippedToTheExecution() throws Exception {
+        new ReportDigestCache.Shipped(cacheDir, "folder/job", 12L,
+                unshipped(12L)).invoke(ws, null);
+        File touched = new File(ws, REPORT_A);
+        touched.setLastModified(touched.lastModified() + 5000);
+        write(REPORT_B, "<testsuite name=\"b\" tests=\"1\"/>");
+
+        // Unit under test
+        Map<String, String> result = unshipped(12L);
+
+        // Verify results
+        assertEquals("Wrong reports", Collections.singletonList(REPORT_B),
+                Arrays.asList(result.keySet().toArray()));
+    }
+
+    @Test
+    public void shipsTheReportsToNewExecutions() throws Exception {
+        new ReportDigestCache.Shipped(cacheDir, "folder/job", 12L,
+                unshipped(12L)).invoke(ws, null);
+
+        // Unit under test
+        Map<String, String> result = unshipped(13L);
+
+        // Verify results
+        assertEquals("Wrong reports", REPORTS,
+                Arrays.asList(result.keySet().toArray()));
+        assertTrue("Cache not written",
+                new File(cacheDir, ReportDigestCache.FILE_PREFIX
+                        + "folder_job.properties").isFile());
+    }
+
+    @Test
+    public void digestsTheContent() throws Exception {
+        File file = write("empty.xml", "");
+
+        // Verify results
+        assertEquals("Wrong digest",
+                "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+                ReportDigestCache.sha256(file));
+    }
+}
@@ -0,0 +1,126 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReportWatcherTest {
+    private static final String PATTERN = "target/surefire-reports/*.xml";
+    private static final String REPORT = "target/surefire-reports/TEST-a.xml";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void matchesThePattern() throws Exception {
+        ReportWatcher watcher = new ReportWatcher("job#1", folder.getRoot(),
+                "target/surefire-reports/, build/*.xml", 0, () -> 0);
+
+        // Verify results
+        assertTrue("Report not matched", watcher.isReport(REPORT));
+        assertTrue("Report not matched", watcher.isReport("build/TEST-b.xml"));
+        assertFalse("Other file matched", watcher.isReport("src/TEST-c.xml"));
+        assertTrue("Directory skipped", watcher.couldHoldReports("target"));
+        assertFalse("Directory watched", watcher.couldHoldReports("src"));
+    }
+
+    @Test
+    public void watchesOnlyTheNamedDirectories() throws Exception {
+        ReportWatcher watcher = new ReportWatcher("job#1", folder.getRoot(),
+                "**/TEST-*.xml, reports/**/*.xml", 0, () -> 0);
+
+        // Verify results
+        assertTrue("Workspace not watched", watcher.isNamed(""));
+        assertTrue("Named directory not watched", watcher.isNamed("reports"));
+        assertFalse("Directory below ** watched",
+                watcher.isNamed("reports/unit"));
+        assertFalse("Directory below ** watched", watcher.isNamed("target"));
+        assertTrue("Directory skipped", watcher.couldHoldReports("target"));
+    }
+
+    @Test
+    public void handsOverStableReports() throws Exception {
+        File ws = folder.newFolder("ws");
+        File report = new File(ws, REPORT);
+        report.getParentFile().mkdirs();
+        Files.write(report.toPath(), "<testsuite/>".getBytes(StandardCharsets.UTF_8));
+        ReportWatcher watcher = new ReportWatcher("job#1", ws, PATTERN, 0,
+                () -> 0);
+
+        // Unit under test
+        watcher.scan();
+        watcher.checkStable(1000);
+        List<String> changing = watcher.drainReady();
+        watcher.checkStable(1000 + ReportWatcher.STABLE_MILLIS);
+        List<String> stable = watcher.drainReady();
+
+        // Verify results
+        assertTrue("Changing report handed over", changing.isEmpty());
+        assertEquals("Wrong reports", Collections.singletonList(REPORT), stable);
+    }
+
+    @Test
+    public void handsOverRewrittenReportsAgain() throws Exception {
+        File ws = folder.newFolder("ws");
+        File report = new File(ws, REPORT);
+        report.getParentFile().mkdirs();
+        Files.write(report.toPath(), "<testsuite/>".getBytes(StandardCharsets.UTF_8));
+        ReportWatcher watcher = new ReportWatcher("job#1", ws, PATTERN, 0,
+                () -> 0);
+        watcher.scan();
+        watcher.checkStable(0);
+        watcher.checkStable(ReportWatcher.STABLE_MILLIS);
+        watcher.drainReady();
+
+        // Unit under test
+        watcher.scan();
+        watcher.checkStable(10000);
+        watcher.checkStable(10000 + ReportWatcher.STABLE_MILLIS);
+        List<String> unchanged = watcher.drainReady();
+        report.setLastModified(report.lastModified() + 5000);
+        watcher.scan();
+        watcher.checkStable(20000);
+        watcher.checkStable(20000 + ReportWatcher.STABLE_MILLIS);
+        List<String> rewritten = watcher.drainReady();
+
+        // Verify results
+        assertTrue("Unchanged report handed over", unchanged.isEmpty());
+        assertEquals("Wrong reports", Collections.singletonList(REPORT),
+                rewritten);
+    }
+
+    @Test
+    public void stopReturnsThePendingReports() throws Exception {
+        File ws = folder.newFolder("ws");
+        long now = System.currentTimeMillis();
+        new ReportWatcher.Start("job#2", PATTERN, now, now).invoke(ws, null);
+        File report = new File(ws, REPORT);
+        report.getParentFile().mkdirs();
+        Files.write(report.toPath(), "<testsuite/>".getBytes(StandardCharsets.UTF_8));
+        List<String> pending = Collections.emptyList();
+        for (int i = 0; i < 40 && pending.isEmpty(); i++) {
+            Thread.sleep(100);
+            pending = new ReportWatcher.Poll("job#2").invoke(ws, null);
+        }
+
+        // Unit under test
+        List<String> stopped = new ReportWatcher.Stop("job#2").invoke(ws, null);
+
+        // Verify results
+        assertTrue("Report not found",
+                pending.contains(REPORT) || stopped.contains(REPORT));
+        assertNull("Watcher still running",
+                new ReportWatcher.Poll("job#2").invoke(ws, null));
+    }
+}
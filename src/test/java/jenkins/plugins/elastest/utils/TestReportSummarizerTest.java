@@ -0,0 +1,152 @@
+package jenkins.plugins.elastest.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+import jenkins.plugins.elastest.json.TestCaseSummary;
+import jenkins.plugins.elastest.json.TestCaseSummary.Status;
+import jenkins.plugins.elastest.json.TestSuiteSummary;
+
+public class TestReportSummarizerTest {
+
+    static String report() {
+        StringBuilder trace = new StringBuilder("java.lang.AssertionError: bad");
+        for (int i = 0; i < 100; i++) {
+            trace.append("\n\tat org.example.Foo.line").append(i)
+                    .append("(Foo.java:").append(i).append(")");
+        }
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            output.append("log line ").append(i).append('\n');
+        }
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<testsuite name=\"org.example.FooTest\" time=\"1,234.5\" tests=\"3\" errors=\"0\" skipped=\"1\" failures=\"1\">\n"
+                + "  <properties><property name=\"java.version\" value=\"1.8\"/></properties>\n"
+                + "  <testcase name=\"ok\" classname=\"org.example.FooTest\" time=\"0.01\"/>\n"
+                + "  <testcase name=\"ko\" classname=\"org.example.FooTest\" time=\"0.2\">\n"
+                + "    <failure message=\"bad &amp; worse\" type=\"java.lang.AssertionError\"><![CDATA["
+                + trace + "]]></failure>\n"
+                + "    <system-out><![CDATA[" + output + "]]></system-out>\n"
+                + "  </testcase>\n"
+                + "  <testcase name=\"skip\" classname=\"org.example.FooTest\" time=\"0\">\n"
+                + "    <skipped message=\"ignored\"/>\n"
+                + "  </testcase>\n"
+                + "  <system-out><![CDATA[" + output + "]]></system-out>\n"
+                + "</testsuite>\n";
+    }
+
+    static List<TestSuiteSummary> summarize(TestReportSummarizer summarizer,
+            String report) throws Exception {
+        return summarizer.summarize(new ByteArrayInputStream(
+                report.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void extractsSuitesAndCases() throws Exception {
+        // Unit under test
+        List<TestSuiteSummary> suites = summarize(
+                new TestReportSummarizer(false), report());
+
+        // Verify results
+        assertEquals("Wrong suites", 1, suites.size());
+        TestSuiteSummary suite = suites.get(0);
+        assertEquals("Wrong name", "org.example.FooTest", suite.getName());
+        assertEquals("Wrong time", 1234.5, suite.getTime(), 0.001);
+        assertEquals("Wrong tests", 3, suite.getTests());
+        assertEquals("Wrong failures", 1, suite.getFailures());
+        assertEquals("Wrong skipped", 1, suite.getSkipped());
+        assertEquals("Wrong cases", 3, suite.getTestCases().size());
+        assertNull("Output not dropped", suite.getSystemOut());
+
+        TestCaseSummary failed = suite.getTestCases().get(1);
+        assertEquals("Wrong status", Status.FAILURE, failed.getStatus());
+        assertEquals("Wrong message", "bad & worse", failed.getMessage());
+        assertEquals("Wrong type", "java.lang.AssertionError", failed.getType());
+        assertTrue("Stack trace not truncated", failed.getStackTrace()
+                .endsWith(TestReportSummarizer.TRUNCATED));
+        assertEquals("Wrong stack trace lines",
+                TestReportSummarizer.MAX_STACK_TRACE_LINES + 1,
+                failed.getStackTrace().split("\n").length);
+        assertNull("Output not dropped", failed.getSystemOut());
+        assertEquals("Wrong status", Status.SKIPPED,
+                suite.getTestCases().get(2).getStatus());
+    }
+
+    @Test
+    public void truncatesOutputWhenIncluded() throws Exception {
+        // Unit under test
+        List<TestSuiteSummary> suites = summarize(
+                new TestReportSummarizer(true), report());
+
+        // Verify results
+        String output = suites.get(0).getTestCases().get(1).getSystemOut();
+        assertTrue("Output not included", output.startsWith("log line 0\n"));
+        assertEquals("Output not truncated",
+                TestReportSummarizer.MAX_OUTPUT_CHARS
+                        + TestReportSummarizer.TRUNCATED.length(),
+                output.length());
+    }
+
+    @Test
+    public void writesCompactReport() throws Exception {
+        String report = report();
+        TestReportSummarizer summarizer = new TestReportSummarizer(false);
+
+        // Unit under test
+        String compact = TestReportSummarizer
+                .toXML(summarize(summarizer, report));
+
+        // Verify results
+        assertTrue("Report not compacted", compact.length() * 10 < report.length());
+        TestSuiteSummary suite = summarize(summarizer, compact).get(0);
+        assertEquals("Wrong time", 1234.5, suite.getTime(), 0.001);
+        assertEquals("Wrong cases", 3, suite.getTestCases().size());
+        TestCaseSummary failed = suite.getTestCases().get(1);
+        assertEquals("Wrong status", Status.FAILURE, failed.getStatus());
+        assertEquals("Wrong message", "bad & worse", failed.getMessage());
+        assertEquals("Wrong status", Status.SKIPPED,
+                suite.getTestCases().get(2).getStatus());
+    }
+
+    @Test
+    public void readsSeveralSuites() throws Exception {
+        String report = "<testsuites><testsuite name=\"a\" tests=\"1\">"
+                + "<testcase name=\"t\" classname=\"a\"/></testsuite>"
+                + "<testsuite name=\"b\" tests=\"1\">"
+                + "<testcase name=\"t\" classname=\"b\"><error message=\"npe\"/></testcase>"
+                + "</testsuite></testsuites>";
+
+        // Unit under test
+        List<TestSuiteSummary> suites = summarize(
+                new TestReportSummarizer(false), report);
+
+        // Verify results
+        assertEquals("Wrong suites", 2, suites.size());
+        assertEquals("Wrong status", Status.ERROR,
+                suites.get(1).getTestCases().get(0).getStatus());
+        assertTrue("Suites not wrapped", TestReportSummarizer.toXML(suites)
+                .contains("<testsuites>"));
+    }
+
+    @Test
+    public void skipsOtherReports() throws Exception {
+        TestReportSummarizer summarizer = new TestReportSummarizer(false);
+
+        // Verify results
+        assertNull("TestNG results summarized", summarize(summarizer,
+                "<testng-results total=\"1\"><suite name=\"s\">"
+                        + "<test name=\"t\"/></suite></testng-results>"));
+        assertNull("Pom summarized", summarize(summarizer,
+                "<project><modelVersion>4.0.0</modelVersion></project>"));
+        assertNull("Nested suites summarized", summarize(summarizer,
+                "<testsuite name=\"a\"><testsuite name=\"b\">"
+                        + "<testcase name=\"t\"/></testsuite></testsuite>"));
+    }
+}